@@ -0,0 +1,283 @@
+/**************************************************************************
+ *   Copyright (C) 2010 by                                                 *
+ *      Itamar Syn-Hershko <itamar at code972 dot com>                     *
+ *		Ofer Fort <oferiko at gmail dot com>							   *
+ *                                                                         *
+ *   Distributed under the GNU General Public License, Version 2.0.        *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation (v2).                                    *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   51 Franklin Steet, Fifth Floor, Boston, MA  02111-1307, USA.          *
+ **************************************************************************/
+package hebmorph;
+
+import hebmorph.datastructures.DictLookup;
+import hebmorph.datastructures.DictRadix;
+import hebmorph.hspell.LingInfo;
+import hebmorph.hspell.Loader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ Shares one read-only dictionary and prefix tree among all the lemmatizers of a process that load the same
+ hspell files with the same options, instead of each loading its own copy. A dictionary is loaded once, by
+ whichever thread asks for it first, and dropped once the last lemmatizer holding it is closed.
+
+ Shared dictionaries are read-only (a FrozenDictRadix, or a FrozenMaskRadix without morphologic data); the
+ custom relations a lemmatizer adds are kept over its shared dictionary, by that lemmatizer alone.
+*/
+public final class DictionaryRegistry
+{
+	/**
+	 A reference to a shared dictionary; release() it once done with it
+	*/
+	public static final class Handle
+	{
+		private final Key key;
+		private final Entry entry;
+		private final Loaded loaded;
+		private boolean released = false;
+
+		private Handle(Key key, Entry entry, Loaded loaded)
+		{
+			this.key = key;
+			this.entry = entry;
+			this.loaded = loaded;
+		}
+
+		public DictLookup<MorphData> getDictionary()
+		{
+			return loaded.dictionary;
+		}
+
+		public DictRadix<Integer> getPrefixes()
+		{
+			return loaded.prefixes;
+		}
+
+		/**
+		 Drops this reference; releasing a handle more than once has no effect
+		*/
+		public void release()
+		{
+			synchronized (entries)
+			{
+				if (released)
+				{
+					return;
+				}
+				released = true;
+				if ((--entry.refCount == 0) && (entries.get(key) == entry))
+				{
+					entries.remove(key);
+				}
+			}
+		}
+	}
+
+	private static final class Key
+	{
+		// A canonical folder path, or a ClassLoader, which is compared by identity
+		private final Object source;
+		private final String path;
+		private final boolean loadMorphData, allowHeHasheela;
+
+		Key(Object source, String path, boolean loadMorphData, boolean allowHeHasheela)
+		{
+			this.source = source;
+			this.path = path;
+			this.loadMorphData = loadMorphData;
+			this.allowHeHasheela = allowHeHasheela;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			int hash = (source instanceof String) ? source.hashCode() : System.identityHashCode(source);
+			return hash * 31 + path.hashCode() * 4 + (loadMorphData ? 2 : 0) + (allowHeHasheela ? 1 : 0);
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof Key))
+			{
+				return false;
+			}
+			Key other = (Key)obj;
+			return ((source == other.source) || ((source instanceof String) && source.equals(other.source))) && path.equals(other.path) &&
+				(loadMorphData == other.loadMorphData) && (allowHeHasheela == other.allowHeHasheela);
+		}
+	}
+
+	private static final class Loaded
+	{
+		final DictLookup<MorphData> dictionary;
+		final DictRadix<Integer> prefixes;
+
+		Loaded(DictLookup<MorphData> dictionary, DictRadix<Integer> prefixes)
+		{
+			this.dictionary = dictionary;
+			this.prefixes = prefixes;
+		}
+	}
+
+	private static final class Entry
+	{
+		final FutureTask<Loaded> load;
+		// Guarded by entries
+		int refCount = 0;
+
+		Entry(Callable<Loaded> loader)
+		{
+			load = new FutureTask<Loaded>(loader);
+		}
+	}
+
+	private static final Map<Key, Entry> entries = new HashMap<Key, Entry>();
+
+	private DictionaryRegistry()
+	{
+	}
+
+	public static Handle acquire(final String hspellPath, final boolean loadMorphData, final boolean allowHeHasheela) throws IOException
+	{
+		return acquire(new Key(new File(hspellPath).getCanonicalPath(), "", loadMorphData, allowHeHasheela), new Loading()
+		{
+			@Override
+			DictLookup<MorphData> load() throws IOException
+			{
+				if (loadMorphData)
+				{
+					return Loader.loadFrozenDictionaryFromHSpellFolder(hspellPath, true);
+				}
+				return Loader.loadPrefixMaskDictionaryFromHSpellFolder(hspellPath);
+			}
+		});
+	}
+
+	public static Handle acquire(final ClassLoader classLoader, final String packagePath, final boolean loadMorphData, final boolean allowHeHasheela) throws IOException
+	{
+		return acquire(new Key(classLoader, packagePath, loadMorphData, allowHeHasheela), new Loading()
+		{
+			@Override
+			DictLookup<MorphData> load() throws IOException
+			{
+				if (loadMorphData)
+				{
+					return Loader.loadFrozenDictionaryFromHSpellFolder(classLoader, packagePath, true);
+				}
+				return Loader.loadPrefixMaskDictionaryFromHSpellFolder(classLoader, packagePath);
+			}
+		});
+	}
+
+	private static abstract class Loading
+	{
+		abstract DictLookup<MorphData> load() throws IOException;
+	}
+
+	private static Handle acquire(final Key key, final Loading loading) throws IOException
+	{
+		Entry entry;
+		boolean first = false;
+		synchronized (entries)
+		{
+			entry = entries.get(key);
+			if (entry == null)
+			{
+				entry = new Entry(new Callable<Loaded>()
+				{
+					public Loaded call() throws IOException
+					{
+						return new Loaded(loading.load(), LingInfo.buildPrefixTree(key.allowHeHasheela));
+					}
+				});
+				entries.put(key, entry);
+				first = true;
+			}
+			entry.refCount++;
+		}
+
+		// The first to ask loads the dictionary, and everyone else waits for it
+		if (first)
+		{
+			entry.load.run();
+		}
+		Loaded loaded;
+		try
+		{
+			loaded = entry.load.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			forget(key, entry, false);
+			throw new InterruptedIOException("Interrupted while waiting for the dictionary to load");
+		}
+		catch (ExecutionException e)
+		{
+			// Don't keep the failure around, so the next one to ask tries again
+			forget(key, entry, true);
+			if (e.getCause() instanceof IOException)
+			{
+				throw (IOException)e.getCause();
+			}
+			if (e.getCause() instanceof RuntimeException)
+			{
+				throw (RuntimeException)e.getCause();
+			}
+			if (e.getCause() instanceof Error)
+			{
+				throw (Error)e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+
+		return new Handle(key, entry, loaded);
+	}
+
+	/**
+	 Drops a reference which wasn't handed out
+
+	 @param failed Whether the entry failed to load, and should go even if others still refer to it
+	*/
+	private static void forget(Key key, Entry entry, boolean failed)
+	{
+		synchronized (entries)
+		{
+			if (((--entry.refCount == 0) || failed) && (entries.get(key) == entry))
+			{
+				entries.remove(key);
+			}
+		}
+	}
+
+	/**
+	 @return How many dictionaries are currently shared
+	*/
+	public static int getSharedCount()
+	{
+		synchronized (entries)
+		{
+			return entries.size();
+		}
+	}
+}
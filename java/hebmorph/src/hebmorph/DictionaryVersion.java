@@ -0,0 +1,147 @@
+/**************************************************************************
+ *   Copyright (C) 2010 by                                                 *
+ *      Itamar Syn-Hershko <itamar at code972 dot com>                     *
+ *		Ofer Fort <oferiko at gmail dot com>							   *
+ *                                                                         *
+ *   Distributed under the GNU General Public License, Version 2.0.        *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation (v2).                                    *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   51 Franklin Steet, Fifth Floor, Boston, MA  02111-1307, USA.          *
+ **************************************************************************/
+package hebmorph;
+
+import hebmorph.datastructures.DictLookup;
+import hebmorph.datastructures.DictRadix;
+import hebmorph.datastructures.LayeredDictLookup;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ One immutable state of a Lemmatizer's dictionaries: the words, with any overlays over them, and the
+ prefix tree. The lemmatizer swaps in a new version whenever it's initialized or reloaded, or its overlays
+ change; lookups started on a version finish on it, and a StreamLemmatizer keeps using the version which
+ was current when its stream was set.
+*/
+public final class DictionaryVersion
+{
+	private static final AtomicLong ids = new AtomicLong();
+
+	private final long id = ids.incrementAndGet();
+	private final long version;
+	private final DictLookup<MorphData> dictionary;
+	private final DictRadix<Integer> prefixes;
+	private final long swappedAt;
+	private final long buildNanos;
+	private final long swapNanos;
+	// Built on first use, by OovFilter and by lemmatizers which use skeleton indexes
+	private SkeletonFilter skeletons;
+	private SkeletonIndex skeletonIndex;
+
+	/**
+	 @param buildNanos How long building the dictionary took, or 0 if it wasn't built for this version
+	 @param swapStart When the swap started, by System.nanoTime()
+	*/
+	DictionaryVersion(long version, DictLookup<MorphData> dictionary, DictRadix<Integer> prefixes, long buildNanos, long swapStart)
+	{
+		this.version = version;
+		this.dictionary = dictionary;
+		this.prefixes = prefixes;
+		this.buildNanos = buildNanos;
+		this.swappedAt = System.currentTimeMillis();
+		this.swapNanos = System.nanoTime() - swapStart;
+	}
+
+	/**
+	 @return The number of this version, counting up from 1 for each lemmatizer; the empty version of a
+	 lemmatizer which wasn't initialized yet is 0
+	*/
+	public long getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 @return A number no other version has, of this lemmatizer or any other; what is kept for a version
+	 outside of it, such as by caches shared among lemmatizers, is told apart by it
+	*/
+	public long getId()
+	{
+		return id;
+	}
+
+	public DictLookup<MorphData> getDictionary()
+	{
+		return dictionary;
+	}
+
+	public DictRadix<Integer> getPrefixes()
+	{
+		return prefixes;
+	}
+
+	/**
+	 @return When the version was swapped in, by System.currentTimeMillis()
+	*/
+	public long getSwappedAt()
+	{
+		return swappedAt;
+	}
+
+	/**
+	 @return How long loading the dictionary took, for a version swapped in by a reload, or 0
+	*/
+	public long getBuildNanos()
+	{
+		return buildNanos;
+	}
+
+	/**
+	 @return How long the swap itself took, from taking the lemmatizer's lock to publishing the version
+	*/
+	public long getSwapNanos()
+	{
+		return swapNanos;
+	}
+
+	/**
+	 @return The skeletons of the words of the version, built the first time they're needed
+	*/
+	synchronized SkeletonFilter getSkeletonFilter()
+	{
+		if (skeletons == null)
+		{
+			skeletons = new SkeletonFilter(dictionary);
+		}
+		return skeletons;
+	}
+
+	/**
+	 @return The skeleton index of the words of the version, built the first time it's needed; null if the
+	 version has overlays, which are looked up in layer by layer
+	*/
+	synchronized SkeletonIndex getSkeletonIndex()
+	{
+		if ((skeletonIndex == null) && !(dictionary instanceof LayeredDictLookup))
+		{
+			skeletonIndex = new SkeletonIndex(dictionary);
+		}
+		return skeletonIndex;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "{ version=" + version + " words=" + dictionary.getCount() + " build ms=" + (buildNanos / 1000000) +
+			" swap us=" + (swapNanos / 1000) + "}";
+	}
+}
@@ -0,0 +1,376 @@
+/**************************************************************************
+ *   Copyright (C) 2010 by                                                 *
+ *      Itamar Syn-Hershko <itamar at code972 dot com>                     *
+ *		Ofer Fort <oferiko at gmail dot com>							   *
+ *                                                                         *
+ *   Distributed under the GNU General Public License, Version 2.0.        *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation (v2).                                    *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   51 Franklin Steet, Fifth Floor, Boston, MA  02111-1307, USA.          *
+ **************************************************************************/
+package hebmorph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ A bounded cache of the results of Lemmatizer.lemmatize() and lemmatizeTolerant() by surface form, safe to
+ use from any number of threads. Set it on a lemmatizer with Lemmatizer.setCache(); its stream sessions all
+ share it.
+
+ The cache is split into segments, each locked on its own and evicting its least recently used word. A new
+ word is only admitted in place of the one about to be evicted if it was looked up more often recently, as
+ counted by a small count-min sketch which is halved periodically (TinyLFU). This keeps the frequent words
+ of Zipfian text cached against bursts of rare ones.
+
+ Cached results are shared: the lists are unmodifiable, and their tokens must not be changed. A word with no
+ lemmas is cached too, as an empty list. Results are kept per dictionary version (see
+ DictionaryVersion.getId()), so they go stale when another version is swapped in, and a cache set on
+ several lemmatizers never hands one of them the results of another - a word keeps only the results of
+ the version it was last cached for.
+*/
+public class LemmatizationCache
+{
+	public static final int DEFAULT_SEGMENTS = 16;
+
+	private static class Key
+	{
+		final String word;
+		final boolean tolerant;
+
+		Key(String word, boolean tolerant)
+		{
+			this.word = word;
+			this.tolerant = tolerant;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return tolerant ? ~word.hashCode() : word.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			Key other = (Key)obj;
+			return (tolerant == other.tolerant) && word.equals(other.word);
+		}
+	}
+
+	private static class Entry
+	{
+		// The id of the version the lemmas were found in
+		final long versionId;
+		final List<HebrewToken> lemmas;
+		final int bytes;
+
+		Entry(long versionId, List<HebrewToken> lemmas, int bytes)
+		{
+			this.versionId = versionId;
+			this.lemmas = lemmas;
+			this.bytes = bytes;
+		}
+	}
+
+	private class Segment
+	{
+		private final int m_capacity;
+		private long m_bytes = 0;
+		private final LinkedHashMap<Key, Entry> m_entries;
+
+		Segment(int capacity)
+		{
+			m_capacity = capacity;
+			m_entries = new LinkedHashMap<Key, Entry>(capacity * 4 / 3 + 1, 0.75f, true);
+		}
+
+		synchronized Entry get(Key key)
+		{
+			return m_entries.get(key);
+		}
+
+		synchronized void put(Key key, Entry entry, int frequency)
+		{
+			Entry replaced = m_entries.get(key);
+			if ((replaced == null) && (m_entries.size() >= m_capacity))
+			{
+				Map.Entry<Key, Entry> victim = m_entries.entrySet().iterator().next();
+				if (frequency <= m_sketch.frequency(victim.getKey()))
+				{
+					m_rejections.incrementAndGet();
+					return;
+				}
+				m_entries.remove(victim.getKey());
+				m_bytes -= victim.getValue().bytes;
+				m_evictions.incrementAndGet();
+			}
+			m_entries.put(key, entry);
+			m_bytes += entry.bytes - ((replaced != null) ? replaced.bytes : 0);
+		}
+
+		synchronized int size()
+		{
+			return m_entries.size();
+		}
+
+		synchronized long bytes()
+		{
+			return m_bytes;
+		}
+
+		synchronized void clear()
+		{
+			m_entries.clear();
+			m_bytes = 0;
+		}
+	}
+
+	/**
+	 Approximate recent lookup counts of words, in 4 rows of saturating counters. Updates aren't locked, so
+	 concurrent ones may get lost, which only makes the counts a little less accurate.
+	*/
+	private static class FrequencySketch
+	{
+		private static final int MAX_COUNT = 15;
+		private final int[] m_counters;
+		private final int m_mask;
+		private final int m_sampleSize;
+		private final AtomicLong m_additions = new AtomicLong();
+
+		FrequencySketch(int maxEntries)
+		{
+			int width = 64;
+			while (width < maxEntries)
+			{
+				width <<= 1;
+			}
+			m_counters = new int[width * 4];
+			m_mask = width - 1;
+			m_sampleSize = 10 * maxEntries;
+		}
+
+		private int index(int hash, int row)
+		{
+			hash = (hash + row) * 0x9E3779B9;
+			hash ^= hash >>> 16;
+			return row * (m_mask + 1) + (hash & m_mask);
+		}
+
+		private static int spread(Object key)
+		{
+			int hash = key.hashCode() * 0x85EBCA6B;
+			return hash ^ (hash >>> 15);
+		}
+
+		void increment(Object key)
+		{
+			int hash = spread(key);
+			for (int row = 0; row < 4; row++)
+			{
+				int i = index(hash, row);
+				if (m_counters[i] < MAX_COUNT)
+				{
+					m_counters[i]++;
+				}
+			}
+			if (m_additions.incrementAndGet() % m_sampleSize == 0)
+			{
+				// Age the counts, so words which stopped coming up make room for new ones
+				for (int i = 0; i < m_counters.length; i++)
+				{
+					m_counters[i] >>>= 1;
+				}
+			}
+		}
+
+		int frequency(Object key)
+		{
+			int hash = spread(key);
+			int ret = MAX_COUNT;
+			for (int row = 0; row < 4; row++)
+			{
+				ret = Math.min(ret, m_counters[index(hash, row)]);
+			}
+			return ret;
+		}
+	}
+
+	private final Segment[] m_segments;
+	private final FrequencySketch m_sketch;
+	private final int m_maxEntries;
+	private final AtomicLong m_hits = new AtomicLong(), m_misses = new AtomicLong();
+	private final AtomicLong m_evictions = new AtomicLong(), m_rejections = new AtomicLong();
+
+	public LemmatizationCache(int maxEntries)
+	{
+		this(maxEntries, DEFAULT_SEGMENTS);
+	}
+
+	/**
+	 @param segments How many parts the cache is split into, each locked on its own
+	*/
+	public LemmatizationCache(int maxEntries, int segments)
+	{
+		if ((maxEntries <= 0) || (segments <= 0))
+		{
+			throw new IllegalArgumentException("The cache size and number of segments must be positive");
+		}
+		segments = Math.min(segments, maxEntries);
+		m_maxEntries = maxEntries;
+		m_segments = new Segment[segments];
+		for (int i = 0; i < segments; i++)
+		{
+			m_segments[i] = new Segment(maxEntries / segments + ((i < maxEntries % segments) ? 1 : 0));
+		}
+		m_sketch = new FrequencySketch(maxEntries);
+	}
+
+	private Segment segmentOf(Key key)
+	{
+		int hash = key.hashCode();
+		hash ^= (hash >>> 16);
+		return m_segments[(hash & 0x7fffffff) % m_segments.length];
+	}
+
+	/**
+	 @return The cached lemmas of word, an empty list if it has none, or null if it isn't cached for version
+	*/
+	public List<HebrewToken> get(String word, boolean tolerant, DictionaryVersion version)
+	{
+		Key key = new Key(word, tolerant);
+		m_sketch.increment(key);
+		Entry entry = segmentOf(key).get(key);
+		if ((entry == null) || (entry.versionId != version.getId()))
+		{
+			m_misses.incrementAndGet();
+			return null;
+		}
+		m_hits.incrementAndGet();
+		return entry.lemmas;
+	}
+
+	/**
+	 Caches the lemmas of word, unless words which were looked up more often would have to make room for it
+
+	 @param lemmas What the lemmatizer returned for word with version - null if it has no lemmas
+	 @return The lemmas as they're cached - unmodifiable, and empty rather than null - even if they weren't
+	*/
+	public List<HebrewToken> put(String word, boolean tolerant, DictionaryVersion version, List<HebrewToken> lemmas)
+	{
+		List<HebrewToken> ret = ((lemmas == null) || lemmas.isEmpty()) ? Collections.<HebrewToken>emptyList() :
+				Collections.unmodifiableList(new ArrayList<HebrewToken>(lemmas));
+		Key key = new Key(word, tolerant);
+		segmentOf(key).put(key, new Entry(version.getId(), ret, estimateBytes(word, ret)), m_sketch.frequency(key));
+		return ret;
+	}
+
+	/**
+	 A rough estimate of the heap an entry takes, assuming the lemma strings are the dictionary's own
+	*/
+	private static int estimateBytes(String word, List<HebrewToken> lemmas)
+	{
+		// The word and its key, the entry and its map entry, and the list
+		int ret = 40 + 2 * word.length() + 24 + 40 + 48 + 4 * lemmas.size();
+		for (HebrewToken token : lemmas)
+		{
+			ret += 48;
+			if (token.getText() != word) // tolerated tokens have words of their own
+			{
+				ret += 40 + 2 * token.getText().length();
+			}
+		}
+		return ret;
+	}
+
+	public void clear()
+	{
+		for (Segment segment : m_segments)
+		{
+			segment.clear();
+		}
+	}
+
+	public int getMaxEntries()
+	{
+		return m_maxEntries;
+	}
+
+	public int getSize()
+	{
+		int ret = 0;
+		for (Segment segment : m_segments)
+		{
+			ret += segment.size();
+		}
+		return ret;
+	}
+
+	/**
+	 @return A rough estimate of the heap the cached entries take, in bytes
+	*/
+	public long getEstimatedBytes()
+	{
+		long ret = 0;
+		for (Segment segment : m_segments)
+		{
+			ret += segment.bytes();
+		}
+		return ret;
+	}
+
+	public long getHits()
+	{
+		return m_hits.get();
+	}
+
+	public long getMisses()
+	{
+		return m_misses.get();
+	}
+
+	public double getHitRate()
+	{
+		long hits = getHits(), lookups = hits + getMisses();
+		return (lookups == 0) ? 0 : (double)hits / lookups;
+	}
+
+	/**
+	 @return How many entries were evicted to make room for new ones
+	*/
+	public long getEvictions()
+	{
+		return m_evictions.get();
+	}
+
+	/**
+	 @return How many results weren't cached, since the entries they'd replace were looked up more often
+	*/
+	public long getRejections()
+	{
+		return m_rejections.get();
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("{ entries=%d/%d hit rate=%.1f%% hits=%d misses=%d evictions=%d rejections=%d KB=%d }",
+				getSize(), m_maxEntries, getHitRate() * 100, getHits(), getMisses(), getEvictions(), getRejections(),
+				getEstimatedBytes() / 1024);
+	}
+}
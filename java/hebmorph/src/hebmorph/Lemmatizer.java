@@ -21,28 +21,64 @@
  **************************************************************************/
 package hebmorph;
  
+import hebmorph.datastructures.DictLookup;
 import hebmorph.datastructures.DictRadix;
+import hebmorph.datastructures.FrozenDictRadix;
+import hebmorph.datastructures.LayeredDictLookup;
+import hebmorph.datastructures.LookupResult;
 import hebmorph.datastructures.RealSortedList;
 import hebmorph.datastructures.RealSortedList.SortOrder;
+import hebmorph.datastructures.TopResults;
+import hebmorph.hspell.CompressedMorphDictionary;
+import hebmorph.hspell.DictionaryImage;
 import hebmorph.hspell.LingInfo;
 import hebmorph.hspell.Loader;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import org.apache.lucene.search.spell.Dictionary;
 
-public class Lemmatizer implements Dictionary
+/**
+ Looks words up in an hspell dictionary. Lookups are safe to make from any number of threads at once: each
+ goes to the DictionaryVersion current when it starts, and loading, reloading or stacking overlays on the
+ dictionary publishes a new version rather than changing the one in use. The state of lemmatizing a stream
+ is kept by StreamLemmatizer sessions, one per thread (see StreamLemmatizer.newSession()).
+*/
+public class Lemmatizer implements Dictionary, Closeable
 {
 	
 	static String[] similarTokens = {"העא", "גה", "כח", "תט", "צס", "שס",
 		  "כק", "בו", "פב","זס"};
 	
-	private DictRadix<MorphData> m_dict;
-	private DictRadix<Integer> m_prefixes;
-	private boolean m_IsInitialized = false;
+	private DictLookup<MorphData> m_dict = new DictRadix<MorphData>();
+	// The dictionaries stacked over m_dict by addOverlay(), from the top one down
+	private final List<DictLookup<MorphData>> m_overlays = new ArrayList<DictLookup<MorphData>>();
+	// The words addCustomRelation() added and changed, kept over m_dict and under the overlays. Lookups go to
+	// a frozen copy of them made on every addition, never to m_relations itself
+	private DictRadix<MorphData> m_relations = newRelations();
+	private DictLookup<MorphData> m_relationsLayer;
+	private DictRadix<Integer> m_prefixes = new DictRadix<Integer>();
+	// What lookups go to - m_dict, or m_dict under the custom relations and overlays, and m_prefixes
+	private volatile DictionaryVersion m_current = new DictionaryVersion(0, m_dict, m_prefixes, 0, System.nanoTime());
+	private long m_nVersions = 0;
+	// Counts close() calls, so a dictionary which finishes loading in the background after one is dropped
+	private long m_nCloses = 0;
+	private volatile boolean m_IsInitialized = false;
+	// The reference to the shared dictionary in use, if it is one
+	private DictionaryRegistry.Handle m_shared;
+	private volatile LemmatizationCache m_cache;
+	private volatile OovFilter m_oovFilter;
+	private volatile boolean m_useSkeletonIndex;
 	
 	public Lemmatizer()
 	{
@@ -53,6 +89,15 @@ public class Lemmatizer implements Dictionary
 		return m_IsInitialized;
 	}
 
+	/**
+	 Called first by the methods which load, change or release the dictionary, or change how words are
+	 looked up in it; does nothing here. StreamLemmatizer sessions, which look words up in the dictionary of
+	 another lemmatizer, throw from it.
+	*/
+	protected void checkOwnDictionary()
+	{
+	}
+
 	public Lemmatizer(String hspellPath, boolean loadMorpholicData, boolean allowHeHasheela) throws IOException
 	{
 		initFromHSpellFolder(hspellPath, loadMorpholicData, allowHeHasheela);
@@ -60,9 +105,8 @@ public class Lemmatizer implements Dictionary
 
 	public void initFromHSpellFolder(String path, boolean loadMorpholicData, boolean allowHeHasheela) throws IOException
 	{
-		m_dict = Loader.loadDictionaryFromHSpellFolder(path, loadMorpholicData);
-		m_prefixes = LingInfo.buildPrefixTree(allowHeHasheela);
-		m_IsInitialized = true;
+		checkOwnDictionary();
+		setDictionary(loadDictionary(path, loadMorpholicData), LingInfo.buildPrefixTree(allowHeHasheela), null, 0);
 	}
 	
 	public Lemmatizer(ClassLoader classLoader,String packagePath, boolean loadMorpholicData, boolean allowHeHasheela) throws IOException
@@ -71,33 +115,480 @@ public class Lemmatizer implements Dictionary
 	}
 	
 	public void initFromHSpellFolder(ClassLoader classLoader,String packagePath, boolean loadMorpholicData, boolean allowHeHasheela) throws IOException {
-		m_dict = Loader.loadDictionaryFromHSpellFolder(classLoader,packagePath, loadMorpholicData);
-		m_prefixes = LingInfo.buildPrefixTree(allowHeHasheela);
-		m_IsInitialized = true;
+		checkOwnDictionary();
+		setDictionary(loadDictionary(classLoader,packagePath, loadMorpholicData), LingInfo.buildPrefixTree(allowHeHasheela), null, 0);
+	}
+
+	/**
+	 Loads only the analyses filter accepts, such as Loader.acceptTypes(DMask.D_NOUN) for nouns alone. Words
+	 left with no analyses aren't looked up at all, so the dictionary takes less memory, and tolerant
+	 lookups have fewer words to go through.
+	*/
+	public void initFromHSpellFolder(String path, Loader.MaskFilter filter, boolean allowHeHasheela) throws IOException
+	{
+		checkOwnDictionary();
+		setDictionary(Loader.loadDictionaryFromHSpellFolder(path, filter), LingInfo.buildPrefixTree(allowHeHasheela), null, 0);
+	}
+
+	public void initFromHSpellFolder(ClassLoader classLoader,String packagePath, Loader.MaskFilter filter, boolean allowHeHasheela) throws IOException
+	{
+		checkOwnDictionary();
+		setDictionary(Loader.loadDictionaryFromHSpellFolder(classLoader,packagePath, filter), LingInfo.buildPrefixTree(allowHeHasheela), null, 0);
+	}
+
+	/**
+	 Uses the dictionary DictionaryRegistry shares among all lemmatizers of the process which load the same
+	 files with the same options, loading it if none does yet. The dictionary is read-only, and is released
+	 by close().
+	*/
+	public void initFromSharedDictionary(String path, boolean loadMorpholicData, boolean allowHeHasheela) throws IOException
+	{
+		checkOwnDictionary();
+		initFromShared(DictionaryRegistry.acquire(path, loadMorpholicData, allowHeHasheela));
+	}
+
+	public void initFromSharedDictionary(ClassLoader classLoader,String packagePath, boolean loadMorpholicData, boolean allowHeHasheela) throws IOException
+	{
+		checkOwnDictionary();
+		initFromShared(DictionaryRegistry.acquire(classLoader, packagePath, loadMorpholicData, allowHeHasheela));
+	}
+
+	private void initFromShared(DictionaryRegistry.Handle shared)
+	{
+		setDictionary(shared.getDictionary(), shared.getPrefixes(), shared, 0);
+	}
+
+	/**
+	 Like initFromSharedDictionary(), but returns at once and loads the dictionary on a thread of its own if
+	 it isn't loaded yet. The lemmatizer finds no words until the returned Future is done; reloadFromHSpellFolder()
+	 initializes a lemmatizer the same way with a dictionary of its own.
+
+	 @return The version swapped in once the dictionary is ready. If close() is called before then, the
+	 dictionary is released as soon as it's loaded, and the Future is cancelled.
+	*/
+	public Future<DictionaryVersion> initFromSharedDictionaryAsync(final String path, final boolean loadMorpholicData, final boolean allowHeHasheela)
+	{
+		checkOwnDictionary();
+		return initFromSharedAsync(new Callable<DictionaryRegistry.Handle>()
+		{
+			public DictionaryRegistry.Handle call() throws IOException
+			{
+				return DictionaryRegistry.acquire(path, loadMorpholicData, allowHeHasheela);
+			}
+		});
+	}
+
+	public Future<DictionaryVersion> initFromSharedDictionaryAsync(final ClassLoader classLoader, final String packagePath, final boolean loadMorpholicData, final boolean allowHeHasheela)
+	{
+		checkOwnDictionary();
+		return initFromSharedAsync(new Callable<DictionaryRegistry.Handle>()
+		{
+			public DictionaryRegistry.Handle call() throws IOException
+			{
+				return DictionaryRegistry.acquire(classLoader, packagePath, loadMorpholicData, allowHeHasheela);
+			}
+		});
+	}
+
+	private Future<DictionaryVersion> initFromSharedAsync(final Callable<DictionaryRegistry.Handle> acquire)
+	{
+		final long closes = getClosesCount();
+		return runInBackground(new Callable<DictionaryVersion>()
+		{
+			public DictionaryVersion call() throws Exception
+			{
+				long start = System.nanoTime();
+				DictionaryRegistry.Handle shared = acquire.call();
+				return setDictionaryUnlessClosed(closes, shared.getDictionary(), shared.getPrefixes(), shared, System.nanoTime() - start);
+			}
+		}, "HebMorph dictionary init");
+	}
+
+	private void releaseSharedDictionary()
+	{
+		if (m_shared != null)
+		{
+			m_shared.release();
+			m_shared = null;
+		}
+	}
+
+	/**
+	 Uses a dictionary loaded elsewhere, such as Loader.loadDawgFromHSpellFolder()
+	*/
+	public void initFromDictionary(DictLookup<MorphData> dictionary, boolean allowHeHasheela)
+	{
+		checkOwnDictionary();
+		setDictionary(dictionary, LingInfo.buildPrefixTree(allowHeHasheela), null, 0);
+	}
+
+	/**
+	 Memory-maps a dictionary image compiled by DictionaryImage, instead of loading the hspell files.
+	 The dictionary is read-only, as with freezeDictionary().
+	*/
+	public void initFromDictionaryImage(String imagePath, boolean allowHeHasheela) throws IOException
+	{
+		checkOwnDictionary();
+		setDictionary(DictionaryImage.map(new File(imagePath)), LingInfo.buildPrefixTree(allowHeHasheela), null, 0);
+	}
+
+	/**
+	 Writes the dictionary, along with every custom relation added to it, and the prefix tree into a single
+	 checksummed file, which initFromSnapshot() restores far faster than loading the hspell files again.
+	 Overlays aren't written.
+	*/
+	public void saveSnapshot(File snapshot) throws IOException
+	{
+		checkOwnDictionary();
+		DictLookup<MorphData> dictionary;
+		DictRadix<Integer> prefixes;
+		synchronized (this)
+		{
+			if (!m_IsInitialized)
+			{
+				throw new IllegalStateException("The lemmatizer hasn't been initialized");
+			}
+			dictionary = m_dict;
+			prefixes = m_prefixes;
+			if (m_relations.getCount() > 0)
+			{
+				// The words are written in order, so the custom relations are merged into a copy of the dictionary
+				DictRadix<MorphData> merged = newRelations();
+				DictLookup.KeyEnumerator<MorphData> en = m_dict.iterator();
+				while (en.hasNext())
+				{
+					MorphData md = en.next();
+					merged.addNode(en.getCurrentKey(), md);
+				}
+				en = m_relations.iterator();
+				while (en.hasNext())
+				{
+					MorphData md = en.next();
+					merged.addNode(en.getCurrentKey(), md);
+				}
+				dictionary = (m_dict instanceof DictRadix) ? merged : new FrozenDictRadix<MorphData>(merged);
+			}
+		}
+		LemmatizerSnapshot.write(dictionary, prefixes, snapshot);
+	}
+
+	/**
+	 Restores the state saveSnapshot() wrote. A read-only dictionary is restored as a FrozenDictRadix.
+
+	 @throws IOException If the file isn't a snapshot, or is corrupt
+	*/
+	public void initFromSnapshot(File snapshot) throws IOException
+	{
+		checkOwnDictionary();
+		LemmatizerSnapshot restored = LemmatizerSnapshot.read(snapshot);
+		setDictionary(restored.dictionary, restored.prefixes, null, 0);
+	}
+
+	public static Lemmatizer fromSnapshot(File snapshot) throws IOException
+	{
+		Lemmatizer ret = new Lemmatizer();
+		ret.initFromSnapshot(snapshot);
+		return ret;
+	}
+
+	/**
+	 Replaces the loaded dictionary with a read-only, array-packed copy of it, which takes a fraction of
+	 the heap and is faster to look up.
+	*/
+	public synchronized void freezeDictionary()
+	{
+		checkOwnDictionary();
+		if (m_dict instanceof DictRadix)
+		{
+			setDictionary(new FrozenDictRadix<MorphData>((DictRadix<MorphData>)m_dict), m_prefixes, m_shared, 0);
+		}
+	}
+	
+	/**
+	 Like freezeDictionary(), but also keeps the lemmas and masks of the words compressed until they're
+	 needed; see CompressedMorphDictionary.
+	*/
+	public synchronized void compressDictionary()
+	{
+		checkOwnDictionary();
+		if (m_dict instanceof DictRadix)
+		{
+			setDictionary(new CompressedMorphDictionary((DictRadix<MorphData>)m_dict), m_prefixes, m_shared, 0);
+		}
 	}
 	
-	public boolean addCustomRelation(String existWord,String newWord,int newWordMask ) throws NoSuchFieldException {
+	/**
+	 Stacks a dictionary of extra words, such as one UserDictionary.load() read, over the dictionaries in
+	 use. Words are looked up in the overlay added last first, then in the ones added before it and last in
+	 the hspell dictionary, and the first of them to have a word decides its analyses. The hspell dictionary
+	 is left untouched, so it can stay shared, and is kept under the overlays when the lemmatizer is
+	 initialized again.
+	*/
+	public synchronized void addOverlay(DictLookup<MorphData> overlay)
+	{
+		checkOwnDictionary();
+		m_overlays.add(0, overlay);
+		publish(0, System.nanoTime());
+	}
 
-		if( m_dict.lookup(newWord)!=null ) {
+	/**
+	 @return Whether overlay was in use
+	*/
+	public synchronized boolean removeOverlay(DictLookup<MorphData> overlay)
+	{
+		checkOwnDictionary();
+		for (int i = 0; i < m_overlays.size(); i++)
+		{
+			if (m_overlays.get(i) == overlay)
+			{
+				m_overlays.remove(i);
+				publish(0, System.nanoTime());
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 Puts replacement in the place of overlay, such as with a newer version of the same user dictionary.
+	 Lookups in progress finish with the overlays they started with.
+
+	 @return Whether overlay was in use; if it wasn't, replacement isn't added
+	*/
+	public synchronized boolean replaceOverlay(DictLookup<MorphData> overlay, DictLookup<MorphData> replacement)
+	{
+		checkOwnDictionary();
+		for (int i = 0; i < m_overlays.size(); i++)
+		{
+			if (m_overlays.get(i) == overlay)
+			{
+				m_overlays.set(i, replacement);
+				publish(0, System.nanoTime());
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 @return The overlays in use, from the top one down
+	*/
+	public synchronized List<DictLookup<MorphData>> getOverlays()
+	{
+		return Collections.unmodifiableList(new ArrayList<DictLookup<MorphData>>(m_overlays));
+	}
+
+	/**
+	 Loads a new dictionary in the background and swaps it in once it's loaded, as initFromHSpellFolder()
+	 would load it. Lookups keep going to the current dictionary until then, and streams set before then
+	 keep going to it until they're set again.
+	*/
+	public Future<DictionaryVersion> reloadFromHSpellFolder(final String path, final boolean loadMorpholicData, boolean allowHeHasheela)
+	{
+		checkOwnDictionary();
+		return reload(new Callable<DictLookup<MorphData>>()
+		{
+			public DictLookup<MorphData> call() throws IOException
+			{
+				return loadDictionary(path, loadMorpholicData);
+			}
+		}, allowHeHasheela);
+	}
+
+	public Future<DictionaryVersion> reloadFromHSpellFolder(final ClassLoader classLoader, final String packagePath, final boolean loadMorpholicData, boolean allowHeHasheela)
+	{
+		checkOwnDictionary();
+		return reload(new Callable<DictLookup<MorphData>>()
+		{
+			public DictLookup<MorphData> call() throws IOException
+			{
+				return loadDictionary(classLoader, packagePath, loadMorpholicData);
+			}
+		}, allowHeHasheela);
+	}
+
+	/**
+	 Runs loader on a thread of its own, and swaps in the dictionary it returns. The overlays are kept over
+	 the new dictionary. If loader fails, the current dictionary stays in use, and the returned Future
+	 throws the failure.
+
+	 @return The version swapped in
+	*/
+	public Future<DictionaryVersion> reload(final Callable<? extends DictLookup<MorphData>> loader, final boolean allowHeHasheela)
+	{
+		checkOwnDictionary();
+		final long closes = getClosesCount();
+		return runInBackground(new Callable<DictionaryVersion>()
+		{
+			public DictionaryVersion call() throws Exception
+			{
+				long start = System.nanoTime();
+				DictLookup<MorphData> dictionary = loader.call();
+				DictRadix<Integer> prefixes = LingInfo.buildPrefixTree(allowHeHasheela);
+				return setDictionaryUnlessClosed(closes, dictionary, prefixes, null, System.nanoTime() - start);
+			}
+		}, "HebMorph dictionary reload");
+	}
+
+	private static Future<DictionaryVersion> runInBackground(Callable<DictionaryVersion> load, String threadName)
+	{
+		FutureTask<DictionaryVersion> task = new FutureTask<DictionaryVersion>(load)
+		{
+			@Override
+			protected void setException(Throwable t)
+			{
+				// A load close() made pointless cancels the Future, rather than failing it
+				if (t instanceof CancellationException)
+				{
+					cancel(false);
+				}
+				else
+				{
+					super.setException(t);
+				}
+			}
+		};
+		Thread thread = new Thread(task, threadName);
+		thread.setDaemon(true);
+		thread.start();
+		return task;
+	}
+
+	private synchronized long getClosesCount()
+	{
+		return m_nCloses;
+	}
+
+	/**
+	 @return The version lookups go to, unless they're made by a StreamLemmatizer whose stream was set before
+	 it was swapped in
+	*/
+	public DictionaryVersion getDictionaryVersion()
+	{
+		return m_current;
+	}
+
+	/**
+	 The version the lookups of this lemmatizer go to; a StreamLemmatizer keeps the one which was current
+	 when its stream was set
+	*/
+	protected DictionaryVersion getVersionInUse()
+	{
+		return m_current;
+	}
+
+	private static DictLookup<MorphData> loadDictionary(String path, boolean loadMorpholicData) throws IOException
+	{
+		if (loadMorpholicData)
+		{
+			return Loader.loadDictionaryFromHSpellFolder(path, true);
+		}
+		// Only word existence and prefix legality are needed, so keep just a prefix mask per word
+		return Loader.loadPrefixMaskDictionaryFromHSpellFolder(path);
+	}
+
+	private static DictLookup<MorphData> loadDictionary(ClassLoader classLoader, String packagePath, boolean loadMorpholicData) throws IOException
+	{
+		if (loadMorpholicData)
+		{
+			return Loader.loadDictionaryFromHSpellFolder(classLoader,packagePath, true);
+		}
+		return Loader.loadPrefixMaskDictionaryFromHSpellFolder(classLoader,packagePath);
+	}
+
+	/**
+	 Swaps in a new version with the given dictionary and prefix tree, releasing the shared dictionary in use
+	 unless it's shared again. The dictionary being replaced is left intact, for lookups still going to it.
+	*/
+	private synchronized DictionaryVersion setDictionary(DictLookup<MorphData> dictionary, DictRadix<Integer> prefixes,
+			DictionaryRegistry.Handle shared, long buildNanos)
+	{
+		long start = System.nanoTime();
+		if (m_shared != shared)
+		{
+			releaseSharedDictionary();
+			m_shared = shared;
+		}
+		m_dict = dictionary;
+		m_prefixes = prefixes;
+		m_IsInitialized = true;
+		return publish(buildNanos, start);
+	}
+
+	/**
+	 Like setDictionary(), unless close() was called since closes was read. The shared dictionary is
+	 released then.
+	*/
+	private synchronized DictionaryVersion setDictionaryUnlessClosed(long closes, DictLookup<MorphData> dictionary,
+			DictRadix<Integer> prefixes, DictionaryRegistry.Handle shared, long buildNanos)
+	{
+		if (m_nCloses != closes)
+		{
+			if (shared != null)
+			{
+				shared.release();
+			}
+			throw new CancellationException("The lemmatizer was closed while its dictionary was loading");
+		}
+		return setDictionary(dictionary, prefixes, shared, buildNanos);
+	}
+
+	private DictionaryVersion publish(long buildNanos, long swapStart)
+	{
+		DictLookup<MorphData> lookup = m_dict;
+		if (!m_overlays.isEmpty() || (m_relationsLayer != null))
+		{
+			List<DictLookup<MorphData>> layers = new ArrayList<DictLookup<MorphData>>(m_overlays);
+			if (m_relationsLayer != null)
+			{
+				layers.add(m_relationsLayer);
+			}
+			layers.add(m_dict);
+			lookup = new LayeredDictLookup<MorphData>(layers);
+		}
+		m_current = new DictionaryVersion(++m_nVersions, lookup, m_prefixes, buildNanos, swapStart);
+		return m_current;
+	}
+
+	/**
+	 Adds newWord as a word related to existWord: each gets the other as an extra lemma. The dictionary in use
+	 isn't changed, whatever kind it is - the relations are kept in a layer of their own over it, and under
+	 the overlays, and every relation publishes a new version with a new copy of that layer. They're kept
+	 when the lemmatizer is initialized again, and dropped by close().
+
+	 @return false if newWord is already a word
+	 @throws NoSuchFieldException If existWord isn't
+	 @throws IllegalStateException If the dictionary in use has no morphologic data
+	*/
+	public synchronized boolean addCustomRelation(String existWord,String newWord,int newWordMask ) throws NoSuchFieldException {
+		checkOwnDictionary();
+
+		MorphData newExisting = lookupRelated(newWord);
+		if( newExisting!=null ) {
+			checkMorphData(newExisting);
 			return false;
 		}
 		
-		MorphData existData = m_dict.lookup(existWord);
+		MorphData existData = lookupRelated(existWord);
 		if( existData==null) {
 			throw new NoSuchFieldException(existWord+" not found");
 		}
+		checkMorphData(existData);
 			
 
+		// existWord gets a new MorphData rather than having its own changed, as lookups may be reading it
+		MorphData relatedData = new MorphData();
 		MorphData newData = new MorphData();
+		relatedData.setPrefixes(existData.getPrefixes());
 		
-		Integer[] existFlags = new Integer[existData.getDescFlags().length+1];
-		Integer[] newFlags = new Integer[existData.getDescFlags().length+1];
+		int[] existFlags = new int[existData.getDescFlags().length+1];
+		int[] newFlags = new int[existData.getDescFlags().length+1];
 		System.arraycopy(existData.getDescFlags(), 0, existFlags, 0, existData.getDescFlags().length);
 		System.arraycopy(existData.getDescFlags(), 0, newFlags, 0, existData.getDescFlags().length); 
 		existFlags[existData.getDescFlags().length]=0;
 		newFlags[existData.getDescFlags().length]=existData.getDescFlags()[0];
 		
-		existData.setDescFlags(existFlags);
+		relatedData.setDescFlags(existFlags);
 		newData.setDescFlags(newFlags);
 		
 		String[] existLemmas = new String[existData.getLemmas().length+1];
@@ -108,17 +599,101 @@ public class Lemmatizer implements Dictionary
 		newLemmas[existData.getLemmas().length] = existWord;
 		
 		
-		existData.setLemmas(existLemmas);
+		relatedData.setLemmas(existLemmas);
 		newData.setLemmas(newLemmas);
 		
-		m_dict.addNode(newWord,newData);
+		m_relations.addNode(existWord,relatedData);
+		m_relations.addNode(newWord,newData);
+		m_relationsLayer = new FrozenDictRadix<MorphData>(m_relations);
 		
+		// A new version, so that nothing built or cached for the words of the old one is used for newWord
+		publish(0, System.nanoTime());
 		return true;
 	}
+
+	/**
+	 Dictionaries loaded without morphologic data (loadMorpholicData false, or the prefix-mask mode) have
+	 words with no descriptions or lemmas, so there's nothing to relate
+	*/
+	private static void checkMorphData(MorphData data)
+	{
+		if (data.getDescFlags().length == 0)
+		{
+			throw new IllegalStateException("Custom relations need morphologic data; the dictionary in use was loaded without it");
+		}
+	}
+
+	private MorphData lookupRelated(String word)
+	{
+		MorphData ret = m_relations.lookup(word);
+		return (ret != null) ? ret : m_dict.lookup(word);
+	}
+
+	private static DictRadix<MorphData> newRelations()
+	{
+		DictRadix<MorphData> ret = new DictRadix<MorphData>();
+		ret.setAllowValueOverride(true);
+		return ret;
+	}
 	
+	/**
+	 Caches the results of lemmatize() and lemmatizeTolerant() in cache, or stops caching them if it's null.
+	 Results are then returned as unmodifiable lists, whose tokens must not be changed.
+	*/
+	public void setCache(LemmatizationCache cache)
+	{
+		checkOwnDictionary();
+		m_cache = cache;
+	}
+
+	/**
+	 @return The cache the results of this lemmatizer are kept in; a StreamLemmatizer session uses its engine's
+	*/
+	public LemmatizationCache getCache()
+	{
+		return m_cache;
+	}
+
+	/**
+	 Rejects out of vocabulary words with filter before lemmatizeTolerant() looks them up, or stops
+	 rejecting them if it's null
+	*/
+	public void setOovFilter(OovFilter filter)
+	{
+		checkOwnDictionary();
+		m_oovFilter = filter;
+	}
+
+	/**
+	 @return The filter lemmatizeTolerant() uses; a StreamLemmatizer session uses its engine's
+	*/
+	public OovFilter getOovFilter()
+	{
+		return m_oovFilter;
+	}
+
+	/**
+	 Makes lemmatizeTolerant() find the words it tolerates in a skeleton index of the dictionary, built the
+	 first time it's needed, rather than by crawling the dictionary for them. The results are the same; for
+	 a dictionary with overlays, which has no index, lemmatizeTolerant() crawls it anyway.
+	*/
+	public void setUseSkeletonIndex(boolean useSkeletonIndex)
+	{
+		checkOwnDictionary();
+		m_useSkeletonIndex = useSkeletonIndex;
+	}
+
+	/**
+	 @return Whether lemmatizeTolerant() uses a skeleton index; a StreamLemmatizer session does if its engine does
+	*/
+	public boolean getUseSkeletonIndex()
+	{
+		return m_useSkeletonIndex;
+	}
+
 	public boolean isLegalPrefix(String str)
 	{
-		Integer lookup = m_prefixes.lookup(str);
+		Integer lookup = getVersionInUse().getPrefixes().lookup(str);
 		if ((lookup!=null) && (lookup > 0))
 		{
 			return true;
@@ -161,6 +736,22 @@ public class Lemmatizer implements Dictionary
 		return word;
 	}
 
+	/**
+	 Continues a walk down the prefix tree by one letter, so the candidate prefixes of a word are all looked up
+	 in one left-to-right pass, with the word after each one looked up in place as it is reached.
+
+	 @return The node of the prefix extended by c, or null if that's no prefix (it doesn't end on a node)
+	*/
+	static DictRadix<Integer>.DictNode nextPrefixNode(DictRadix<Integer>.DictNode node, char c)
+	{
+		DictRadix<Integer>.DictNode child = node.getChild(c);
+		if ((child == null) || (child.getKey().length != 1))
+		{
+			return null;
+		}
+		return child;
+	}
+
 	/**
 	 Removes all Niqqud character from a word
 
@@ -188,14 +779,19 @@ public class Lemmatizer implements Dictionary
 	 * @return
 	 */
 	public boolean haveLemmas(String word) {
-		MorphData md = m_dict.lookup(word);
+		// Prefixes and the words after them are looked up in place, rather than as substrings of word
+		char[] chars = word.toCharArray();
+		DictionaryVersion version = getVersionInUse();
+		DictLookup<MorphData> dict = version.getDictionary();
+
+		MorphData md = dict.lookup(chars, 0, chars.length);
 		if (md != null)
 		{
 			return true;
 		}
 		else if (word.endsWith("'")) // Try ommitting closing Geresh
 		{
-			md = m_dict.lookup(word.substring(0, word.length() - 1));
+			md = dict.lookup(chars, 0, chars.length - 1);
 			if (md != null)
 			{
 				return true;
@@ -204,6 +800,7 @@ public class Lemmatizer implements Dictionary
 
 		int prefLen = 0;
 		Integer prefixMask;
+		DictRadix<Integer>.DictNode prefix = version.getPrefixes().getRootNode();
 		while (true)
 		{
 			// Make sure there are at least 2 letters left after the prefix (the words של, שלא for example)
@@ -212,13 +809,18 @@ public class Lemmatizer implements Dictionary
 				break;
 			}
 
-			prefixMask = m_prefixes.lookup(word.substring(0, ++prefLen));
+			prefix = nextPrefixNode(prefix, chars[prefLen++]);
+			if (prefix == null)
+			{
+				break;
+			}
+			prefixMask = prefix.getValue();
 			if ((prefixMask== null) ||  (prefixMask== 0)) // no such prefix
 			{
 				break;
 			}
 
-			md = m_dict.lookup(word.substring(prefLen));
+			md = dict.lookup(chars, prefLen, chars.length - prefLen);
 			if ((md != null) && ((md.getPrefixes() & prefixMask) > 0))
 			{
 				return true;
@@ -230,12 +832,31 @@ public class Lemmatizer implements Dictionary
 	}
 
 	public List<HebrewToken> lemmatize(String word)
+	{
+		DictionaryVersion version = getVersionInUse();
+		LemmatizationCache cache = getCache();
+		if (cache == null)
+		{
+			return lemmatize(word, version);
+		}
+
+		List<HebrewToken> ret = cache.get(word, false, version);
+		if (ret == null)
+		{
+			ret = cache.put(word, false, version, lemmatize(word, version));
+		}
+		return ret.isEmpty() ? null : ret;
+	}
+
+	private static List<HebrewToken> lemmatize(String word, DictionaryVersion version)
 	{
 		// TODO: Verify word to be non-empty and contain Hebrew characters?
 
 		RealSortedList<HebrewToken> ret = new RealSortedList<HebrewToken>(SortOrder.Desc);
+		char[] chars = word.toCharArray();
+		DictLookup<MorphData> dict = version.getDictionary();
 
-		MorphData md = m_dict.lookup(word);
+		MorphData md = dict.lookup(chars, 0, chars.length);
 		if (md != null)
 		{
 			for (int result = 0; result < md.getLemmas().length; result++)
@@ -245,7 +866,7 @@ public class Lemmatizer implements Dictionary
 		}
 		else if (word.endsWith("'")) // Try ommitting closing Geresh
 		{
-			md = m_dict.lookup(word.substring(0, word.length() - 1));
+			md = dict.lookup(chars, 0, chars.length - 1);
 			if (md != null)
 			{
 				for (int result = 0; result < md.getLemmas().length; result++)
@@ -257,6 +878,7 @@ public class Lemmatizer implements Dictionary
 
 		int prefLen = 0;
 		Integer prefixMask;
+		DictRadix<Integer>.DictNode prefix = version.getPrefixes().getRootNode();
 		while (true)
 		{
 			// Make sure there are at least 2 letters left after the prefix (the words של, שלא for example)
@@ -265,13 +887,18 @@ public class Lemmatizer implements Dictionary
 				break;
 			}
 
-			prefixMask = m_prefixes.lookup(word.substring(0, ++prefLen));
+			prefix = nextPrefixNode(prefix, chars[prefLen++]);
+			if (prefix == null)
+			{
+				break;
+			}
+			prefixMask = prefix.getValue();
 			if ((prefixMask== null) ||  (prefixMask== 0)) // no such prefix
 			{
 				break;
 			}
 
-			md = m_dict.lookup(word.substring(prefLen));
+			md = dict.lookup(chars, prefLen, chars.length - prefLen);
 			if ((md != null) && ((md.getPrefixes() & prefixMask) > 0))
 			{
 				for (int result = 0; result < md.getLemmas().length; result++)
@@ -292,18 +919,100 @@ public class Lemmatizer implements Dictionary
 	}
 
 	public List<HebrewToken> lemmatizeTolerant(String word)
+	{
+		DictionaryVersion version = getVersionInUse();
+		SkeletonIndex index = getUseSkeletonIndex() ? version.getSkeletonIndex() : null;
+		LemmatizationCache cache = getCache();
+		if (cache == null)
+		{
+			return lemmatizeTolerant(word, version, getOovFilter(), index);
+		}
+
+		List<HebrewToken> ret = cache.get(word, true, version);
+		if (ret == null)
+		{
+			ret = cache.put(word, true, version, lemmatizeTolerant(word, version, getOovFilter(), index));
+		}
+		return ret.isEmpty() ? null : ret;
+	}
+
+	/**
+	 The tokens lemmatizeTolerant(word) returns which are scored at least minScore, and no more than
+	 maxResults of them - the best, which come first. The dictionary lookups skip the words which can't
+	 get such tokens, rather than going through all of them. Results cached for word are used, but the
+	 results of this aren't cached, nor is the OOV filter told of words they're empty for.
+
+	 @param maxResults Integer.MAX_VALUE for no limit
+	*/
+	public List<HebrewToken> lemmatizeTolerant(String word, float minScore, int maxResults)
+	{
+		if (maxResults < 1)
+		{
+			throw new IllegalArgumentException("maxResults must be positive, was " + maxResults);
+		}
+
+		DictionaryVersion version = getVersionInUse();
+		LemmatizationCache cache = getCache();
+		List<HebrewToken> tokens = (cache == null) ? null : cache.get(word, true, version);
+		if (tokens == null)
+		{
+			SkeletonIndex index = getUseSkeletonIndex() ? version.getSkeletonIndex() : null;
+			tokens = lemmatizeTolerant(word, version, getOovFilter(), index, minScore, maxResults);
+		}
+		if (tokens == null)
+		{
+			return null;
+		}
+
+		// The lookups may let through a few more tokens than the bounds do
+		List<HebrewToken> ret = new ArrayList<HebrewToken>();
+		for (HebrewToken token : tokens)
+		{
+			if ((ret.size() == maxResults) || (token.getScore() < minScore))
+			{
+				break;
+			}
+			ret.add(token);
+		}
+		return ret.isEmpty() ? null : ret;
+	}
+
+	private static List<HebrewToken> lemmatizeTolerant(String word, DictionaryVersion version, OovFilter oovFilter, SkeletonIndex index)
+	{
+		return lemmatizeTolerant(word, version, oovFilter, index, Float.NEGATIVE_INFINITY, Integer.MAX_VALUE);
+	}
+
+	/**
+	 @param index The skeleton index of version to look up the tolerated words in, or null to crawl for them
+	 @param minScore Float.NEGATIVE_INFINITY, with maxResults Integer.MAX_VALUE, for an unbounded lemmatization
+	*/
+	private static List<HebrewToken> lemmatizeTolerant(String word, DictionaryVersion version, OovFilter oovFilter, SkeletonIndex index,
+			float minScore, int maxResults)
 	{
 		// TODO: Verify word to be non-empty and contain Hebrew characters?
 
+		if ((oovFilter != null) && oovFilter.isKnownOov(word, version))
+		{
+			return null;
+		}
+
 		RealSortedList<HebrewToken> ret = new RealSortedList<HebrewToken>(SortOrder.Desc);
 
 		int prefLen = 0;
 		Integer prefixMask;
+		char[] chars = word.toCharArray();
+		DictLookup<MorphData> dict = version.getDictionary();
 
-		List<DictRadix<MorphData>.LookupResult> tolerated = m_dict.lookupTolerant(word, LookupTolerators.TolerateEmKryiaAll);
+		List<LookupResult<MorphData>> tolerated = null;
+		if ((oovFilter == null) || oovFilter.shouldCrawl(word, 0, version))
+		{
+			// Each of the words gets at least one token, scored as the word is, so the tokens in the bounds come
+			// from the maxResults best words
+			tolerated = lookupTolerant(dict, index, word, minScore, maxResults);
+		}
 		if (tolerated != null)
 		{
-			for (DictRadix<MorphData>.LookupResult lr : tolerated)
+			for (LookupResult<MorphData> lr : tolerated)
 			{
 				for (int result = 0; result < lr.getData().getLemmas().length; result++)
 				{
@@ -313,6 +1022,7 @@ public class Lemmatizer implements Dictionary
 		}
 
 		prefLen = 0;
+		DictRadix<Integer>.DictNode prefix = version.getPrefixes().getRootNode();
 		while (true)
 		{
 			// Make sure there are at least 2 letters left after the prefix (the words של, שלא for example)
@@ -321,16 +1031,33 @@ public class Lemmatizer implements Dictionary
 				break;
 			}
 
-			prefixMask = m_prefixes.lookup(word.substring(0, ++prefLen));
+			prefix = nextPrefixNode(prefix, chars[prefLen++]);
+			if (prefix == null)
+			{
+				break;
+			}
+			prefixMask = prefix.getValue();
 			if ((prefixMask ==null) || (prefixMask == 0)) // no such prefix
 			{
 				break;
 			}
 
-			tolerated = m_dict.lookupTolerant(word.substring(prefLen), LookupTolerators.TolerateEmKryiaAll);
+			if ((oovFilter != null) && !oovFilter.shouldCrawl(word, prefLen, version))
+			{
+				continue;
+			}
+			// Words after a prefix may get no tokens, so only their scores can be bounded: the tokens are scored 0.9
+			// of the words, and have to beat the maxResults best found so far. A little under that, so no token is
+			// lost to rounding.
+			float bound = minScore;
+			if (ret.size() >= maxResults)
+			{
+				bound = Math.max(bound, ret.get(maxResults - 1).getScore());
+			}
+			tolerated = lookupTolerant(dict, index, word.substring(prefLen), bound / 0.9f * 0.9999f, Integer.MAX_VALUE);
 			if (tolerated != null)
 			{
-				for (DictRadix<MorphData>.LookupResult lr : tolerated)
+				for (LookupResult<MorphData> lr : tolerated)
 				{
 					for (int result = 0; result < lr.getData().getLemmas().length; result++)
 					{
@@ -347,8 +1074,30 @@ public class Lemmatizer implements Dictionary
 		{
 			return ret;
 		}
+		if ((oovFilter != null) && (minScore == Float.NEGATIVE_INFINITY) && (maxResults == Integer.MAX_VALUE))
+		{
+			oovFilter.addOov(word, version);
+		}
 		return null;
 	}
+
+	/**
+	 Looks key up in index, or crawls dict for it if index is null
+
+	 @param minScore Float.NEGATIVE_INFINITY, with maxResults Integer.MAX_VALUE, for an unbounded lookup
+	*/
+	private static List<LookupResult<MorphData>> lookupTolerant(DictLookup<MorphData> dict, SkeletonIndex index, String key,
+			float minScore, int maxResults)
+	{
+		if ((minScore == Float.NEGATIVE_INFINITY) && (maxResults == Integer.MAX_VALUE))
+		{
+			return (index != null) ? index.lookupTolerant(key) : dict.lookupTolerant(key, LookupTolerators.EmKryiaTolerators);
+		}
+
+		TopResults<MorphData> top = (index != null) ? index.lookupTolerant(key, minScore, maxResults) :
+			dict.lookupTolerant(key, LookupTolerators.EmKryiaTolerators, minScore, maxResults);
+		return (top.size() > 0) ? top.getResults() : null;
+	}
 	
 	
 	private static String splice(String word,int prefixEnd,int sufixStart,char... middleChars ) {
@@ -469,10 +1218,10 @@ public class Lemmatizer implements Dictionary
 	
 	public class WordIterator implements Iterator<String>{
 		
-		DictRadix<MorphData>.RadixEnumerator wrappedItrator;
+		DictLookup.KeyEnumerator<MorphData> wrappedItrator;
 		
 		WordIterator() {
-			wrappedItrator = (DictRadix<MorphData>.RadixEnumerator)m_dict.iterator();
+			wrappedItrator = getDictionaryVersion().getDictionary().iterator();
 		}
 
 		public boolean hasNext() {
@@ -494,12 +1243,20 @@ public class Lemmatizer implements Dictionary
 	}
 
 	public Iterator<MorphData> getMorphIterator() {
-		return m_dict.iterator();
+		return getDictionaryVersion().getDictionary().iterator();
 	}
 	
+	/**
+	 Drops the dictionary, the overlays and the custom relations, releasing the dictionary if it's shared (the shared prefix tree
+	 is left intact)
+	*/
 	public synchronized void close() {
-		m_dict.clear();
-		m_prefixes.clear();
+		checkOwnDictionary();
+		m_nCloses++;
+		m_overlays.clear();
+		m_relations = newRelations();
+		m_relationsLayer = null;
+		setDictionary(new DictRadix<MorphData>(), new DictRadix<Integer>(), null, 0);
 		m_IsInitialized = false;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,345 @@
+/**************************************************************************
+ *   Copyright (C) 2010 by                                                 *
+ *      Itamar Syn-Hershko <itamar at code972 dot com>                     *
+ *		Ofer Fort <oferiko at gmail dot com>							   *
+ *                                                                         *
+ *   Distributed under the GNU General Public License, Version 2.0.        *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation (v2).                                    *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   51 Franklin Steet, Fifth Floor, Boston, MA  02111-1307, USA.          *
+ **************************************************************************/
+package hebmorph;
+
+import hebmorph.datastructures.DictLookup;
+import hebmorph.datastructures.DictRadix;
+import hebmorph.datastructures.DictRadixBuilder;
+import hebmorph.datastructures.FrozenDictRadix;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ Reads and writes the state of an initialized Lemmatizer - its dictionary, including any custom relations
+ added to it, and its prefix tree - as a single checksummed file, so it can be restored without loading the
+ hspell files and redoing the custom relations.
+
+ Lemma and mask arrays shared by several words (see MorphDataPool) are written once, and are shared again
+ once restored. Layout (big-endian):
+   magic, version, flags (FLAG_READ_ONLY)
+   the prefixes: count, then for each its word and int mask
+   lemmas: count, then each as a char count (short) and its chars
+   lemma arrays: count, then each as a length (-1 for null) and lemma ids (-1 for null)
+   mask arrays: count, then each as a length (-1 for null) and the masks
+   the dictionary: count, then for each word its word, prefix mask (byte), lemma array id and mask array id
+   CRC32 of everything before it (long)
+ Words are sorted, and each is written as the number of leading chars it shares with the previous word
+ (short), the number of chars that follow (short) and those chars.
+*/
+final class LemmatizerSnapshot
+{
+	private static final int MAGIC = 0x484D534E; // "HMSN"
+	private static final int VERSION = 1;
+	private static final int FLAG_READ_ONLY = 1;
+
+	final DictLookup<MorphData> dictionary;
+	final DictRadix<Integer> prefixes;
+
+	private LemmatizerSnapshot(DictLookup<MorphData> dictionary, DictRadix<Integer> prefixes)
+	{
+		this.dictionary = dictionary;
+		this.prefixes = prefixes;
+	}
+
+	static void write(DictLookup<MorphData> dictionary, DictRadix<Integer> prefixes, File file) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(dictionary.getCount() * 16);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt((dictionary instanceof DictRadix) ? 0 : FLAG_READ_ONLY);
+
+		out.writeInt(prefixes.getCount());
+		char[] prev = new char[0];
+		DictLookup.KeyEnumerator<Integer> prefixesEnum = prefixes.iterator();
+		while (prefixesEnum.hasNext())
+		{
+			int mask = prefixesEnum.next();
+			prev = writeWord(prev, prefixesEnum.getCurrentKey(), out);
+			out.writeInt(mask);
+		}
+
+		// Number the distinct lemmas and arrays first; arrays are told apart by identity, as equal ones are
+		// already shared
+		Map<String, Integer> lemmaIds = new HashMap<String, Integer>();
+		List<String> lemmas = new ArrayList<String>();
+		Map<Object, Integer> lemmaArrayIds = new IdentityHashMap<Object, Integer>();
+		List<String[]> lemmaArrays = new ArrayList<String[]>();
+		Map<Object, Integer> maskArrayIds = new IdentityHashMap<Object, Integer>();
+		List<int[]> maskArrays = new ArrayList<int[]>();
+		DictLookup.KeyEnumerator<MorphData> en = dictionary.iterator();
+		while (en.hasNext())
+		{
+			MorphData md = en.next();
+			if ((md.getLemmas() != null) && !lemmaArrayIds.containsKey(md.getLemmas()))
+			{
+				lemmaArrayIds.put(md.getLemmas(), lemmaArrays.size());
+				lemmaArrays.add(md.getLemmas());
+				for (String lemma : md.getLemmas())
+				{
+					if ((lemma != null) && !lemmaIds.containsKey(lemma))
+					{
+						lemmaIds.put(lemma, lemmas.size());
+						lemmas.add(lemma);
+					}
+				}
+			}
+			if ((md.getDescFlags() != null) && !maskArrayIds.containsKey(md.getDescFlags()))
+			{
+				maskArrayIds.put(md.getDescFlags(), maskArrays.size());
+				maskArrays.add(md.getDescFlags());
+			}
+		}
+
+		out.writeInt(lemmas.size());
+		for (String lemma : lemmas)
+		{
+			out.writeShort(lemma.length());
+			out.writeChars(lemma);
+		}
+		out.writeInt(lemmaArrays.size());
+		for (String[] array : lemmaArrays)
+		{
+			out.writeInt(array.length);
+			for (String lemma : array)
+			{
+				out.writeInt((lemma == null) ? -1 : lemmaIds.get(lemma));
+			}
+		}
+		out.writeInt(maskArrays.size());
+		for (int[] array : maskArrays)
+		{
+			out.writeInt(array.length);
+			for (int mask : array)
+			{
+				out.writeInt(mask);
+			}
+		}
+
+		out.writeInt(dictionary.getCount());
+		prev = new char[0];
+		int count = 0;
+		en = dictionary.iterator();
+		while (en.hasNext())
+		{
+			MorphData md = en.next();
+			prev = writeWord(prev, en.getCurrentKey(), out);
+			out.writeByte(md.getPrefixes());
+			out.writeInt((md.getLemmas() == null) ? -1 : lemmaArrayIds.get(md.getLemmas()));
+			out.writeInt((md.getDescFlags() == null) ? -1 : maskArrayIds.get(md.getDescFlags()));
+			count++;
+		}
+		if (count != dictionary.getCount())
+		{
+			throw new IOException("The dictionary lists " + count + " words, but counts " + dictionary.getCount());
+		}
+		out.flush();
+
+		byte[] data = bytes.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length);
+		ByteBuffer buf = ByteBuffer.allocate(data.length + 8);
+		buf.put(data).putLong(crc.getValue()).flip();
+
+		FileChannel channel = new FileOutputStream(file).getChannel();
+		try
+		{
+			while (buf.hasRemaining())
+			{
+				channel.write(buf);
+			}
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+
+	private static char[] writeWord(char[] prev, String word, DataOutputStream out) throws IOException
+	{
+		int shared = 0, max = Math.min(prev.length, word.length());
+		while ((shared < max) && (prev[shared] == word.charAt(shared)))
+		{
+			shared++;
+		}
+		out.writeShort(shared);
+		out.writeShort(word.length() - shared);
+		out.writeChars(word.substring(shared));
+		return word.toCharArray();
+	}
+
+	static LemmatizerSnapshot read(File file) throws IOException
+	{
+		ByteBuffer buf;
+		FileChannel channel = new FileInputStream(file).getChannel();
+		try
+		{
+			if (channel.size() > Integer.MAX_VALUE)
+			{
+				throw new IOException(file + " is too large to be a Lemmatizer snapshot");
+			}
+			buf = ByteBuffer.allocate((int)channel.size());
+			while (buf.hasRemaining())
+			{
+				if (channel.read(buf) < 0)
+				{
+					throw new IOException(file + " was truncated while being read");
+				}
+			}
+			buf.flip();
+		}
+		finally
+		{
+			channel.close();
+		}
+
+		if ((buf.limit() < 20) || (buf.getInt(0) != MAGIC))
+		{
+			throw new IOException(file + " is not a Lemmatizer snapshot");
+		}
+		if (buf.getInt(4) != VERSION)
+		{
+			throw new IOException(file + " is a snapshot of version " + buf.getInt(4) + ", expected " + VERSION);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(buf.array(), 0, buf.limit() - 8);
+		if (crc.getValue() != buf.getLong(buf.limit() - 8))
+		{
+			throw new IOException(file + " is corrupt (checksum mismatch)");
+		}
+
+		try
+		{
+			buf.position(8);
+			buf.limit(buf.limit() - 8);
+			return read(buf);
+		}
+		catch (BufferUnderflowException e)
+		{
+			throw new IOException(file + " is corrupt (truncated)");
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new IOException(file + " is corrupt (" + e.getMessage() + ")");
+		}
+	}
+
+	private static LemmatizerSnapshot read(ByteBuffer buf)
+	{
+		int flags = buf.getInt();
+		WordReader word = new WordReader();
+
+		DictRadix<Integer> prefixes = new DictRadix<Integer>();
+		int count = buf.getInt();
+		for (int i = 0; i < count; i++)
+		{
+			word.next(buf);
+			prefixes.addNode(new String(word.chars, 0, word.length), buf.getInt());
+		}
+
+		String[] lemmas = new String[buf.getInt()];
+		for (int i = 0; i < lemmas.length; i++)
+		{
+			char[] chars = new char[buf.getShort() & 0xFFFF];
+			buf.asCharBuffer().get(chars);
+			buf.position(buf.position() + chars.length * 2);
+			lemmas[i] = new String(chars);
+		}
+		String[][] lemmaArrays = new String[buf.getInt()][];
+		for (int i = 0; i < lemmaArrays.length; i++)
+		{
+			lemmaArrays[i] = new String[buf.getInt()];
+			for (int j = 0; j < lemmaArrays[i].length; j++)
+			{
+				int id = buf.getInt();
+				lemmaArrays[i][j] = (id < 0) ? null : lemmas[id];
+			}
+		}
+		int[][] maskArrays = new int[buf.getInt()][];
+		for (int i = 0; i < maskArrays.length; i++)
+		{
+			maskArrays[i] = new int[buf.getInt()];
+			buf.asIntBuffer().get(maskArrays[i]);
+			buf.position(buf.position() + maskArrays[i].length * 4);
+		}
+
+		DictRadixBuilder<MorphData> builder = new DictRadixBuilder<MorphData>();
+		count = buf.getInt();
+		for (int i = 0; i < count; i++)
+		{
+			word.next(buf);
+			MorphData md = new MorphData();
+			md.setPrefixes(buf.get());
+			int id = buf.getInt();
+			md.setLemmas((id < 0) ? null : lemmaArrays[id]);
+			id = buf.getInt();
+			md.setDescFlags((id < 0) ? null : maskArrays[id]);
+			builder.add(word.chars, 0, word.length, md);
+		}
+		DictRadix<MorphData> radix = builder.build();
+
+		if ((flags & FLAG_READ_ONLY) != 0)
+		{
+			return new LemmatizerSnapshot(new FrozenDictRadix<MorphData>(radix), prefixes);
+		}
+		return new LemmatizerSnapshot(radix, prefixes);
+	}
+
+	private static class WordReader
+	{
+		char[] chars = new char[64];
+		int length = 0;
+
+		/**
+		 Reads the next word over the previous one
+		*/
+		void next(ByteBuffer buf)
+		{
+			int shared = buf.getShort() & 0xFFFF;
+			length = shared + (buf.getShort() & 0xFFFF);
+			if (length > chars.length)
+			{
+				char[] grown = new char[Math.max(length, chars.length * 2)];
+				System.arraycopy(chars, 0, grown, 0, shared);
+				chars = grown;
+			}
+			for (int i = shared; i < length; i++)
+			{
+				chars[i] = buf.getChar();
+			}
+		}
+	}
+}
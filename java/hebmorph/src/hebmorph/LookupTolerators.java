@@ -48,79 +48,204 @@ public final class LookupTolerators
 
 	*/
 
-	public static final ToleranceFunction[] TolerateEmKryiaAll = { new LookupTolerators.TolerateEmKryiaYud(), new LookupTolerators.TolerateEmKryiaVav(), new LookupTolerators.TolerateNonDoubledConsonantVav() };
+	public static final Tolerator[] EmKryiaTolerators = { new LookupTolerators.TolerateEmKryiaYud(), new LookupTolerators.TolerateEmKryiaVav(), new LookupTolerators.TolerateNonDoubledConsonantVav() };
 
+	/**
+	 EmKryiaTolerators as ToleranceFunctions, for code written against them; adapt() hands the lookups
+	 the Tolerators back, so using these costs nothing
+
+	 @deprecated Use EmKryiaTolerators
+	*/
+	@Deprecated
+	public static final ToleranceFunction[] TolerateEmKryiaAll = functions(EmKryiaTolerators);
+
+	/**
+	 Original, boxed form of a tolerator. Still accepted by the tolerant lookups, wrapped with adapt().
+
+	*/
 	public interface ToleranceFunction
 	{
 		public Integer tolerate(char[] key, Reference<Byte> keyPos, String word, Reference<Float> score, char curChar);
 	}
 
-	public static class TolerateEmKryiaYud implements ToleranceFunction
+	/**
+	 Returned by a Tolerator which made no tolerance
+	*/
+	public static final int NOT_TOLERATED = -1;
+
+	/**
+	 The key position and score of a tolerant lookup candidate, handed to a Tolerator to update in place.
+	 Tolerant lookups reuse one instance for all of their tolerator calls.
+	*/
+	public static final class Toleration
+	{
+		public int keyPos;
+		public float score;
+	}
+
+	/**
+	 Same as ToleranceFunction, without any per-call allocations: keyPos and score are fields of state, the
+	 candidate word is word[0 .. wordLength - 1] (a buffer shared by the whole lookup, so only valid during
+	 the call), and NOT_TOLERATED stands for null.
+
+	*/
+	public interface Tolerator
+	{
+		public int tolerate(char[] key, Toleration state, char[] word, int wordLength, char curChar);
+	}
+
+	/**
+	 Wraps ToleranceFunctions so they can be used by the tolerant lookups. Those list each word once, with
+	 the best score it's found with, and don't try a dictionary char at a key position again unless with a
+	 better score. Functions which lead to the same word along more than one path, with different scores,
+	 used to have it listed once for each; only the best score is kept now. Functions which tolerate more
+	 at lower scores may also find fewer words, as the lower scored paths aren't tried.
+	*/
+	public static Tolerator[] adapt(ToleranceFunction[] functions)
+	{
+		Tolerator[] ret = new Tolerator[functions.length];
+		for (int i = 0; i < functions.length; i++)
+		{
+			if (functions[i] instanceof ToleratorFunction)
+			{
+				ret[i] = ((ToleratorFunction)functions[i]).tolerator;
+			}
+			else
+			{
+				ret[i] = new ToleranceFunctionAdapter(functions[i]);
+			}
+		}
+		return ret;
+	}
+
+	private static ToleranceFunction[] functions(Tolerator[] tolerators)
+	{
+		ToleranceFunction[] ret = new ToleranceFunction[tolerators.length];
+		for (int i = 0; i < tolerators.length; i++)
+		{
+			ret[i] = new ToleratorFunction(tolerators[i]);
+		}
+		return ret;
+	}
+
+	/**
+	 A Tolerator called as a ToleranceFunction
+	*/
+	private static class ToleratorFunction implements ToleranceFunction
 	{
+		private final Tolerator tolerator;
+
+		public ToleratorFunction(Tolerator tolerator)
+		{
+			this.tolerator = tolerator;
+		}
+
 		public Integer tolerate(char[] key, Reference<Byte> keyPos, String word, Reference<Float> score, char curChar)
 		{
-			if (keyPos.ref == 0) // check this isn't the beginning of a word (no one misses Yud there)
+			Toleration state = new Toleration();
+			state.keyPos = keyPos.ref;
+			state.score = score.ref;
+			int ret = tolerator.tolerate(key, state, word.toCharArray(), word.length(), curChar);
+			if (ret == NOT_TOLERATED)
 			{
 				return null;
 			}
+			keyPos.ref = (byte)state.keyPos;
+			score.ref = state.score;
+			return ret;
+		}
+	}
+
+	private static class ToleranceFunctionAdapter implements Tolerator
+	{
+		private final ToleranceFunction function;
+
+		public ToleranceFunctionAdapter(ToleranceFunction function)
+		{
+			this.function = function;
+		}
+
+		public int tolerate(char[] key, Toleration state, char[] word, int wordLength, char curChar)
+		{
+			Reference<Byte> keyPos = new Reference<Byte>((byte)state.keyPos);
+			Reference<Float> score = new Reference<Float>(state.score);
+			Integer ret = function.tolerate(key, keyPos, new String(word, 0, wordLength), score, curChar);
+			if (ret == null)
+			{
+				return NOT_TOLERATED;
+			}
+			state.keyPos = keyPos.ref;
+			state.score = score.ref;
+			return ret;
+		}
+	}
+
+	public static class TolerateEmKryiaYud implements Tolerator
+	{
+		public int tolerate(char[] key, Toleration state, char[] word, int wordLength, char curChar)
+		{
+			if (state.keyPos == 0) // check this isn't the beginning of a word (no one misses Yud there)
+			{
+				return NOT_TOLERATED;
+			}
 
 			// Yud shouldn't be tolerated before a Vav
-			if (key[keyPos.ref] == HebrewCharacters.VAV)
+			if (key[state.keyPos] == HebrewCharacters.VAV)
 			{
-				return null;
+				return NOT_TOLERATED;
 			}
 
             if (curChar != HebrewCharacters.YOD)
 			{
 				// Support keys with doubled Yud, where the actual word in the dictionary isn't
-				if ((key[keyPos.ref] == HebrewCharacters.YOD)
-						&& (key[keyPos.ref - 1] == HebrewCharacters.YOD))
+				if ((key[state.keyPos] == HebrewCharacters.YOD)
+						&& (key[state.keyPos - 1] == HebrewCharacters.YOD))
 				{
-					score.ref *= 0.9f;
-					keyPos.ref++;
+					state.score *= 0.9f;
+					state.keyPos++;
 					return 0;
 				}
 
 				// Support Hirik-Haser (Niqqudless missing Yud), although it would suffer a high penalty
 				// to low rate false positives when there are better options
-				if (key[keyPos.ref] == HebrewCharacters.YOD)
+				if (key[state.keyPos] == HebrewCharacters.YOD)
 				{
-					score.ref *= 0.6f;
-					keyPos.ref++;
+					state.score *= 0.6f;
+					state.keyPos++;
 					return 0;
 				}
 
-				return null;
+				return NOT_TOLERATED;
 			}
 
 			// Don't initiate a toleration process if current key position has Yud already. If the correct
 			// spelling requires double-Yud, we will arrive here again very soon
-			if (key[keyPos.ref] == HebrewCharacters.YOD)
+			if (key[state.keyPos] == HebrewCharacters.YOD)
 			{
-				return null;
+				return NOT_TOLERATED;
 			}
 
 			// We already have consumed a Yud very recently
-			if (word.charAt(word.length() - 1) == HebrewCharacters.YOD)
+			if (word[wordLength - 1] == HebrewCharacters.YOD)
 			{
 				// We allow adding another Yud only if there was one in the key originally, and the key is longer
                 // than 3 letters (otherwise חיה becomes חייה, and בית becomes ביית).
-				if ((key[keyPos.ref - 1] != HebrewCharacters.YOD) || ((keyPos.ref + 1 == key.length) && (key.length <= 3)))
+				if ((key[state.keyPos - 1] != HebrewCharacters.YOD) || ((state.keyPos + 1 == key.length) && (key.length <= 3)))
 				{
-					return null;
+					return NOT_TOLERATED;
 				}
 
-				score.ref *= 0.8f;
+				state.score *= 0.8f;
 				return 1;
 			}
 			// No Yud existed before in the key, so we tolerate normally unless we consumed a Vav recently
-			else if (word.charAt(word.length() - 1) != HebrewCharacters.VAV)
+			else if (word[wordLength - 1] != HebrewCharacters.VAV)
 			{
-				score.ref *= 0.8f;
+				state.score *= 0.8f;
 				return 1;
 			}
 
-			return null;
+			return NOT_TOLERATED;
 		}
 	}
 	/**
@@ -131,49 +256,49 @@ public final class LookupTolerators
 		 * Previous key position isn't Yud (too intrusive a tolerance)
 
 	*/
-	public static class TolerateEmKryiaVav implements ToleranceFunction
+	public static class TolerateEmKryiaVav implements Tolerator
 	{
-		public Integer tolerate(char[] key, Reference<Byte> keyPos, String word, Reference<Float> score, char curChar)
+		public int tolerate(char[] key, Toleration state, char[] word, int wordLength, char curChar)
 		{
             if ((curChar != HebrewCharacters.VAV) || // check current trie position
-                    (keyPos.ref == 0) || (keyPos.ref + 1 == key.length) || // check this isn't the end or the beginning of a word (no one misses Vav there)
-                    (key[keyPos.ref] == HebrewCharacters.YOD) || (key[keyPos.ref] == HebrewCharacters.HE) || // Vav shouldn't be tolerated before a Yud or a Heh
-                    (key[keyPos.ref] == HebrewCharacters.VAV // Don't low-rank exact matches
+                    (state.keyPos == 0) || (state.keyPos + 1 == key.length) || // check this isn't the end or the beginning of a word (no one misses Vav there)
+                    (key[state.keyPos] == HebrewCharacters.YOD) || (key[state.keyPos] == HebrewCharacters.HE) || // Vav shouldn't be tolerated before a Yud or a Heh
+                    (key[state.keyPos] == HebrewCharacters.VAV // Don't low-rank exact matches
 )
                     )
-                    return null;
+                    return NOT_TOLERATED;
 
-			char prevChar = word.charAt(word.length() - 1);
-            if ((key[keyPos.ref + 1] != HebrewCharacters.VAV) && (prevChar != HebrewCharacters.VAV) && // This case is handled by TolerateNonDoubledConsonantVav
+			char prevChar = word[wordLength - 1];
+            if ((key[state.keyPos + 1] != HebrewCharacters.VAV) && (prevChar != HebrewCharacters.VAV) && // This case is handled by TolerateNonDoubledConsonantVav
                     (prevChar != HebrewCharacters.YOD)) // This is an edit too intrusive to be a possible niqqud-less spelling
 			{
-				score.ref *= 0.8f;
+				state.score *= 0.8f;
 				return 1;
 			}
 
-			return null;
+			return NOT_TOLERATED;
 		}
 	}
 
-	public static class TolerateNonDoubledConsonantVav implements ToleranceFunction
+	public static class TolerateNonDoubledConsonantVav implements Tolerator
 	{
-		public Integer tolerate(char[] key, Reference<Byte> keyPos, String word, Reference<Float> score, char curChar)
+		public int tolerate(char[] key, Toleration state, char[] word, int wordLength, char curChar)
 		{
 			// TODO: Here we apply the Academia's "ha-ktiv hasar ha-niqqud" rule of doubling
 			// a consonant waw in the middle a word, unless it's already next to a waw
 
-            if ((curChar == HebrewCharacters.VAV) || (keyPos.ref == 0) || (keyPos.ref + 1 == key.length))
-                return null;
+            if ((curChar == HebrewCharacters.VAV) || (state.keyPos == 0) || (state.keyPos + 1 == key.length))
+                return NOT_TOLERATED;
 
-            if ((key[keyPos.ref] == HebrewCharacters.VAV)
-            		&& (word.charAt(word.length() - 1) == HebrewCharacters.VAV))
+            if ((key[state.keyPos] == HebrewCharacters.VAV)
+            		&& (word[wordLength - 1] == HebrewCharacters.VAV))
 			{
-				keyPos.ref++;
-				score.ref *= 0.8f;
+				state.keyPos++;
+				state.score *= 0.8f;
 				return 0;
 			}
 
-			return null;
+			return NOT_TOLERATED;
 		}
 	}
 }
@@ -25,7 +25,7 @@ import java.util.Arrays;
 
 public class MorphData
 {
-	private Integer[] descFlags;
+	private int[] descFlags;
 	private String[] lemmas;
 	private int prefixes;
 
@@ -49,12 +49,12 @@ public class MorphData
 		return prefixes;
 	}
 
-	public void setDescFlags(Integer[] descFlags)
+	public void setDescFlags(int[] descFlags)
 	{
 		this.descFlags = descFlags;
 	}
 
-	public Integer[] getDescFlags()
+	public int[] getDescFlags()
 	{
 		return descFlags;
 	}
@@ -0,0 +1,165 @@
+/**************************************************************************
+ *   Copyright (C) 2010 by                                                 *
+ *      Itamar Syn-Hershko <itamar at code972 dot com>                     *
+ *		Ofer Fort <oferiko at gmail dot com>							   *
+ *                                                                         *
+ *   Distributed under the GNU General Public License, Version 2.0.        *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation (v2).                                    *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   51 Franklin Steet, Fifth Floor, Boston, MA  02111-1307, USA.          *
+ **************************************************************************/
+package hebmorph;
+
+import hebmorph.datastructures.DictLookup;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ Makes MorphData objects share equal lemma strings, lemma arrays and mask arrays. Most words have
+ the very same analyses as many others (an inflection pattern of a lemma), so once a dictionary is
+ loaded, keeping a single copy of each distinct array takes a fraction of the heap.
+
+ Lemmas are interned into one table of strings; a reference to an interned string costs the same as
+ an id into such a table would, without the indirection on every lookup. Shared arrays must not be
+ changed in place - replace them with setLemmas() and setDescFlags() on a MorphData of its own, as
+ custom relations do.
+*/
+public class MorphDataPool
+{
+	private final Map<String, String> m_lemmas = new HashMap<String, String>();
+	private final Map<List<String>, String[]> m_lemmaArrays = new HashMap<List<String>, String[]>();
+	private final Map<MasksKey, int[]> m_masksArrays = new HashMap<MasksKey, int[]>();
+	private int m_nInterned = 0;
+
+	private static final class MasksKey
+	{
+		private final int[] masks;
+		private final int hash;
+
+		MasksKey(int[] masks)
+		{
+			this.masks = masks;
+			this.hash = Arrays.hashCode(masks);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			return (obj instanceof MasksKey) && Arrays.equals(masks, ((MasksKey)obj).masks);
+		}
+	}
+
+	/**
+	 Replaces the arrays of md with shared equal ones
+	*/
+	public MorphData intern(MorphData md)
+	{
+		if (md.getLemmas() != null)
+		{
+			md.setLemmas(intern(md.getLemmas()));
+		}
+		if (md.getDescFlags() != null)
+		{
+			md.setDescFlags(intern(md.getDescFlags()));
+		}
+		m_nInterned++;
+		return md;
+	}
+
+	public String intern(String lemma)
+	{
+		String ret = m_lemmas.get(lemma);
+		if (ret == null)
+		{
+			m_lemmas.put(lemma, lemma);
+			ret = lemma;
+		}
+		return ret;
+	}
+
+	public String[] intern(String[] lemmas)
+	{
+		String[] ret = m_lemmaArrays.get(Arrays.asList(lemmas));
+		if (ret == null)
+		{
+			for (int i = 0; i < lemmas.length; i++)
+			{
+				if (lemmas[i] != null)
+				{
+					lemmas[i] = intern(lemmas[i]);
+				}
+			}
+			m_lemmaArrays.put(Arrays.asList(lemmas), lemmas);
+			ret = lemmas;
+		}
+		return ret;
+	}
+
+	public int[] intern(int[] masks)
+	{
+		MasksKey key = new MasksKey(masks);
+		int[] ret = m_masksArrays.get(key);
+		if (ret == null)
+		{
+			m_masksArrays.put(key, masks);
+			ret = masks;
+		}
+		return ret;
+	}
+
+	/**
+	 Interns the arrays of all values of dict
+	*/
+	public void compact(DictLookup<MorphData> dict)
+	{
+		DictLookup.KeyEnumerator<MorphData> en = dict.iterator();
+		while (en.hasNext())
+		{
+			MorphData md = en.next();
+			if (md != null)
+			{
+				intern(md);
+			}
+		}
+	}
+
+	public int getInternedCount()
+	{
+		return m_nInterned;
+	}
+
+	public int getDistinctLemmasCount()
+	{
+		return m_lemmas.size();
+	}
+
+	public int getDistinctLemmaArraysCount()
+	{
+		return m_lemmaArrays.size();
+	}
+
+	public int getDistinctMasksArraysCount()
+	{
+		return m_masksArrays.size();
+	}
+}
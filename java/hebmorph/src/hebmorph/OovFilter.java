@@ -0,0 +1,183 @@
+/**************************************************************************
+ *   Copyright (C) 2010 by                                                 *
+ *      Itamar Syn-Hershko <itamar at code972 dot com>                     *
+ *		Ofer Fort <oferiko at gmail dot com>							   *
+ *                                                                         *
+ *   Distributed under the GNU General Public License, Version 2.0.        *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation (v2).                                    *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   51 Franklin Steet, Fifth Floor, Boston, MA  02111-1307, USA.          *
+ **************************************************************************/
+package hebmorph;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ Rejects out-of-vocabulary words before Lemmatizer.lemmatizeTolerant() crawls the dictionary for them. Set
+ it on a lemmatizer with Lemmatizer.setOovFilter(); its stream sessions all share it.
+
+ Two checks are made, neither of which rejects a word that has tolerant matches:
+ - A bounded cache of the words whose tolerant lookup found nothing, evicting the least recently seen.
+   Names and transliterations which recur across documents are then rejected by one hash lookup.
+ - A Bloom filter of the Yud and Vav-less skeletons of the dictionary's words (see SkeletonFilter), built
+   for each dictionary version when it's first needed. The word, and each of its prefix splits, is only
+   crawled for if its skeleton may be in the dictionary.
+
+ Words are cached for the dictionary version they were looked up in (see DictionaryVersion.getId()), and
+ go stale when another one is swapped in. A filter set on several lemmatizers never rejects a word for one
+ of them because it's out of the vocabulary of another.
+*/
+public class OovFilter
+{
+	public static final int DEFAULT_MAX_WORDS = 50000;
+
+	private final int m_maxWords;
+	// The id of the version each word was found out of vocabulary in
+	private final LinkedHashMap<String, Long> m_words;
+	private final AtomicLong m_cacheHits = new AtomicLong(), m_skeletonRejections = new AtomicLong();
+	private final AtomicLong m_crawls = new AtomicLong(), m_evictions = new AtomicLong();
+
+	public OovFilter()
+	{
+		this(DEFAULT_MAX_WORDS);
+	}
+
+	/**
+	 @param maxWords How many out of vocabulary words to remember
+	*/
+	public OovFilter(int maxWords)
+	{
+		if (maxWords <= 0)
+		{
+			throw new IllegalArgumentException("The number of words must be positive");
+		}
+		m_maxWords = maxWords;
+		m_words = new LinkedHashMap<String, Long>(maxWords * 4 / 3 + 1, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Long> eldest)
+			{
+				if (size() > m_maxWords)
+				{
+					m_evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 @return Whether the tolerant lookup of word found nothing in version before
+	*/
+	public boolean isKnownOov(String word, DictionaryVersion version)
+	{
+		Long oovIn;
+		synchronized (m_words)
+		{
+			oovIn = m_words.get(word);
+		}
+		if ((oovIn != null) && (oovIn == version.getId()))
+		{
+			m_cacheHits.incrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	public void addOov(String word, DictionaryVersion version)
+	{
+		synchronized (m_words)
+		{
+			m_words.put(word, version.getId());
+		}
+	}
+
+	/**
+	 Tells whether a tolerant lookup of word[offset ..] in version may find anything, counting the lookups
+	 which are made and the ones which aren't
+	*/
+	public boolean shouldCrawl(String word, int offset, DictionaryVersion version)
+	{
+		if (!version.getSkeletonFilter().mayContain(word, offset, word.length() - offset))
+		{
+			m_skeletonRejections.incrementAndGet();
+			return false;
+		}
+		m_crawls.incrementAndGet();
+		return true;
+	}
+
+	public void clear()
+	{
+		synchronized (m_words)
+		{
+			m_words.clear();
+		}
+	}
+
+	public int getMaxWords()
+	{
+		return m_maxWords;
+	}
+
+	public int getSize()
+	{
+		synchronized (m_words)
+		{
+			return m_words.size();
+		}
+	}
+
+	/**
+	 @return How many words were rejected as known to be out of vocabulary, without any lookups
+	*/
+	public long getCacheHits()
+	{
+		return m_cacheHits.get();
+	}
+
+	/**
+	 @return How many tolerant lookups - of a word, or of a word after a prefix - were skipped since no word
+	 of the dictionary has their skeleton
+	*/
+	public long getSkeletonRejections()
+	{
+		return m_skeletonRejections.get();
+	}
+
+	/**
+	 @return How many tolerant lookups were made
+	*/
+	public long getCrawls()
+	{
+		return m_crawls.get();
+	}
+
+	public long getEvictions()
+	{
+		return m_evictions.get();
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("{ words=%d/%d cache hits=%d skeleton rejections=%d crawls=%d evictions=%d }",
+				getSize(), m_maxWords, getCacheHits(), getSkeletonRejections(), getCrawls(), getEvictions());
+	}
+}
@@ -0,0 +1,118 @@
+/**************************************************************************
+ *   Copyright (C) 2010 by                                                 *
+ *      Itamar Syn-Hershko <itamar at code972 dot com>                     *
+ *		Ofer Fort <oferiko at gmail dot com>							   *
+ *                                                                         *
+ *   Distributed under the GNU General Public License, Version 2.0.        *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation (v2).                                    *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   51 Franklin Steet, Fifth Floor, Boston, MA  02111-1307, USA.          *
+ **************************************************************************/
+package hebmorph;
+
+import hebmorph.datastructures.DictLookup;
+
+/**
+ A Bloom filter of the skeletons of the words of a dictionary - the words with their Yud and Vav letters
+ taken out. LookupTolerators.EmKryiaTolerators only tolerates missing, extra or doubled Yud and Vav, so
+ every word a tolerant lookup with it finds has the skeleton of the key; a key whose skeleton isn't in the
+ filter has no tolerant matches. Keys whose skeleton is may still have none, for about 1 in 100 keys.
+*/
+final class SkeletonFilter
+{
+	private static final int HASHES = 7;
+	private final long[] m_bits;
+	private final int m_mask;
+
+	/**
+	 Adds the skeletons of all the words of dictionary
+	*/
+	SkeletonFilter(DictLookup<MorphData> dictionary)
+	{
+		// About 10 bits per word, for a false positive rate of 1%
+		int bits = 1 << 12;
+		while ((bits < dictionary.getCount() * 10L) && (bits < (1 << 30)))
+		{
+			bits <<= 1;
+		}
+		m_bits = new long[bits >>> 6];
+		m_mask = bits - 1;
+
+		DictLookup.KeyEnumerator<MorphData> words = dictionary.iterator();
+		while (words.hasNext())
+		{
+			words.next();
+			String word = words.getCurrentKey();
+			long hash = hash(word, 0, word.length());
+			for (int i = 0; i < HASHES; i++)
+			{
+				int bit = bit(hash, i);
+				m_bits[bit >>> 6] |= 1L << bit;
+			}
+		}
+	}
+
+	/**
+	 @return false if no word of the dictionary has the skeleton of key[offset .. offset + length - 1]
+	*/
+	boolean mayContain(CharSequence key, int offset, int length)
+	{
+		long hash = hash(key, offset, length);
+		for (int i = 0; i < HASHES; i++)
+		{
+			int bit = bit(hash, i);
+			if ((m_bits[bit >>> 6] & (1L << bit)) == 0)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int bit(long hash, int i)
+	{
+		// Double hashing: the i-th hash is h1 + i * h2
+		int h1 = (int)hash, h2 = (int)(hash >>> 32) | 1;
+		return (h1 + i * h2) & m_mask;
+	}
+
+	/**
+	 FNV-1a of the skeleton of key[offset .. offset + length - 1]
+	*/
+	static long hash(CharSequence key, int offset, int length)
+	{
+		long ret = 0xcbf29ce484222325L;
+		for (int i = offset; i < offset + length; i++)
+		{
+			char c = key.charAt(i);
+			if ((c != HebrewCharacters.YOD) && (c != HebrewCharacters.VAV))
+			{
+				ret ^= c;
+				ret *= 0x100000001b3L;
+			}
+		}
+		// Spreads the high bits, which the double hashing takes h2 from
+		ret ^= ret >>> 29;
+		ret *= 0xbf58476d1ce4e5b9L;
+		return ret ^ (ret >>> 32);
+	}
+
+	/**
+	 @return The heap the filter takes, in bytes
+	*/
+	long getBytes()
+	{
+		return m_bits.length * 8L;
+	}
+}
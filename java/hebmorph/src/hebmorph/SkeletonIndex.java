@@ -0,0 +1,167 @@
+/**************************************************************************
+ *   Copyright (C) 2010 by                                                 *
+ *      Itamar Syn-Hershko <itamar at code972 dot com>                     *
+ *		Ofer Fort <oferiko at gmail dot com>							   *
+ *                                                                         *
+ *   Distributed under the GNU General Public License, Version 2.0.        *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation (v2).                                    *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   51 Franklin Steet, Fifth Floor, Boston, MA  02111-1307, USA.          *
+ **************************************************************************/
+package hebmorph;
+
+import hebmorph.datastructures.DictLookup;
+import hebmorph.datastructures.DictRadix;
+import hebmorph.datastructures.DictRadixBuilder;
+import hebmorph.datastructures.LookupResult;
+import hebmorph.datastructures.TopResults;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ Finds the words a tolerant lookup with LookupTolerators.EmKryiaTolerators matches without crawling the
+ dictionary for them. Those tolerators only add, drop or double Yud and Vav, so the words a key matches all
+ have its skeleton - the key without its Yud and Vav letters (see SkeletonFilter). The index maps each
+ skeleton to the words which have it; a lookup builds a radix of just those words, and crawls it instead of
+ the whole dictionary. Tolerators see nothing but the key and the path to the char they're given, so the
+ crawl takes the same steps along the paths to those words as it would in the dictionary, and finds the
+ same results, with the same scores and in the same order.
+*/
+final class SkeletonIndex
+{
+	// The words of the dictionary in sorted order, back to back; word i is m_chars[m_starts[i] .. m_starts[i + 1] - 1],
+	// and its value is m_values[i]
+	private final char[] m_chars;
+	private final int[] m_starts;
+	private final MorphData[] m_values;
+	// The skeleton hashes of the words, sorted, and the words they're of, in sorted order for each hash
+	private final int[] m_hashes;
+	private final int[] m_words;
+
+	SkeletonIndex(DictLookup<MorphData> dictionary)
+	{
+		List<String> words = new ArrayList<String>(dictionary.getCount());
+		DictLookup.KeyEnumerator<MorphData> en = dictionary.iterator();
+		long chars = 0;
+		while (en.hasNext())
+		{
+			en.next();
+			String word = en.getCurrentKey();
+			words.add(word);
+			chars += word.length();
+		}
+		String[] sorted = words.toArray(new String[words.size()]);
+		Arrays.sort(sorted);
+
+		m_chars = new char[(int)chars];
+		m_starts = new int[sorted.length + 1];
+		m_values = new MorphData[sorted.length];
+		long[] entries = new long[sorted.length];
+		for (int i = 0; i < sorted.length; i++)
+		{
+			sorted[i].getChars(0, sorted[i].length(), m_chars, m_starts[i]);
+			m_starts[i + 1] = m_starts[i] + sorted[i].length();
+			m_values[i] = dictionary.lookup(sorted[i]);
+			// The hash in the high half, so the entries sort by hash and then by word
+			entries[i] = ((long)hash(sorted[i]) << 32) | i;
+		}
+		Arrays.sort(entries);
+
+		m_hashes = new int[entries.length];
+		m_words = new int[entries.length];
+		for (int i = 0; i < entries.length; i++)
+		{
+			m_hashes[i] = (int)(entries[i] >> 32);
+			m_words[i] = (int)entries[i];
+		}
+	}
+
+	/**
+	 Same as the dictionary's lookupTolerant(key, LookupTolerators.EmKryiaTolerators)
+	*/
+	List<LookupResult<MorphData>> lookupTolerant(String key)
+	{
+		DictRadix<MorphData> candidates = getCandidates(key);
+		return (candidates == null) ? null : candidates.lookupTolerant(key, LookupTolerators.EmKryiaTolerators);
+	}
+
+	/**
+	 Same as the dictionary's lookupTolerant(key, LookupTolerators.EmKryiaTolerators, minScore, maxResults)
+	*/
+	TopResults<MorphData> lookupTolerant(String key, float minScore, int maxResults)
+	{
+		DictRadix<MorphData> candidates = getCandidates(key);
+		return (candidates == null) ? new TopResults<MorphData>(minScore, maxResults) :
+			candidates.lookupTolerant(key, LookupTolerators.EmKryiaTolerators, minScore, maxResults);
+	}
+
+	/**
+	 @return A radix of the words with the skeleton of key, or null if there are none
+	*/
+	private DictRadix<MorphData> getCandidates(String key)
+	{
+		int hash = hash(key);
+		int first = firstOf(hash);
+		if (first < 0)
+		{
+			return null;
+		}
+
+		// Words of other skeletons with the same hash only add paths on which nothing is found
+		DictRadixBuilder<MorphData> candidates = new DictRadixBuilder<MorphData>();
+		for (int i = first; (i < m_hashes.length) && (m_hashes[i] == hash); i++)
+		{
+			int word = m_words[i], start = m_starts[word];
+			candidates.add(m_chars, start, m_starts[word + 1] - start, m_values[word]);
+		}
+		return candidates.build();
+	}
+
+	/**
+	 @return The position of the first entry with hash, or -1 if there is none
+	*/
+	private int firstOf(int hash)
+	{
+		int low = 0, high = m_hashes.length;
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (m_hashes[mid] < hash)
+			{
+				low = mid + 1;
+			}
+			else
+			{
+				high = mid;
+			}
+		}
+		return ((low < m_hashes.length) && (m_hashes[low] == hash)) ? low : -1;
+	}
+
+	private static int hash(String key)
+	{
+		long hash = SkeletonFilter.hash(key, 0, key.length());
+		return (int)(hash ^ (hash >>> 32));
+	}
+
+	/**
+	 @return The heap the index takes, in bytes, not counting the values it shares with the dictionary
+	*/
+	long getBytes()
+	{
+		return m_chars.length * 2L + (m_starts.length + m_values.length + m_hashes.length + m_words.length) * 4L;
+	}
+}
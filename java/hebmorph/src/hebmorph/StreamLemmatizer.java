@@ -21,7 +21,9 @@
  **************************************************************************/
 package hebmorph;
 
+import hebmorph.datastructures.DictLookup;
 import hebmorph.hspell.Constants.DMask;
+import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.List;
@@ -30,31 +32,107 @@ import java.util.List;
 public class StreamLemmatizer extends Lemmatizer
 {
 	private Tokenizer _tokenizer;
+	// The dictionary version the stream is lemmatized with, from when it was set until it ends
+	private DictionaryVersion _version;
+	// The lemmatizer whose dictionary streams are looked up in - this one, unless this is a session of another
+	private final Lemmatizer _engine;
 
 	public StreamLemmatizer()
 	{
 		super();
+		_engine = this;
 	}
 
 	public StreamLemmatizer(Reader input)
 	{
 		super();
+		_engine = this;
 		_tokenizer = new Tokenizer(input);
 	}
 
 	public StreamLemmatizer(String hspellPath, boolean loadMorphologicalData, boolean allowHeHasheela) throws IOException
 	{
 		super(hspellPath, loadMorphologicalData, allowHeHasheela);
+		_engine = this;
 	}
 
 	public StreamLemmatizer(Reader input, String hspellPath, boolean loadMorphologicalData, boolean allowHeHasheela)throws IOException
 	{
 		super(hspellPath, loadMorphologicalData, allowHeHasheela);
+		_engine = this;
 		_tokenizer = new Tokenizer(input);
 	}
 
+	/**
+	 Creates a session of engine: a lemmatizer with no dictionary of its own, which looks the words of its
+	 stream up in the dictionary of engine. A session holds only the state of the stream it's reading, so it's
+	 cheap to create; any number of sessions, each used by one thread at a time, can share an engine. The
+	 methods which load, change or release a dictionary throw UnsupportedOperationException on a session -
+	 call them on the engine.
+
+	 @param engine The lemmatizer to look words up in; for a session, its own engine is used
+	*/
+	public StreamLemmatizer(Lemmatizer engine)
+	{
+		super();
+		_engine = (engine instanceof StreamLemmatizer) ? ((StreamLemmatizer)engine)._engine : engine;
+	}
+
+	public StreamLemmatizer(Reader input, Lemmatizer engine)
+	{
+		this(engine);
+		_tokenizer = new Tokenizer(input);
+	}
+
+	/**
+	 @return A new session of the engine of this lemmatizer, for lemmatizing a stream on another thread
+	*/
+	public StreamLemmatizer newSession()
+	{
+		return new StreamLemmatizer(_engine);
+	}
+
+	/**
+	 @return The lemmatizer words are looked up in; this one, unless it's a session
+	*/
+	public Lemmatizer getEngine()
+	{
+		return _engine;
+	}
+
+	public boolean isSession()
+	{
+		// _engine is null while a lemmatizer of its own is being initialized by the Lemmatizer constructor
+		return (_engine != null) && (_engine != this);
+	}
+
+	/**
+	 @throws UnsupportedOperationException For a session, whose lookups go to the dictionary of its engine
+	*/
+	@Override
+	protected void checkOwnDictionary()
+	{
+		if (isSession())
+		{
+			throw new UnsupportedOperationException("A session looks words up in the dictionary of its engine; "
+					+ "load or change the dictionary through getEngine()");
+		}
+	}
+
+	public static StreamLemmatizer fromSnapshot(File snapshot) throws IOException
+	{
+		StreamLemmatizer ret = new StreamLemmatizer();
+		ret.initFromSnapshot(snapshot);
+		return ret;
+	}
+
+	/**
+	 Sets the stream to lemmatize next. The stream is lemmatized with the dictionary version current now,
+	 even if another one is swapped in before it ends.
+	*/
 	public void setStream(Reader input)
 	{
+		_version = getDictionaryVersion();
 		if (_tokenizer == null)
 		{
 			_tokenizer = new Tokenizer(input);
@@ -65,6 +143,48 @@ public class StreamLemmatizer extends Lemmatizer
 		}
 	}
 
+	@Override
+	public boolean getIsInitialized()
+	{
+		return isSession() ? _engine.getIsInitialized() : super.getIsInitialized();
+	}
+
+	@Override
+	public DictionaryVersion getDictionaryVersion()
+	{
+		return isSession() ? _engine.getDictionaryVersion() : super.getDictionaryVersion();
+	}
+
+	@Override
+	public LemmatizationCache getCache()
+	{
+		return isSession() ? _engine.getCache() : super.getCache();
+	}
+
+	@Override
+	public OovFilter getOovFilter()
+	{
+		return isSession() ? _engine.getOovFilter() : super.getOovFilter();
+	}
+
+	@Override
+	public boolean getUseSkeletonIndex()
+	{
+		return isSession() ? _engine.getUseSkeletonIndex() : super.getUseSkeletonIndex();
+	}
+
+	@Override
+	public List<DictLookup<MorphData>> getOverlays()
+	{
+		return isSession() ? _engine.getOverlays() : super.getOverlays();
+	}
+
+	@Override
+	protected DictionaryVersion getVersionInUse()
+	{
+		return (_version != null) ? _version : getDictionaryVersion();
+	}
+
 	private int _startOffset, _endOffset;
 	public int getStartOffset()
 	{
@@ -80,6 +200,11 @@ public class StreamLemmatizer extends Lemmatizer
 	public int getLemmatizeNextToken(Reference<String> nextToken, List<Token> retTokens) throws IOException
 	{
 		retTokens.clear();
+		// Streams given to the constructor are lemmatized with the version current when they're first read
+		if (_version == null)
+		{
+			_version = getDictionaryVersion();
+		}
 
 		int currentPos = 0;
 		int tokenType;
@@ -90,6 +215,7 @@ public class StreamLemmatizer extends Lemmatizer
 			tokenType = _tokenizer.nextToken(nextToken);
 			if (tokenType == 0)
 			{
+				_version = null;
 				return 0; // EOS
 			}
 
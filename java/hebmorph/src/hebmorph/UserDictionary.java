@@ -0,0 +1,202 @@
+/**************************************************************************
+ *   Copyright (C) 2010 by                                                 *
+ *      Itamar Syn-Hershko <itamar at code972 dot com>                     *
+ *		Ofer Fort <oferiko at gmail dot com>							   *
+ *                                                                         *
+ *   Distributed under the GNU General Public License, Version 2.0.        *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation (v2).                                    *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   51 Franklin Steet, Fifth Floor, Boston, MA  02111-1307, USA.          *
+ **************************************************************************/
+package hebmorph;
+
+import hebmorph.datastructures.DictRadix;
+import hebmorph.datastructures.DictRadixBuilder;
+import hebmorph.datastructures.FrozenDictRadix;
+import hebmorph.hspell.Constants.DMask;
+import hebmorph.hspell.LingInfo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ Reads dictionaries of extra words, to be stacked over the hspell dictionary with
+ Lemmatizer.addOverlay(). The files are UTF-8 text, with one analysis of a word per line:
+
+ <pre>
+ # word      lemma      mask
+ מיקרוסרביס  מיקרוסרביס  D_NOUN|D_MASCULINE|D_SINGULAR
+ מיקרוסרביסים מיקרוסרביס  D_NOUN|D_MASCULINE|D_PLURAL
+ </pre>
+
+ The columns are separated by whitespace. The lemma defaults to the word itself, and the mask (a number,
+ or DMask names joined by '|') to 0. A word having several lines gets all of their analyses. Blank lines
+ and lines starting with '#' are skipped. The prefixes a word takes follow from the masks of its analyses,
+ as LingInfo.DMask2ps() gives them.
+*/
+public final class UserDictionary
+{
+	private static class Analysis {
+		String lemma;
+		int mask;
+	}
+
+	private static Map<String, Integer> masksByName;
+
+	private UserDictionary()
+	{
+	}
+
+	public static FrozenDictRadix<MorphData> load(File file) throws IOException
+	{
+		InputStream stream = new FileInputStream(file);
+		try
+		{
+			return load(stream);
+		}
+		finally
+		{
+			stream.close();
+		}
+	}
+
+	public static FrozenDictRadix<MorphData> load(InputStream stream) throws IOException
+	{
+		return read(new InputStreamReader(stream, "UTF-8"));
+	}
+
+	/**
+	 @throws IOException If a line can't be parsed; the message gives its number
+	*/
+	public static FrozenDictRadix<MorphData> read(Reader reader) throws IOException
+	{
+		// The analyses of each word, in the order of the lines
+		Map<String, List<Analysis>> analyses = new LinkedHashMap<String, List<Analysis>>();
+		BufferedReader lines = new BufferedReader(reader);
+		String line;
+		int lineNumber = 0;
+		while ((line = lines.readLine()) != null)
+		{
+			lineNumber++;
+			line = line.trim();
+			if ((line.length() == 0) || (line.charAt(0) == '#') || (line.charAt(0) == '\uFEFF'))
+			{
+				continue;
+			}
+
+			String[] columns = line.split("\\s+");
+			if (columns.length > 3)
+			{
+				throw new IOException("Line " + lineNumber + ": expected a word, a lemma and a mask, found " + columns.length + " columns");
+			}
+			Analysis analysis = new Analysis();
+			analysis.lemma = (columns.length > 1) ? columns[1] : columns[0];
+			analysis.mask = (columns.length > 2) ? parseMask(columns[2], lineNumber) : 0;
+
+			List<Analysis> wordAnalyses = analyses.get(columns[0]);
+			if (wordAnalyses == null)
+			{
+				wordAnalyses = new ArrayList<Analysis>(1);
+				analyses.put(columns[0], wordAnalyses);
+			}
+			wordAnalyses.add(analysis);
+		}
+
+		MorphDataPool pool = new MorphDataPool();
+		List<String> words = new ArrayList<String>(analyses.size());
+		List<MorphData> values = new ArrayList<MorphData>(analyses.size());
+		for (Map.Entry<String, List<Analysis>> entry : analyses.entrySet())
+		{
+			List<Analysis> wordAnalyses = entry.getValue();
+			String[] lemmas = new String[wordAnalyses.size()];
+			int[] masks = new int[wordAnalyses.size()];
+			int prefixes = 0;
+			for (int i = 0; i < lemmas.length; i++)
+			{
+				lemmas[i] = wordAnalyses.get(i).lemma;
+				masks[i] = wordAnalyses.get(i).mask;
+				prefixes |= LingInfo.DMask2ps(masks[i]);
+			}
+
+			MorphData data = new MorphData();
+			data.setLemmas(lemmas);
+			data.setDescFlags(masks);
+			data.setPrefixes(prefixes);
+			words.add(entry.getKey());
+			values.add(pool.intern(data));
+		}
+
+		DictRadix<MorphData> radix = DictRadixBuilder.build(words, values);
+		return new FrozenDictRadix<MorphData>(radix);
+	}
+
+	private static int parseMask(String mask, int lineNumber) throws IOException
+	{
+		if (Character.isDigit(mask.charAt(0)))
+		{
+			try
+			{
+				return Integer.decode(mask);
+			}
+			catch (NumberFormatException e)
+			{
+				throw new IOException("Line " + lineNumber + ": bad mask " + mask);
+			}
+		}
+
+		int ret = 0;
+		for (String name : mask.split("\\|"))
+		{
+			Integer value = getMasksByName().get(name.trim());
+			if (value == null)
+			{
+				throw new IOException("Line " + lineNumber + ": unknown mask " + name);
+			}
+			ret |= value;
+		}
+		return ret;
+	}
+
+	private static synchronized Map<String, Integer> getMasksByName()
+	{
+		if (masksByName == null)
+		{
+			Map<String, Integer> names = new HashMap<String, Integer>();
+			for (Field field : DMask.class.getFields())
+			{
+				try
+				{
+					names.put(field.getName(), field.getInt(null));
+				}
+				catch (IllegalAccessException e)
+				{
+					throw new IllegalStateException(e);
+				}
+			}
+			masksByName = names;
+		}
+		return masksByName;
+	}
+}
@@ -0,0 +1,335 @@
+/**************************************************************************
+ *   Copyright (C) 2010 by                                                 *
+ *      Itamar Syn-Hershko <itamar at code972 dot com>                     *
+ *		Ofer Fort <oferiko at gmail dot com>							   *
+ *                                                                         *
+ *   Distributed under the GNU General Public License, Version 2.0.        *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation (v2).                                    *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   51 Franklin Steet, Fifth Floor, Boston, MA  02111-1307, USA.          *
+ **************************************************************************/
+package hebmorph.datastructures;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ A read-only radix which keeps its values deflated, in blocks of consecutive values, while the nodes stay
+ resident as in FrozenDictRadix. A block is inflated on first access into a small LRU cache of decoded
+ blocks, so values which are never looked at are never decoded. Each value can also keep a single byte
+ resident (see BlockCodec.getResidentByte()), for checks that don't need the whole value.
+
+*/
+public class BlockCompressedDictRadix<T> extends PackedDictRadix<T>
+{
+	public interface BlockCodec<T>
+	{
+		public void writeBlock(Object[] values, int from, int to, DataOutputStream out) throws IOException;
+
+		/**
+		 @param values Where to read the count values written by writeBlock into
+		*/
+		public void readBlock(DataInputStream in, Object[] values, int count) throws IOException;
+
+		/**
+		 @return A part of value to keep out of the compressed blocks
+		*/
+		public byte getResidentByte(T value);
+	}
+
+	public static final int DEFAULT_BLOCK_SIZE = 64;
+	public static final int DEFAULT_CACHED_BLOCKS = 256;
+
+	private final char[] m_keys;
+	private final int[] m_keyStart;
+	private final int[] m_childStart;
+	private final int[] m_valueIndex;
+	private final int[] m_dispatch;
+	private final int m_dispatchNodes;
+	private final int m_nCount;
+
+	private final BlockCodec<T> m_codec;
+	private final int m_blockSize;
+	private final int m_valuesCount;
+	// Deflated blocks, and the inflated length of each
+	private final byte[][] m_blocks;
+	private final int[] m_blockLength;
+	private final byte[] m_resident;
+	private final LinkedHashMap<Integer, Object[]> m_cache;
+	private long m_cacheHits = 0, m_cacheMisses = 0;
+
+	public BlockCompressedDictRadix(DictRadix<T> radix, BlockCodec<T> codec)
+	{
+		this(radix, codec, DEFAULT_BLOCK_SIZE, DEFAULT_CACHED_BLOCKS);
+	}
+
+	/**
+	 @param blockSize How many values to compress together
+	 @param maxCachedBlocks How many decoded blocks to keep
+	*/
+	public BlockCompressedDictRadix(DictRadix<T> radix, BlockCodec<T> codec, int blockSize, final int maxCachedBlocks)
+	{
+		if ((blockSize < 1) || (maxCachedBlocks < 1))
+		{
+			throw new IllegalArgumentException("Blocks must hold a value, and at least one must be cached");
+		}
+
+		FrozenDictRadix<T> frozen = new FrozenDictRadix<T>(radix);
+		m_keys = frozen.m_keys;
+		m_keyStart = frozen.m_keyStart;
+		m_childStart = frozen.m_childStart;
+		m_valueIndex = frozen.m_valueIndex;
+		m_dispatch = frozen.m_dispatch;
+		m_dispatchNodes = frozen.m_dispatchNodes;
+		m_nCount = frozen.m_nCount;
+
+		m_codec = codec;
+		m_blockSize = blockSize;
+		m_valuesCount = frozen.m_values.length;
+		m_resident = new byte[m_valuesCount];
+		m_blocks = new byte[(m_valuesCount + blockSize - 1) / blockSize][];
+		m_blockLength = new int[m_blocks.length];
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] deflated = new byte[1024];
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		try
+		{
+			for (int block = 0; block < m_blocks.length; block++)
+			{
+				int from = block * blockSize, to = Math.min(from + blockSize, m_valuesCount);
+				for (int i = from; i < to; i++)
+				{
+					@SuppressWarnings("unchecked")
+					T value = (T)frozen.m_values[i];
+					m_resident[i] = codec.getResidentByte(value);
+				}
+
+				bytes.reset();
+				DataOutputStream out = new DataOutputStream(bytes);
+				codec.writeBlock(frozen.m_values, from, to, out);
+				out.flush();
+				byte[] raw = bytes.toByteArray();
+				m_blockLength[block] = raw.length;
+
+				deflater.reset();
+				deflater.setInput(raw);
+				deflater.finish();
+				int length = 0;
+				while (!deflater.finished())
+				{
+					if (length == deflated.length)
+					{
+						byte[] grown = new byte[deflated.length * 2];
+						System.arraycopy(deflated, 0, grown, 0, length);
+						deflated = grown;
+					}
+					length += deflater.deflate(deflated, length, deflated.length - length);
+				}
+				m_blocks[block] = new byte[length];
+				System.arraycopy(deflated, 0, m_blocks[block], 0, length);
+			}
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException("Writing to memory failed", e);
+		}
+		finally
+		{
+			deflater.end();
+		}
+
+		m_cache = new LinkedHashMap<Integer, Object[]>(maxCachedBlocks * 2, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Object[]> eldest)
+			{
+				return size() > maxCachedBlocks;
+			}
+		};
+	}
+
+	/**
+	 @return The resident byte of the value at valueIndex, without decoding its block
+	*/
+	protected byte getResidentByte(int valueIndex)
+	{
+		return m_resident[valueIndex];
+	}
+
+	/**
+	 Decodes the value at valueIndex, through the cache of decoded blocks
+	*/
+	@SuppressWarnings("unchecked")
+	protected T decodeValue(int valueIndex)
+	{
+		Integer block = valueIndex / m_blockSize;
+		synchronized (m_cache)
+		{
+			Object[] values = m_cache.get(block);
+			if (values != null)
+			{
+				m_cacheHits++;
+			}
+			else
+			{
+				m_cacheMisses++;
+				values = decodeBlock(block);
+				m_cache.put(block, values);
+			}
+			return (T)values[valueIndex % m_blockSize];
+		}
+	}
+
+	private Object[] decodeBlock(int block)
+	{
+		byte[] raw = new byte[m_blockLength[block]];
+		Inflater inflater = new Inflater();
+		try
+		{
+			inflater.setInput(m_blocks[block]);
+			int length = 0;
+			while (length < raw.length)
+			{
+				int n = inflater.inflate(raw, length, raw.length - length);
+				if ((n == 0) && (inflater.finished() || inflater.needsInput()))
+				{
+					throw new IllegalStateException("Block " + block + " is shorter than it should be");
+				}
+				length += n;
+			}
+
+			int count = Math.min(m_blockSize, m_valuesCount - block * m_blockSize);
+			Object[] ret = new Object[count];
+			m_codec.readBlock(new DataInputStream(new ByteArrayInputStream(raw)), ret, count);
+			return ret;
+		}
+		catch (DataFormatException e)
+		{
+			throw new IllegalStateException("Block " + block + " is corrupt", e);
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException("Block " + block + " is corrupt", e);
+		}
+		finally
+		{
+			inflater.end();
+		}
+	}
+
+	public long getCacheHits()
+	{
+		synchronized (m_cache)
+		{
+			return m_cacheHits;
+		}
+	}
+
+	public long getCacheMisses()
+	{
+		synchronized (m_cache)
+		{
+			return m_cacheMisses;
+		}
+	}
+
+	public int getCachedBlocksCount()
+	{
+		synchronized (m_cache)
+		{
+			return m_cache.size();
+		}
+	}
+
+	public int getBlocksCount()
+	{
+		return m_blocks.length;
+	}
+
+	/**
+	 @return The size of all compressed blocks, in bytes
+	*/
+	public long getCompressedSize()
+	{
+		long ret = 0;
+		for (byte[] block : m_blocks)
+		{
+			ret += block.length;
+		}
+		return ret;
+	}
+
+	public int getCount()
+	{
+		return m_nCount;
+	}
+
+	public int getNodesCount()
+	{
+		return m_valueIndex.length;
+	}
+
+	@Override
+	protected int getKeyStart(int node)
+	{
+		return m_keyStart[node];
+	}
+
+	@Override
+	protected char getKeyChar(int pos)
+	{
+		return m_keys[pos];
+	}
+
+	@Override
+	protected int getChildStart(int node)
+	{
+		return m_childStart[node];
+	}
+
+	@Override
+	protected int getValueIndex(int node)
+	{
+		return m_valueIndex[node];
+	}
+
+	@Override
+	protected T getValueAt(int valueIndex)
+	{
+		return decodeValue(valueIndex);
+	}
+
+	@Override
+	protected int getDispatchNodes()
+	{
+		return m_dispatchNodes;
+	}
+
+	@Override
+	protected int getDispatch(int node, int slot)
+	{
+		return m_dispatch[node * HebrewCharIndex.SIZE + slot];
+	}
+}
@@ -0,0 +1,585 @@
+/**************************************************************************
+ *   Copyright (C) 2010 by                                                 *
+ *      Itamar Syn-Hershko <itamar at code972 dot com>                     *
+ *		Ofer Fort <oferiko at gmail dot com>							   *
+ *                                                                         *
+ *   Distributed under the GNU General Public License, Version 2.0.        *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation (v2).                                    *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   51 Franklin Steet, Fifth Floor, Boston, MA  02111-1307, USA.          *
+ **************************************************************************/
+package hebmorph.datastructures;
+
+import hebmorph.LookupTolerators;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ A read-only dictionary stored as a minimal acyclic automaton (a DAWG), which shares suffixes between
+ words as well as prefixes - Hebrew inflections end with a small set of suffixes, so most of a radix's
+ nodes are merged away. Values are attached through a perfect hash: every transition records how
+ many words sort before the ones it leads to, so walking a word sums up to its index in the values array.
+
+ Lookups return the same results as the DictRadix the automaton was built from. Tolerant lookups walk
+ the automaton the way DictRadix's crawler walks the radix, taking a chain of non-final states with a
+ single transition each as one radix node key.
+
+*/
+public class DictDawg<T> implements DictLookup<T>
+{
+	// The transitions of state s are m_stateStart[s] .. m_stateStart[s + 1] - 1, sorted by label
+	private final int[] m_stateStart;
+	private final char[] m_labels;
+	private final int[] m_targets;
+	// How many words sort before those reached through a transition, among the words reachable from its
+	// state; the index of a word in m_values is the sum of m_skip over the transitions along its path
+	private final int[] m_skip;
+	private final long[] m_final;
+	private final int m_root;
+	private final Object[] m_values;
+
+	/**
+	 Builds the automaton of all keys in source
+
+	 @throws IllegalArgumentException if source doesn't enumerate its keys in sorted order
+	*/
+	public DictDawg(DictLookup<T> source)
+	{
+		Builder builder = new Builder();
+		KeyEnumerator<T> en = source.iterator();
+		while (en.hasNext())
+		{
+			T value = en.next();
+			builder.add(en.getCurrentKey(), value);
+		}
+		builder.finish();
+
+		m_stateStart = Arrays.copyOf(builder.stateStart, builder.statesCount + 1);
+		m_labels = Arrays.copyOf(builder.labels, builder.transitionsCount);
+		m_targets = Arrays.copyOf(builder.targets, builder.transitionsCount);
+		m_skip = Arrays.copyOf(builder.skip, builder.transitionsCount);
+		m_final = new long[(builder.statesCount + 63) >>> 6];
+		for (int s = 0; s < builder.statesCount; s++)
+		{
+			if (builder.counts[s] < 0)
+			{
+				m_final[s >>> 6] |= 1L << s;
+			}
+		}
+		m_root = builder.statesCount - 1;
+		m_values = builder.values.toArray();
+	}
+
+	/**
+	 Daciuk's incremental construction of a minimal automaton from sorted keys. The states along the
+	 path of the last key stay mutable; once the next key leaves a state's path, the state is replaced
+	 by an equal state already registered, or registered itself.
+	*/
+	private class Builder
+	{
+		int[] stateStart = new int[1024];
+		// The number of words reachable from each registered state, negated for final states
+		int[] counts = new int[1024];
+		int statesCount = 0;
+		char[] labels = new char[1024];
+		int[] targets = new int[1024];
+		int[] skip = new int[1024];
+		int transitionsCount = 0;
+		// Open-addressing hash of the registered states, by their finality and transitions
+		int[] register = new int[1024];
+		List<Object> values = new ArrayList<Object>();
+
+		// The mutable path states: pathLabels[d][0 .. pathSize[d] - 1] are the transitions of the state
+		// at depth d, and the target of its last one is the state at depth d + 1
+		char[][] pathLabels = new char[0][];
+		int[][] pathTargets = new int[0][];
+		int[] pathSize = new int[0];
+		boolean[] pathFinal = new boolean[0];
+		char[] lastKey = new char[0];
+		int lastKeyLength = 0;
+
+		Builder()
+		{
+			Arrays.fill(register, -1);
+			ensureDepth(1);
+		}
+
+		void add(String key, T value)
+		{
+			int length = key.length();
+			if (length == 0)
+			{
+				return;
+			}
+			int common = 0;
+			while ((common < length) && (common < lastKeyLength) && (key.charAt(common) == lastKey[common]))
+			{
+				common++;
+			}
+			if ((common < lastKeyLength) && ((common == length) || (key.charAt(common) < lastKey[common])))
+			{
+				throw new IllegalArgumentException("Keys must be added in sorted order; " + key + " came after " +
+						new String(lastKey, 0, lastKeyLength));
+			}
+			if ((common == length) && (common == lastKeyLength)) // The first value added for a key is kept
+			{
+				return;
+			}
+
+			minimize(common);
+			ensureDepth(length + 1);
+			for (int d = common; d < length; d++)
+			{
+				pushTransition(d, key.charAt(d));
+				pathSize[d + 1] = 0;
+				pathFinal[d + 1] = false;
+			}
+			pathFinal[length] = true;
+
+			if (lastKey.length < length)
+			{
+				lastKey = Arrays.copyOf(lastKey, Math.max(length, lastKey.length * 2));
+			}
+			key.getChars(common, length, lastKey, common);
+			lastKeyLength = length;
+			values.add(value);
+		}
+
+		void finish()
+		{
+			minimize(0);
+			registerState(0);
+		}
+
+		/**
+		 Registers the path states deeper than depth
+		*/
+		private void minimize(int depth)
+		{
+			for (int d = lastKeyLength; d > depth; d--)
+			{
+				pathTargets[d - 1][pathSize[d - 1] - 1] = registerState(d);
+			}
+		}
+
+		private void ensureDepth(int depth)
+		{
+			if (pathSize.length > depth)
+			{
+				return;
+			}
+			int oldDepth = pathSize.length, newDepth = Math.max(depth + 1, oldDepth * 2);
+			pathLabels = Arrays.copyOf(pathLabels, newDepth);
+			pathTargets = Arrays.copyOf(pathTargets, newDepth);
+			pathSize = Arrays.copyOf(pathSize, newDepth);
+			pathFinal = Arrays.copyOf(pathFinal, newDepth);
+			for (int d = oldDepth; d < newDepth; d++)
+			{
+				pathLabels[d] = new char[4];
+				pathTargets[d] = new int[4];
+			}
+		}
+
+		private void pushTransition(int d, char label)
+		{
+			if (pathSize[d] == pathLabels[d].length)
+			{
+				pathLabels[d] = Arrays.copyOf(pathLabels[d], pathSize[d] * 2);
+				pathTargets[d] = Arrays.copyOf(pathTargets[d], pathSize[d] * 2);
+			}
+			pathLabels[d][pathSize[d]] = label;
+			pathTargets[d][pathSize[d]] = -1;
+			pathSize[d]++;
+		}
+
+		private int hash(int d)
+		{
+			int h = pathFinal[d] ? 1 : 0;
+			for (int i = 0; i < pathSize[d]; i++)
+			{
+				h = h * 31 + pathLabels[d][i];
+				h = h * 31 + pathTargets[d][i];
+			}
+			return h ^ (h >>> 16);
+		}
+
+		private boolean equalsRegistered(int d, int state)
+		{
+			if (((counts[state] < 0) != pathFinal[d]) || (stateStart[state + 1] - stateStart[state] != pathSize[d]))
+			{
+				return false;
+			}
+			for (int i = 0, t = stateStart[state]; i < pathSize[d]; i++, t++)
+			{
+				if ((labels[t] != pathLabels[d][i]) || (targets[t] != pathTargets[d][i]))
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 @return The registered state equal to the path state at depth d, registering it if there is none
+		*/
+		private int registerState(int d)
+		{
+			int mask = register.length - 1;
+			int slot = hash(d) & mask;
+			while (register[slot] >= 0)
+			{
+				if (equalsRegistered(d, register[slot]))
+				{
+					return register[slot];
+				}
+				slot = (slot + 1) & mask;
+			}
+
+			int state = statesCount++;
+			if (statesCount + 1 >= stateStart.length)
+			{
+				stateStart = Arrays.copyOf(stateStart, stateStart.length * 2);
+				counts = Arrays.copyOf(counts, counts.length * 2);
+			}
+			if (transitionsCount + pathSize[d] > labels.length)
+			{
+				int newLength = Math.max(labels.length * 2, transitionsCount + pathSize[d]);
+				labels = Arrays.copyOf(labels, newLength);
+				targets = Arrays.copyOf(targets, newLength);
+				skip = Arrays.copyOf(skip, newLength);
+			}
+
+			int count = pathFinal[d] ? 1 : 0;
+			stateStart[state] = transitionsCount;
+			for (int i = 0; i < pathSize[d]; i++)
+			{
+				int target = pathTargets[d][i];
+				labels[transitionsCount] = pathLabels[d][i];
+				targets[transitionsCount] = target;
+				skip[transitionsCount] = count;
+				transitionsCount++;
+				count += Math.abs(counts[target]);
+			}
+			stateStart[state + 1] = transitionsCount;
+			counts[state] = pathFinal[d] ? -count : count;
+
+			register[slot] = state;
+			if (statesCount * 2 > register.length)
+			{
+				rehash();
+			}
+			return state;
+		}
+
+		private void rehash()
+		{
+			int[] old = register;
+			register = new int[old.length * 2];
+			Arrays.fill(register, -1);
+			int mask = register.length - 1;
+			for (int state : old)
+			{
+				if (state < 0)
+				{
+					continue;
+				}
+				int h = (counts[state] < 0) ? 1 : 0;
+				for (int t = stateStart[state]; t < stateStart[state + 1]; t++)
+				{
+					h = h * 31 + labels[t];
+					h = h * 31 + targets[t];
+				}
+				int slot = (h ^ (h >>> 16)) & mask;
+				while (register[slot] >= 0)
+				{
+					slot = (slot + 1) & mask;
+				}
+				register[slot] = state;
+			}
+		}
+	}
+
+	private boolean isFinal(int state)
+	{
+		return (m_final[state >>> 6] & (1L << state)) != 0;
+	}
+
+	/**
+	 @return Whether a state ends a radix node key: it holds a word, or branches (or is a leaf)
+	*/
+	private boolean endsNodeKey(int state)
+	{
+		return isFinal(state) || (m_stateStart[state + 1] - m_stateStart[state] != 1);
+	}
+
+	/**
+	 @return The transition from state labelled c, or -1 if there is none
+	*/
+	private int getTransition(int state, char c)
+	{
+		int low = m_stateStart[state], high = m_stateStart[state + 1] - 1;
+		while (low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			if (m_labels[mid] < c)
+			{
+				low = mid + 1;
+			}
+			else if (m_labels[mid] > c)
+			{
+				high = mid - 1;
+			}
+			else
+			{
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	@SuppressWarnings("unchecked")
+	private T getValueAt(int index)
+	{
+		return (T)m_values[index];
+	}
+
+	public T lookup(String key)
+	{
+		return lookup((CharSequence)key);
+	}
+
+	public T lookup(char[] key)
+	{
+		int keyLength = 0;
+		while ((keyLength < key.length) && (key[keyLength] != '\0'))
+		{
+			keyLength++;
+		}
+		return lookup(key, 0, keyLength);
+	}
+
+	public T lookup(char[] key, int offset, int length)
+	{
+		if (length == 0)
+		{
+			return null;
+		}
+		int state = m_root, index = 0;
+		for (int i = offset; i < offset + length; i++)
+		{
+			int t = getTransition(state, key[i]);
+			if (t < 0)
+			{
+				return null;
+			}
+			index += m_skip[t];
+			state = m_targets[t];
+		}
+		return isFinal(state) ? getValueAt(index) : null;
+	}
+
+	public T lookup(CharSequence key)
+	{
+		int length = key.length();
+		if (length == 0)
+		{
+			return null;
+		}
+		int state = m_root, index = 0;
+		for (int i = 0; i < length; i++)
+		{
+			int t = getTransition(state, key.charAt(i));
+			if (t < 0)
+			{
+				return null;
+			}
+			index += m_skip[t];
+			state = m_targets[t];
+		}
+		return isFinal(state) ? getValueAt(index) : null;
+	}
+
+	public List<LookupResult<T>> lookupTolerant(String strKey, LookupTolerators.Tolerator[] tolerators)
+	{
+		return TolerantCrawler.lookupTolerant(new TolerantNodes(), null, m_root, strKey, tolerators);
+	}
+
+	public List<LookupResult<T>> lookupTolerant(String strKey, LookupTolerators.ToleranceFunction[] tolFuncs)
+	{
+		return lookupTolerant(strKey, LookupTolerators.adapt(tolFuncs));
+	}
+
+	public TopResults<T> lookupTolerant(String strKey, LookupTolerators.Tolerator[] tolerators, float minScore, int maxResults)
+	{
+		return TolerantCrawler.lookupTolerant(new TolerantNodes(), null, m_root, strKey, tolerators, minScore, maxResults);
+	}
+
+	/**
+	 The automaton as TolerantCrawler sees a radix tree. A node key is a chain of transitions, up to a state
+	 for which endsNodeKey() holds, and a position is the transition about to be taken there. Each carries
+	 the sum of m_skip along the transitions taken to reach it, which tells apart the words a state is
+	 reached with: a position is that index in the high int and the transition in the low one, the end of a
+	 node the index and the state, and a child the transition to it.
+	*/
+	private class TolerantNodes implements TolerantCrawler.Nodes<T>
+	{
+		public char getChar(Object node, long at)
+		{
+			return m_labels[(int)at];
+		}
+
+		public long next(Object node, long at)
+		{
+			int t = (int)at, target = m_targets[t];
+			return endsNodeKey(target) ? -1 : (((at >>> 32) + m_skip[t]) << 32) | m_stateStart[target];
+		}
+
+		public long getEnd(Object node, long at)
+		{
+			int t = (int)at;
+			return (((at >>> 32) + m_skip[t]) << 32) | m_targets[t];
+		}
+
+		public T getValue(Object node, long end)
+		{
+			return isFinal((int)end) ? getValueAt((int)(end >>> 32)) : null;
+		}
+
+		public long getFirstChild(Object node, long end)
+		{
+			int state = (int)end;
+			return (m_stateStart[state] < m_stateStart[state + 1]) ? m_stateStart[state] : -1;
+		}
+
+		public long getNextChild(Object node, long end, long child)
+		{
+			return (child + 1 < m_stateStart[(int)end + 1]) ? child + 1 : -1;
+		}
+
+		public Object getChildNode(Object node, long child)
+		{
+			return null;
+		}
+
+		public long getChildStart(Object node, long end, long child)
+		{
+			return (end & 0xFFFFFFFF00000000L) | child;
+		}
+	}
+
+	public int getCount()
+	{
+		return m_values.length;
+	}
+
+	public int getStatesCount()
+	{
+		return m_stateStart.length - 1;
+	}
+
+	public int getTransitionsCount()
+	{
+		return m_labels.length;
+	}
+
+	/**
+	 Enumerates the keys in sorted order, which is also the order of their values
+	*/
+	public class DawgEnumerator implements DictLookup.KeyEnumerator<T>
+	{
+		// The transitions taken from the root to the current state, and the next one to try at the deepest level
+		private int[] path = new int[16];
+		private int depth = 0;
+		private int index = -1;
+		private boolean advanced = false;
+
+		public DawgEnumerator()
+		{
+			path[0] = m_stateStart[m_root];
+		}
+
+		public boolean hasNext()
+		{
+			if (!advanced)
+			{
+				advance();
+				advanced = true;
+			}
+			return depth >= 0;
+		}
+
+		/**
+		 Moves depth-first to the next final state
+		*/
+		private void advance()
+		{
+			while (depth >= 0)
+			{
+				int state = (depth == 0) ? m_root : m_targets[path[depth - 1] - 1];
+				int t = path[depth];
+				if (t == m_stateStart[state + 1])
+				{
+					depth--;
+					continue;
+				}
+
+				path[depth]++;
+				int target = m_targets[t];
+				if (++depth == path.length)
+				{
+					path = Arrays.copyOf(path, path.length * 2);
+				}
+				path[depth] = m_stateStart[target];
+				if (isFinal(target))
+				{
+					index++;
+					return;
+				}
+			}
+		}
+
+		public T next()
+		{
+			if (!hasNext())
+			{
+				throw new NoSuchElementException();
+			}
+			advanced = false;
+			return getValueAt(index);
+		}
+
+		public String getCurrentKey()
+		{
+			char[] chars = new char[depth];
+			for (int d = 0; d < depth; d++)
+			{
+				chars[d] = m_labels[path[d] - 1];
+			}
+			return new String(chars);
+		}
+
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	public DictLookup.KeyEnumerator<T> iterator()
+	{
+		return new DawgEnumerator();
+	}
+}
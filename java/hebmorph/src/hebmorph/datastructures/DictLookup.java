@@ -0,0 +1,86 @@
+/**************************************************************************
+ *   Copyright (C) 2010 by                                                 *
+ *      Itamar Syn-Hershko <itamar at code972 dot com>                     *
+ *		Ofer Fort <oferiko at gmail dot com>							   *
+ *                                                                         *
+ *   Distributed under the GNU General Public License, Version 2.0.        *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation (v2).                                    *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   51 Franklin Steet, Fifth Floor, Boston, MA  02111-1307, USA.          *
+ **************************************************************************/
+package hebmorph.datastructures;
+
+import hebmorph.LookupTolerators;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ The read contract the Lemmatizer needs from a dictionary, implemented by the mutable DictRadix
+ as well as by the read-only variants built from it
+
+*/
+public interface DictLookup<T> extends Iterable<T>
+{
+	/**
+	 Enumerates the dictionary values, while also exposing the key of the current value
+	*/
+	public interface KeyEnumerator<T> extends Iterator<T>
+	{
+		public String getCurrentKey();
+	}
+
+	public T lookup(String key);
+
+	/**
+	 Exact lookup. Since key might be a buffer array which is longer than the actual word in it, a
+	 '\0' char terminates the key.
+	*/
+	public T lookup(char[] key);
+
+	/**
+	 Exact lookup of key[offset .. offset + length - 1], so a word can be looked up in parts without
+	 copying them into strings or arrays of their own
+	*/
+	public T lookup(char[] key, int offset, int length);
+
+	public T lookup(CharSequence key);
+
+	/**
+	 Looks up the words key matches with tolerators. Each word is listed once, with the best score it's
+	 found with, and no char of the dictionary is matched against a key position again unless with a
+	 better score, whatever the tolerators do.
+
+	 @return null if nothing matched
+	*/
+	public List<LookupResult<T>> lookupTolerant(String key, LookupTolerators.Tolerator[] tolerators);
+
+	/**
+	 Same as lookupTolerant(String, Tolerator[]), with the functions wrapped by LookupTolerators.adapt()
+	*/
+	public List<LookupResult<T>> lookupTolerant(String key, LookupTolerators.ToleranceFunction[] tolFuncs);
+
+	/**
+	 Same as lookupTolerant(String, Tolerator[]), keeping only the results scored at least minScore, and of
+	 those the maxResults best (see TopResults). Nodes where no result could be kept are skipped, which
+	 relies on the tolerators never raising a score.
+
+	 @param maxResults Integer.MAX_VALUE for no limit
+	*/
+	public TopResults<T> lookupTolerant(String key, LookupTolerators.Tolerator[] tolerators, float minScore, int maxResults);
+
+	public int getCount();
+
+	public KeyEnumerator<T> iterator();
+}
@@ -22,19 +22,24 @@
 package hebmorph.datastructures;
 
 import hebmorph.LookupTolerators;
-import hebmorph.Reference;
 
 import java.lang.reflect.Array;
-import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 
 
-public class DictRadix<T> implements Iterable<T>
+public class DictRadix<T> implements DictLookup<T>
 {
+	/**
+	 Nodes with at least this many children dispatch on the next char through a direct-indexed table
+	*/
+	private static final int WIDE_NODE_CHILDREN = 8;
+
 	public class DictNode
 	{
+		// Children are kept sorted by the first char of their keys, and no two children share a first char
 		private DictNode[] children;
+		// Children of wide nodes indexed by HebrewCharIndex of their first char, null for narrow nodes
+		private DictNode[] dispatch;
 		private char[] key;
 		private T value;
 		public T getValue()
@@ -48,11 +53,94 @@ public class DictRadix<T> implements Iterable<T>
 		public void setChildren(DictNode[] children)
 		{
 			this.children = children;
+
+			if ((children == null) || (children.length < WIDE_NODE_CHILDREN))
+			{
+				dispatch = null;
+				return;
+			}
+			@SuppressWarnings("unchecked")
+			DictNode[] table = (DictNode[])Array.newInstance(DictNode.class,HebrewCharIndex.SIZE);
+			dispatch = table;
+			for (DictNode child : children)
+			{
+				int idx = HebrewCharIndex.of(child.key[0]);
+				if (idx >= 0)
+				{
+					dispatch[idx] = child;
+				}
+			}
 		}
 		public DictNode[] getChildren()
 		{
 			return children;
 		}
+
+		/**
+		 Replaces the child at the given position with a node whose key starts with the same char
+		*/
+		private void setChild(int childPos, DictNode child)
+		{
+			children[childPos] = child;
+			if (dispatch != null)
+			{
+				int idx = HebrewCharIndex.of(child.key[0]);
+				if (idx >= 0)
+				{
+					dispatch[idx] = child;
+				}
+			}
+		}
+
+		/**
+		 @return The child whose key starts with c, or null if there is none
+		*/
+		public DictNode getChild(char c)
+		{
+			if (dispatch != null)
+			{
+				int idx = HebrewCharIndex.of(c);
+				if (idx >= 0)
+				{
+					return dispatch[idx];
+				}
+			}
+			int childPos = findChildPosition(c);
+			return (childPos < 0) ? null : children[childPos];
+		}
+
+		/**
+		 Binary search of the children by the first char of their keys
+
+		 @return The position of the child whose key starts with c, or (-(insertion point) - 1) if there is none
+		*/
+		private int findChildPosition(char c)
+		{
+			if (children == null)
+			{
+				return -1;
+			}
+
+			int low = 0, high = children.length - 1;
+			while (low <= high)
+			{
+				int mid = (low + high) >>> 1;
+				char midChar = children[mid].key[0];
+				if (midChar < c)
+				{
+					low = mid + 1;
+				}
+				else if (midChar > c)
+				{
+					high = mid - 1;
+				}
+				else
+				{
+					return mid;
+				}
+			}
+			return -(low + 1);
+		}
 		public void setKey(char[] key)
 		{
 			this.key = key;
@@ -68,153 +156,51 @@ public class DictRadix<T> implements Iterable<T>
 		}
 	}
 
-	protected class TolerantLookupCrawler
+	/**
+	 The nodes as TolerantCrawler sees them: a position is a node with the position in its key, and
+	 children are told by their index. The nodes it's given back are DictNodes, so the casts are safe.
+	*/
+	@SuppressWarnings("unchecked")
+	private class TolerantNodes implements TolerantCrawler.Nodes<T>
 	{
-		protected class MatchCandidate
+		public char getChar(Object node, long at)
 		{
-			public MatchCandidate(byte _keyPos, String _word, float _score)
-			{
-				this.keyPos = _keyPos;
-				this.word = _word;
-				this.score = _score;
-			}
-
-			private byte keyPos;
-			private String word;
-			private float score = 1.0f;
-			public byte getKeyPos()
-			{
-				return keyPos;
-			}
-			public void setKeyPos(byte keyPos)
-			{
-				this.keyPos = keyPos;
-			}
-			public String getWord()
-			{
-				return word;
-			}
-			public void setWord(String word)
-			{
-				this.word = word;
-			}
-			public float getScore()
-			{
-				return score;
-			}
-			public void setScore(float score)
-			{
-				this.score = score;
-			}
+			return ((DictNode)node).getKey()[(int)at];
 		}
 
-		public TolerantLookupCrawler(DictRadix<T> _enclosingInstance, LookupTolerators.ToleranceFunction[] _tolFuncs)
+		public long next(Object node, long at)
 		{
-			this.enclosingInstance = _enclosingInstance;
-			this.toleranceFunctions = _tolFuncs;
+			return (at + 1 < ((DictNode)node).getKey().length) ? at + 1 : -1;
 		}
 
-		private LookupTolerators.ToleranceFunction[] toleranceFunctions;
-		private DictRadix<T> enclosingInstance;
-
-		private char[] key;
-		//		private List<LookupResult> resultSet = new ArrayList<LookupResult>();
-
-		public final List<LookupResult> lookupTolerant(String strKey)
+		public long getEnd(Object node, long at)
 		{
-			key = strKey.toCharArray();
-			List<LookupResult> resultSet = new ArrayList<LookupResult>();
-			//				resultSet.clear();
-			lookupTolerantImpl(enclosingInstance.getRootNode(), new MatchCandidate((byte)0, "", 1.0f),resultSet);
-
-			if( resultSet.isEmpty() )
-			{
-				return null;
-			}
-			return resultSet;
+			return 0;
 		}
 
-		private void lookupTolerantImpl(DictNode cur, MatchCandidate mc,List<LookupResult> resultSet)
+		public T getValue(Object node, long end)
 		{
-			if (cur.getChildren() == null)
-			{
-				return;
-			}
-
-			//System.out.println("--------------------------");
-			//System.out.println(String.format("Processing children for word %1$s", mc.Word));
-			for (int childPos = 0; childPos < cur.getChildren().length; childPos++)
-			{
-				DictNode child = cur.getChildren()[childPos];
-				doKeyMatching(child, (byte)0, mc,resultSet);
-			}
-			//System.out.println(String.format("Completed processing node children for word %1$s", mc.Word));
-			//System.out.println("--------------------------");
+			return ((DictNode)node).getValue();
 		}
 
-		private void doKeyMatching(DictNode node, byte nodeKeyPos, MatchCandidate mc,List<LookupResult> resultSet)
+		public long getFirstChild(Object node, long end)
 		{
-			byte currentKeyPos = mc.keyPos, startingNodeKeyPos = nodeKeyPos;
-			while ((nodeKeyPos < node.getKey().length) && (currentKeyPos < key.length))
-			{
-				// toleration
-				for (LookupTolerators.ToleranceFunction tf : toleranceFunctions)
-				{
-					byte tmpKeyPos = mc.keyPos;
-					float tmpScore = mc.getScore();
-					Reference<Byte> tempRefObject = new Reference<Byte>(tmpKeyPos);
-					Reference<Float> tempRefObject2 = new Reference<Float>(tmpScore);
-					Integer tret = tf.tolerate(key, tempRefObject, mc.getWord(), tempRefObject2, node.getKey()[nodeKeyPos]);
-					tmpKeyPos = tempRefObject.ref;
-					tmpScore = tempRefObject2.ref;
-					if (tret != null)
-					{
-						//System.out.println(String.format("%1$s tolerated a char, attempting word %2$s", tf.getClass().getName(), mc.Word + node.getKey()[nodeKeyPos]));
-
-						String consumedLetters = "";
-						if ((tret > 0) && (tret <= node.getKey().length))
-						{
-							consumedLetters = new String(node.getKey(), nodeKeyPos, tret);
-						}
-						MatchCandidate nmc = new MatchCandidate(tmpKeyPos, mc.getWord() + consumedLetters, tmpScore);
-						if ((nodeKeyPos + tret) == node.getKey().length)
-						{
-							lookupTolerantImpl(node, nmc,resultSet);
-						}
-						else
-						{
-							doKeyMatching(node, (byte)(nodeKeyPos + tret), nmc,resultSet);
-						}
-					}
-				}
+			return (((DictNode)node).getChildren() != null) ? 0 : -1;
+		}
 
-				// standard key matching
-				if (node.getKey()[nodeKeyPos] != key[currentKeyPos])
-				{
-					break;
-				}
+		public long getNextChild(Object node, long end, long child)
+		{
+			return (child + 1 < ((DictNode)node).getChildren().length) ? child + 1 : -1;
+		}
 
-				//System.out.println(String.format("Matched char: %1$s", key[currentKeyPos]));
-				currentKeyPos++;
-				nodeKeyPos++;
-			}
+		public Object getChildNode(Object node, long child)
+		{
+			return ((DictNode)node).getChildren()[(int)child];
+		}
 
-			if (nodeKeyPos == node.getKey().length)
-			{
-				if (currentKeyPos == key.length)
-				{
-					//System.out.println(String.format("Consumed the whole key"));
-					if (node.getValue() != null)
-					{
-						resultSet.add(new LookupResult(mc.getWord() + new String(node.getKey(), startingNodeKeyPos, nodeKeyPos - startingNodeKeyPos), node.getValue(), mc.getScore()));
-					}
-				}
-				else
-				{
-					MatchCandidate nmc = new MatchCandidate(currentKeyPos, mc.getWord() + new String(node.getKey(), startingNodeKeyPos, nodeKeyPos - startingNodeKeyPos), mc.getScore());
-					lookupTolerantImpl(node, nmc,resultSet);
-				}
-			}
+		public long getChildStart(Object node, long end, long child)
+		{
+			return 0;
 		}
 	}
 
@@ -241,10 +227,25 @@ public class DictRadix<T> implements Iterable<T>
 
 	public T lookup(String key)
 	{
-		return lookup(key.toCharArray());
+		return lookup((CharSequence)key);
 	}
 
 	public T lookup(char[] key)
+	{
+		return lookup(key, 0, getCharArrayLength(key));
+	}
+
+	public T lookup(char[] key, int offset, int length)
+	{
+		DictNode dn = lookupImpl(key, offset, length);
+		if (dn == null)
+		{
+			return null;
+		}
+		return dn.getValue();
+	}
+
+	public T lookup(CharSequence key)
 	{
 		DictNode dn = lookupImpl(key);
 		if (dn == null)
@@ -260,92 +261,110 @@ public class DictRadix<T> implements Iterable<T>
 	 @param key
 	 @return
 	 */
-	private final DictNode lookupImpl(char[] key)
+	private final DictNode lookupImpl(char[] key, int offset, int keyLength)
 	{
-		int keyPos = 0, position;
-		int keyLength = getCharArrayLength(key);
+		int keyPos = offset, position;
+		int keyEnd = offset + keyLength;
+		if (keyLength == 0)
+		{
+			return null;
+		}
 
 		DictNode cur = m_root;
-		while ((cur != null) && (cur.getChildren() != null))
+		while (cur.getChildren() != null)
 		{
-			for (int childPos = 0; ; childPos++)
+			// Only the child starting with the next char of the key can possibly match
+			DictNode child = cur.getChild(key[keyPos]);
+			if (child == null)
 			{
-				DictNode child = cur.getChildren()[childPos];
-				
-				// Do key matching
-				position = 0;
-				while ((position < child.getKey().length) && (keyPos < keyLength) && (child.getKey()[position] == key[keyPos]))
-				{
-					keyPos++;
-					position++;
-				}
+				return null;
+			}
 
-				if (position == child.getKey().length) // We consumed the child's key, and so far it matches our key
-				{
-					// We consumed both the child's key and the requested key, meaning we found the requested node
-					if (keyLength == keyPos)
-					{
-						return child;
-					}
-					// We consumed this child's key, but the key we are looking for isn't over yet
-					else if (keyLength > keyPos)
-					{
-						cur = child;
-						break;
-					}
-				}
-				else if ((position > 0) || (childPos + 1 == cur.getChildren().length)) // We looked at all the node's children -  Incomplete match to child's key (worths nothing)
-				{
-					return null;
-				}
+			// Do key matching
+			position = 0;
+			while ((position < child.getKey().length) && (keyPos < keyEnd) && (child.getKey()[position] == key[keyPos]))
+			{
+				keyPos++;
+				position++;
 			}
+
+			if (position < child.getKey().length) // Incomplete match to child's key (worths nothing)
+			{
+				return null;
+			}
+
+			// We consumed both the child's key and the requested key, meaning we found the requested node
+			if (keyEnd == keyPos)
+			{
+				return child;
+			}
+			// We consumed this child's key, but the key we are looking for isn't over yet
+			cur = child;
 		}
 
 		return null;
 	}
 
-	public class LookupResult
+	/**
+	 Same as lookupImpl(char[], int, int), reading the key through the CharSequence instead of copying it out
+	*/
+	private final DictNode lookupImpl(CharSequence key)
 	{
-		public void setScore(float score)
-		{
-			this.score = score;
-		}
-		public float getScore()
-		{
-			return score;
-		}
-		public void setData(T data)
-		{
-			this.data = data;
-		}
-		public T getData()
-		{
-			return data;
-		}
-		public void setWord(String word)
-		{
-			this.word = word;
-		}
-		public String getWord()
+		int keyPos = 0, position;
+		int keyLength = key.length();
+		if (keyLength == 0)
 		{
-			return word;
+			return null;
 		}
-		public LookupResult(String _word, T _data, float _score)
+
+		DictNode cur = m_root;
+		while (cur.getChildren() != null)
 		{
-			setWord(_word);
-			setData(_data);
-			setScore(_score);
+			// Only the child starting with the next char of the key can possibly match
+			DictNode child = cur.getChild(key.charAt(keyPos));
+			if (child == null)
+			{
+				return null;
+			}
+
+			// Do key matching
+			position = 0;
+			while ((position < child.getKey().length) && (keyPos < keyLength) && (child.getKey()[position] == key.charAt(keyPos)))
+			{
+				keyPos++;
+				position++;
+			}
+
+			if (position < child.getKey().length) // Incomplete match to child's key (worths nothing)
+			{
+				return null;
+			}
+
+			// We consumed both the child's key and the requested key, meaning we found the requested node
+			if (keyLength == keyPos)
+			{
+				return child;
+			}
+			// We consumed this child's key, but the key we are looking for isn't over yet
+			cur = child;
 		}
 
-		private String word;
-		private T data;
-		private float score;
+		return null;
 	}
 
-	public final List<LookupResult> lookupTolerant(String strKey, LookupTolerators.ToleranceFunction[] tolFuncs)
+	public final List<LookupResult<T>> lookupTolerant(String strKey, LookupTolerators.Tolerator[] tolerators)
 	{
-		TolerantLookupCrawler tlc = new TolerantLookupCrawler(this, tolFuncs);
-		return tlc.lookupTolerant(strKey);
+		return TolerantCrawler.lookupTolerant(new TolerantNodes(), m_root, 0, strKey, tolerators);
+	}
+
+	public final List<LookupResult<T>> lookupTolerant(String strKey, LookupTolerators.ToleranceFunction[] tolFuncs)
+	{
+		return lookupTolerant(strKey, LookupTolerators.adapt(tolFuncs));
+	}
+
+	public final TopResults<T> lookupTolerant(String strKey, LookupTolerators.Tolerator[] tolerators, float minScore, int maxResults)
+	{
+		return TolerantCrawler.lookupTolerant(new TolerantNodes(), m_root, 0, strKey, tolerators, minScore, maxResults);
 	}
 
 	private static int getCharArrayLength(char[] ar)
@@ -384,17 +403,18 @@ public class DictRadix<T> implements Iterable<T>
 				System.arraycopy(key, keyPos, newChild.getKey(), 0, newChild.getKey().length);
 				newChild.setValue(data);
 
-				cur.setChildren((DictNode[])Array.newInstance(DictNode.class,1));
-				cur.getChildren()[0] = newChild;
+				DictNode[] newArray = (DictNode[])Array.newInstance(DictNode.class,1);
+				newArray[0] = newChild;
+				cur.setChildren(newArray);
 				m_nCount++;
 				return;
 			}
 
-			// Iterate through all children of the current node, and either switch node based on the
-			// key, find a node to split into 2, or add a new child with the remaining path
-			int childPos = 0;
-			boolean bFoundChild = false;
-			for (; childPos < cur.getChildren().length; childPos++)
+			// Either switch node based on the key, find a node to split into 2, or add a new child with
+			// the remaining path. Only the child starting with the next char of the key can share a
+			// prefix with it.
+			int childPos = (keyPos < keyLength) ? cur.findChildPosition(key[keyPos]) : -(cur.getChildren().length + 1);
+			if (childPos >= 0)
 			{
 				DictNode child = cur.getChildren()[childPos];
 
@@ -407,118 +427,102 @@ public class DictRadix<T> implements Iterable<T>
 					n++;
 				}
 
-				// If it was a match, even partial
-				if (n > 0)
+				// We consumed this child's key, but the key we are looking for isn't over yet
+				if ((n == child.getKey().length) && (keyLength > keyPos))
 				{
-					bFoundChild = true;
-
-					// We consumed this child's key, but the key we are looking for isn't over yet
-					if ((n == child.getKey().length) && (keyLength > keyPos))
+					cur = child;
+					continue;
+				}
+				// We consumed none of the keys
+				else if ((child.getKey().length > n) && (keyLength > keyPos))
+				{
+					// split
+					DictNode bridgeChild = new DictNode();
+					bridgeChild.setKey(new char[n]);
+					System.arraycopy(child.getKey(), 0, bridgeChild.getKey(), 0, n);
+
+					int childNewKeyLen = child.getKey().length - n;
+					char[] childNewKey = new char[childNewKeyLen];
+					System.arraycopy(child.getKey(), n, childNewKey, 0, childNewKeyLen);
+					child.setKey(childNewKey);
+
+					DictNode newNode = new DictNode();
+					newNode.setKey(new char[keyLength - keyPos]);
+					System.arraycopy(key, keyPos, newNode.getKey(), 0, newNode.getKey().length);
+					newNode.setValue(data);
+
+					DictNode[] bridgeChildren = (DictNode[])Array.newInstance(DictNode.class,2);
+					if ((Character.valueOf(child.getKey()[0])).compareTo(newNode.getKey()[0]) < 0)
 					{
-						cur = child;
-						break;
+						bridgeChildren[0] = child;
+						bridgeChildren[1] = newNode;
 					}
-					// We consumed none of the keys
-					else if ((child.getKey().length > n) && (keyLength > keyPos))
+					else
 					{
-						// split
-						DictNode bridgeChild = new DictNode();
-						bridgeChild.setKey(new char[n]);
-						System.arraycopy(child.getKey(), 0, bridgeChild.getKey(), 0, n);
-
-						int childNewKeyLen = child.getKey().length - n;
-						char[] childNewKey = new char[childNewKeyLen];
-						System.arraycopy(child.getKey(), n, childNewKey, 0, childNewKeyLen);
-						child.setKey(childNewKey);
-
-						bridgeChild.setChildren((DictNode[])Array.newInstance(DictNode.class,2));
-
-						DictNode newNode = new DictNode();
-						newNode.setKey(new char[keyLength - keyPos]);
-						System.arraycopy(key, keyPos, newNode.getKey(), 0, newNode.getKey().length);
-						newNode.setValue(data);
+						bridgeChildren[0] = newNode;
+						bridgeChildren[1] = child;
+					}
+					bridgeChild.setChildren(bridgeChildren);
 
-						if ((Character.valueOf(child.getKey()[0])).compareTo(newNode.getKey()[0]) < 0)
-						{
-							bridgeChild.getChildren()[0] = child;
-							bridgeChild.getChildren()[1] = newNode;
-						}
-						else
-						{
-							bridgeChild.getChildren()[0] = newNode;
-							bridgeChild.getChildren()[1] = child;
-						}
+					cur.setChild(childPos, bridgeChild);
 
-						cur.getChildren()[childPos] = bridgeChild;
+					m_nCount++;
 
-						m_nCount++;
+					return;
+				}
+				// We consumed the requested key, but the there's still more chars in the child's key
+				else if ((child.getKey().length > n) && (keyLength == keyPos))
+				{
+					// split
+					DictNode newChild = new DictNode();
+					newChild.setKey(new char[n]);
+					System.arraycopy(child.getKey(), 0, newChild.getKey(), 0, n);
 
-						return;
-					}
-					// We consumed the requested key, but the there's still more chars in the child's key
-					else if ((child.getKey().length > n) && (keyLength == keyPos))
-					{
-						// split
-						DictNode newChild = new DictNode();
-						newChild.setKey(new char[n]);
-						System.arraycopy(child.getKey(), 0, newChild.getKey(), 0, n);
+					int childNewKeyLen = child.getKey().length - n;
+					char[] childNewKey = new char[childNewKeyLen];
+					System.arraycopy(child.getKey(), n, childNewKey, 0, childNewKeyLen);
+					child.setKey(childNewKey);
 
-						int childNewKeyLen = child.getKey().length - n;
-						char[] childNewKey = new char[childNewKeyLen];
-						System.arraycopy(child.getKey(), n, childNewKey, 0, childNewKeyLen);
-						child.setKey(childNewKey);
+					DictNode[] newChildChildren = (DictNode[])Array.newInstance(DictNode.class,1);
+					newChildChildren[0] = child;
+					newChild.setChildren(newChildChildren);
+					newChild.setValue(data);
 
-						newChild.setChildren((DictNode[])Array.newInstance(DictNode.class,1));
-						newChild.getChildren()[0] = child;
-						newChild.setValue(data);
+					cur.setChild(childPos, newChild);
 
-						cur.getChildren()[childPos] = newChild;
+					m_nCount++;
 
+					return;
+				}
+				// We consumed both the child's key and the requested key
+				else
+				{
+					if (child.getValue()==null)
+					{
+						child.setValue(data);
 						m_nCount++;
-
-						return;
 					}
-					// We consumed both the child's key and the requested key
-					else if ((n == child.getKey().length) && (keyLength == keyPos))
+					else if (m_bAllowValueOverride)
 					{
-						if (child.getValue()==null)
-						{
-							child.setValue(data);
-							m_nCount++;
-						}
-						else if (m_bAllowValueOverride)
-                        {
-                            // Only override data if this radix object is configured to do this
-                            child.value = data;
-                        }
-						return;
+						// Only override data if this radix object is configured to do this
+						child.value = data;
 					}
+					return;
 				}
 			}
-
-			if (!bFoundChild)
+			else
 			{
-				// Dead end - add a new child and return
+				// Dead end - add a new child at its sorted position and return
 				DictNode newChild = new DictNode();
 				newChild.setKey(new char[keyLength - keyPos]);
 				System.arraycopy(key, keyPos, newChild.getKey(), 0, newChild.getKey().length);
 				newChild.setValue(data);
 
+				int insertPos = -(childPos + 1);
 				DictNode[] newArray  = (DictNode[])Array.newInstance(DictNode.class,cur.getChildren().length + 1);// new DictNode[cur.getChildren().length + 1]
-				int curPos = 0;
-				for (; curPos < cur.getChildren().length; ++curPos)
-				{
-					if ((Character.valueOf(newChild.getKey()[0])).compareTo(cur.getChildren()[curPos].getKey()[0]) < 0)
-					{
-						break;
-					}
-					newArray[curPos] = cur.getChildren()[curPos];
-				}
-				newArray[curPos] = newChild;
-				for (; curPos < cur.getChildren().length; ++curPos)
-				{
-					newArray[curPos + 1] = cur.getChildren()[curPos];
-				}
+				System.arraycopy(cur.getChildren(), 0, newArray, 0, insertPos);
+				newArray[insertPos] = newChild;
+				System.arraycopy(cur.getChildren(), insertPos, newArray, insertPos + 1, cur.getChildren().length - insertPos);
 				cur.setChildren(newArray);
 
 				m_nCount++;
@@ -534,7 +538,7 @@ public class DictRadix<T> implements Iterable<T>
         m_nCount = 0;
     }
 
-	public class RadixEnumerator implements  java.util.Iterator<T>
+	public class RadixEnumerator implements DictLookup.KeyEnumerator<T>
 	{
 		private DictRadix<T> radix;
 		private java.util.LinkedList<DictRadix<T>.DictNode> nodesPath;
@@ -624,7 +628,7 @@ public class DictRadix<T> implements Iterable<T>
 	}
 
 
-	public Iterator<T> iterator()
+	public DictLookup.KeyEnumerator<T> iterator()
 	{
 		return new RadixEnumerator(this);
 	}
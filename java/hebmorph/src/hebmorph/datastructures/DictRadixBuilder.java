@@ -0,0 +1,295 @@
+/**************************************************************************
+ *   Copyright (C) 2010 by                                                 *
+ *      Itamar Syn-Hershko <itamar at code972 dot com>                     *
+ *		Ofer Fort <oferiko at gmail dot com>							   *
+ *                                                                         *
+ *   Distributed under the GNU General Public License, Version 2.0.        *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation (v2).                                    *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   51 Franklin Steet, Fifth Floor, Boston, MA  02111-1307, USA.          *
+ **************************************************************************/
+package hebmorph.datastructures;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ Builds a DictRadix from keys given in sorted order, in one pass and without any node splits. Nodes are
+ finished bottom-up as soon as the keys move past them, each with an exact-size children array. Builds
+ the same radix as adding the keys to it one by one with DictRadix.addNode, in linear time.
+
+ Like addNode, the first value added for a key is the one kept. Empty keys are ignored.
+
+*/
+public class DictRadixBuilder<T>
+{
+	/**
+	 A node on the path of the last key, which may still get children
+	*/
+	private class OpenNode
+	{
+		// The node's key is m_key[start .. end - 1]
+		int start, end;
+		T value;
+		// The node's finished children are m_children[firstChild ..]
+		int firstChild;
+
+		void set(int start, int end, T value)
+		{
+			this.start = start;
+			this.end = end;
+			this.value = value;
+			this.firstChild = m_children.size();
+		}
+	}
+
+	private final DictRadix<T> m_radix = new DictRadix<T>();
+	// The open nodes, from the root down to the node of the last key (m_path[0 .. m_depth - 1]). Entries
+	// past m_depth are kept for reuse.
+	private final ArrayList<OpenNode> m_path = new ArrayList<OpenNode>();
+	private int m_depth = 0;
+	// Finished nodes waiting for their parent to finish, as a stack; the children of an open node are
+	// always on top of those of the nodes above it
+	private final ArrayList<DictRadix<T>.DictNode> m_children = new ArrayList<DictRadix<T>.DictNode>();
+	// The last key added
+	private char[] m_key = new char[32];
+	private int m_keyLength = 0;
+	private char[] m_buf = new char[32];
+	private int m_nCount = 0;
+	private boolean m_bBuilt = false;
+
+	public DictRadixBuilder()
+	{
+		push(0, 0, null);
+	}
+
+	public void add(String key, T data)
+	{
+		if (m_buf.length < key.length())
+		{
+			m_buf = new char[Math.max(m_buf.length * 2, key.length())];
+		}
+		key.getChars(0, key.length(), m_buf, 0);
+		add(m_buf, 0, key.length(), data);
+	}
+
+	/**
+	 @param key A '\0' char terminates the key, as with DictRadix.addNode(char[], T)
+	*/
+	public void add(char[] key, T data)
+	{
+		int keyLength = 0;
+		while ((keyLength < key.length) && (key[keyLength] != '\0'))
+		{
+			keyLength++;
+		}
+		add(key, 0, keyLength, data);
+	}
+
+	/**
+	 Adds key[offset .. offset + length - 1]
+
+	 @throws IllegalArgumentException if the key sorts before the previous one
+	*/
+	public void add(char[] key, int offset, int length, T data)
+	{
+		if (m_bBuilt)
+		{
+			throw new IllegalStateException("The radix was already built");
+		}
+		if (length == 0)
+		{
+			return;
+		}
+
+		int common = 0;
+		while ((common < length) && (common < m_keyLength) && (key[offset + common] == m_key[common]))
+		{
+			common++;
+		}
+		if ((common < m_keyLength) && ((common == length) || (key[offset + common] < m_key[common])))
+		{
+			throw new IllegalArgumentException("Keys must be added in sorted order; " + new String(key, offset, length) +
+					" came after " + new String(m_key, 0, m_keyLength));
+		}
+
+		// Finish all nodes below the common prefix, splitting the one it ends inside of
+		closeNodes(common);
+
+		OpenNode last = m_path.get(m_depth - 1);
+		if (last.end == length) // The same key again
+		{
+			if (last.value == null)
+			{
+				last.value = data;
+				m_nCount++;
+			}
+			return;
+		}
+
+		if (m_key.length < length)
+		{
+			m_key = Arrays.copyOf(m_key, Math.max(m_key.length * 2, length));
+		}
+		System.arraycopy(key, offset + common, m_key, common, length - common);
+		m_keyLength = length;
+
+		push(common, length, data);
+		m_nCount++;
+	}
+
+	private void push(int start, int end, T value)
+	{
+		if (m_depth == m_path.size())
+		{
+			m_path.add(new OpenNode());
+		}
+		m_path.get(m_depth++).set(start, end, value);
+	}
+
+	/**
+	 Finishes the open nodes which end past depth, so that the deepest open node ends exactly at depth
+	*/
+	private void closeNodes(int depth)
+	{
+		while (true)
+		{
+			OpenNode last = m_path.get(m_depth - 1);
+			if (last.end <= depth)
+			{
+				return;
+			}
+
+			OpenNode parent = m_path.get(m_depth - 2);
+			if (parent.end >= depth)
+			{
+				DictRadix<T>.DictNode node = finish(last);
+				m_depth--;
+				m_children.add(node);
+			}
+			else
+			{
+				// depth is inside the key of the last node - turn it into a bridge node ending at depth,
+				// with the rest of it as its only child
+				int start = last.start;
+				last.start = depth;
+				DictRadix<T>.DictNode node = finish(last);
+				last.set(start, depth, null);
+				m_children.add(node);
+			}
+		}
+	}
+
+	/**
+	 Creates the node of open, taking its children off the children stack
+	*/
+	private DictRadix<T>.DictNode finish(OpenNode open)
+	{
+		DictRadix<T>.DictNode node = m_radix.new DictNode();
+		node.setKey(Arrays.copyOfRange(m_key, open.start, open.end));
+		node.setValue(open.value);
+		node.setChildren(popChildren(open.firstChild));
+		return node;
+	}
+
+	@SuppressWarnings("unchecked")
+	private DictRadix<T>.DictNode[] popChildren(int firstChild)
+	{
+		int count = m_children.size() - firstChild;
+		if (count == 0)
+		{
+			return null;
+		}
+		DictRadix<T>.DictNode[] ret = (DictRadix<T>.DictNode[])Array.newInstance(DictRadix.DictNode.class, count);
+		for (int i = 0; i < count; i++)
+		{
+			ret[i] = m_children.get(firstChild + i);
+		}
+		m_children.subList(firstChild, m_children.size()).clear();
+		return ret;
+	}
+
+	/**
+	 Finishes the radix; no keys can be added after this is called
+	*/
+	public DictRadix<T> build()
+	{
+		if (!m_bBuilt)
+		{
+			closeNodes(0);
+			m_radix.getRootNode().setChildren(popChildren(0));
+			m_radix.m_nCount = m_nCount;
+			m_path.clear();
+			m_bBuilt = true;
+		}
+		return m_radix;
+	}
+
+	private static class KeyEntry implements Comparable<KeyEntry>
+	{
+		final String key;
+		final int index;
+
+		KeyEntry(String key, int index)
+		{
+			this.key = key;
+			this.index = index;
+		}
+
+		public int compareTo(KeyEntry other)
+		{
+			return key.compareTo(other.key);
+		}
+	}
+
+	/**
+	 Builds a radix of keys in any order, sorting them first if they aren't sorted already. For
+	 duplicate keys, the value that comes first in the lists is kept.
+
+	 @param values The value of each key, in the same order
+	*/
+	public static <T> DictRadix<T> build(List<String> keys, List<T> values)
+	{
+		DictRadixBuilder<T> builder = new DictRadixBuilder<T>();
+
+		boolean sorted = true;
+		for (int i = 1; sorted && (i < keys.size()); i++)
+		{
+			sorted = keys.get(i - 1).compareTo(keys.get(i)) <= 0;
+		}
+		if (sorted)
+		{
+			for (int i = 0; i < keys.size(); i++)
+			{
+				builder.add(keys.get(i), values.get(i));
+			}
+			return builder.build();
+		}
+
+		// A stable sort keeps duplicates in their original order
+		KeyEntry[] entries = new KeyEntry[keys.size()];
+		for (int i = 0; i < entries.length; i++)
+		{
+			entries[i] = new KeyEntry(keys.get(i), i);
+		}
+		Arrays.sort(entries);
+		for (KeyEntry entry : entries)
+		{
+			builder.add(entry.key, values.get(entry.index));
+		}
+		return builder.build();
+	}
+}
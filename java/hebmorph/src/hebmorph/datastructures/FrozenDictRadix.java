@@ -0,0 +1,184 @@
+/**************************************************************************
+ *   Copyright (C) 2010 by                                                 *
+ *      Itamar Syn-Hershko <itamar at code972 dot com>                     *
+ *		Ofer Fort <oferiko at gmail dot com>							   *
+ *                                                                         *
+ *   Distributed under the GNU General Public License, Version 2.0.        *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation (v2).                                    *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   51 Franklin Steet, Fifth Floor, Boston, MA  02111-1307, USA.          *
+ **************************************************************************/
+package hebmorph.datastructures;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ A read-only radix, packed into a handful of flat arrays instead of a DictNode object (plus its key
+ and children arrays) per node. Nodes are laid out breadth-first, so the children of each node occupy
+ a contiguous range of node indices. Lookups return the same results as the DictRadix it was built from.
+
+*/
+public class FrozenDictRadix<T> extends PackedDictRadix<T>
+{
+	// All node keys, concatenated in node order; the key of node n is m_keys[m_keyStart[n] .. m_keyStart[n + 1])
+	final char[] m_keys;
+	final int[] m_keyStart;
+	// The children of node n are nodes m_childStart[n] .. m_childStart[n + 1] - 1
+	final int[] m_childStart;
+	// Index into m_values, or -1 for nodes without a value
+	final int[] m_valueIndex;
+	final Object[] m_values;
+	// Direct-indexed children of the root and of its children (nodes 0 .. m_dispatchNodes - 1), together a
+	// table keyed on the first two letters of a word; HebrewCharIndex.SIZE slots per node, -1 for no child
+	final int[] m_dispatch;
+	final int m_dispatchNodes;
+
+	final int m_nCount;
+
+	public FrozenDictRadix(DictRadix<T> radix)
+	{
+		// Number the nodes breadth-first; the root is node 0
+		List<DictRadix<T>.DictNode> nodes = new ArrayList<DictRadix<T>.DictNode>();
+		nodes.add(radix.getRootNode());
+		int keysLength = 0, valuesCount = 0;
+		for (int i = 0; i < nodes.size(); i++)
+		{
+			DictRadix<T>.DictNode node = nodes.get(i);
+			if (node.getKey() != null)
+			{
+				keysLength += node.getKey().length;
+			}
+			if (node.getValue() != null)
+			{
+				valuesCount++;
+			}
+			if (node.getChildren() != null)
+			{
+				for (DictRadix<T>.DictNode child : node.getChildren())
+				{
+					nodes.add(child);
+				}
+			}
+		}
+
+		int nodesCount = nodes.size();
+		m_keys = new char[keysLength];
+		m_keyStart = new int[nodesCount + 1];
+		m_childStart = new int[nodesCount + 1];
+		m_valueIndex = new int[nodesCount];
+		m_values = new Object[valuesCount];
+
+		int keyPos = 0, childPos = 1, valuePos = 0;
+		for (int i = 0; i < nodesCount; i++)
+		{
+			DictRadix<T>.DictNode node = nodes.get(i);
+			m_keyStart[i] = keyPos;
+			if (node.getKey() != null)
+			{
+				System.arraycopy(node.getKey(), 0, m_keys, keyPos, node.getKey().length);
+				keyPos += node.getKey().length;
+			}
+
+			m_childStart[i] = childPos;
+			if (node.getChildren() != null)
+			{
+				childPos += node.getChildren().length;
+			}
+
+			if (node.getValue() != null)
+			{
+				m_values[valuePos] = node.getValue();
+				m_valueIndex[i] = valuePos++;
+			}
+			else
+			{
+				m_valueIndex[i] = -1;
+			}
+		}
+		m_keyStart[nodesCount] = keyPos;
+		m_childStart[nodesCount] = childPos;
+
+		m_nCount = radix.getCount();
+
+		m_dispatchNodes = m_childStart[1];
+		m_dispatch = new int[m_dispatchNodes * HebrewCharIndex.SIZE];
+		Arrays.fill(m_dispatch, -1);
+		for (int node = 0; node < m_dispatchNodes; node++)
+		{
+			for (int child = m_childStart[node]; child < m_childStart[node + 1]; child++)
+			{
+				int idx = HebrewCharIndex.of(m_keys[m_keyStart[child]]);
+				if (idx >= 0)
+				{
+					m_dispatch[node * HebrewCharIndex.SIZE + idx] = child;
+				}
+			}
+		}
+	}
+
+	public int getCount()
+	{
+		return m_nCount;
+	}
+
+	public int getNodesCount()
+	{
+		return m_valueIndex.length;
+	}
+
+	@Override
+	protected int getKeyStart(int node)
+	{
+		return m_keyStart[node];
+	}
+
+	@Override
+	protected char getKeyChar(int pos)
+	{
+		return m_keys[pos];
+	}
+
+	@Override
+	protected int getChildStart(int node)
+	{
+		return m_childStart[node];
+	}
+
+	@Override
+	protected int getValueIndex(int node)
+	{
+		return m_valueIndex[node];
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	protected T getValueAt(int valueIndex)
+	{
+		return (T)m_values[valueIndex];
+	}
+
+	@Override
+	protected int getDispatchNodes()
+	{
+		return m_dispatchNodes;
+	}
+
+	@Override
+	protected int getDispatch(int node, int slot)
+	{
+		return m_dispatch[node * HebrewCharIndex.SIZE + slot];
+	}
+}
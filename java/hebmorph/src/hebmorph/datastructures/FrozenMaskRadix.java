@@ -0,0 +1,145 @@
+/**************************************************************************
+ *   Copyright (C) 2010 by                                                 *
+ *      Itamar Syn-Hershko <itamar at code972 dot com>                     *
+ *		Ofer Fort <oferiko at gmail dot com>							   *
+ *                                                                         *
+ *   Distributed under the GNU General Public License, Version 2.0.        *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation (v2).                                    *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   51 Franklin Steet, Fifth Floor, Boston, MA  02111-1307, USA.          *
+ **************************************************************************/
+package hebmorph.datastructures;
+
+/**
+ A read-only radix for dictionaries whose values are one of a few shared objects, such as a word list where
+ each word only carries a small mask. Instead of a value index per node and a table of values, each node
+ holds a single byte which selects its value from a table of up to 255 shared values, so no object is kept
+ per word. The layout is otherwise that of FrozenDictRadix.
+
+*/
+public class FrozenMaskRadix<T> extends PackedDictRadix<T>
+{
+	/**
+	 The byte of nodes without a value; masks may take any other value
+	*/
+	public static final int NO_VALUE = 0xFF;
+
+	private final char[] m_keys;
+	private final int[] m_keyStart;
+	private final int[] m_childStart;
+	// Parallel to the nodes: the mask of the word ending at node n, or NO_VALUE
+	private final byte[] m_masks;
+	private final T[] m_valuesByMask;
+	private final int[] m_dispatch;
+	private final int m_dispatchNodes;
+	private final int m_nCount;
+
+	/**
+	 @param radix A radix whose values are masks between 0 and NO_VALUE - 1
+	 @param valuesByMask The value returned for each mask; lookups of keys whose mask has no entry in it return null
+	*/
+	public FrozenMaskRadix(DictRadix<Byte> radix, T[] valuesByMask)
+	{
+		FrozenDictRadix<Byte> frozen = new FrozenDictRadix<Byte>(radix);
+		m_keys = frozen.m_keys;
+		m_keyStart = frozen.m_keyStart;
+		m_childStart = frozen.m_childStart;
+		m_dispatch = frozen.m_dispatch;
+		m_dispatchNodes = frozen.m_dispatchNodes;
+		m_nCount = frozen.m_nCount;
+		m_valuesByMask = valuesByMask;
+
+		m_masks = new byte[frozen.getNodesCount()];
+		for (int node = 0; node < m_masks.length; node++)
+		{
+			int idx = frozen.m_valueIndex[node];
+			int mask = (idx < 0) ? NO_VALUE : ((Byte)frozen.m_values[idx] & 0xFF);
+			if ((idx >= 0) && (mask == NO_VALUE))
+			{
+				throw new IllegalArgumentException("Mask " + NO_VALUE + " is reserved for nodes without a value");
+			}
+			m_masks[node] = (byte)mask;
+		}
+	}
+
+	/**
+	 Looks up key[offset .. offset + length) without creating any object
+
+	 @return The mask of the key, or -1 if it's not in the dictionary
+	*/
+	public int getMask(char[] key, int offset, int length)
+	{
+		int node = lookupImpl(key, offset, length);
+		return (node < 0) ? -1 : getValueIndex(node);
+	}
+
+	public int getMask(CharSequence key)
+	{
+		int node = lookupImpl(key);
+		return (node < 0) ? -1 : getValueIndex(node);
+	}
+
+	public int getCount()
+	{
+		return m_nCount;
+	}
+
+	public int getNodesCount()
+	{
+		return m_masks.length;
+	}
+
+	@Override
+	protected int getKeyStart(int node)
+	{
+		return m_keyStart[node];
+	}
+
+	@Override
+	protected char getKeyChar(int pos)
+	{
+		return m_keys[pos];
+	}
+
+	@Override
+	protected int getChildStart(int node)
+	{
+		return m_childStart[node];
+	}
+
+	@Override
+	protected int getValueIndex(int node)
+	{
+		int mask = m_masks[node] & 0xFF;
+		return (mask == NO_VALUE) ? -1 : mask;
+	}
+
+	@Override
+	protected T getValueAt(int valueIndex)
+	{
+		return (valueIndex < m_valuesByMask.length) ? m_valuesByMask[valueIndex] : null;
+	}
+
+	@Override
+	protected int getDispatchNodes()
+	{
+		return m_dispatchNodes;
+	}
+
+	@Override
+	protected int getDispatch(int node, int slot)
+	{
+		return m_dispatch[node * HebrewCharIndex.SIZE + slot];
+	}
+}
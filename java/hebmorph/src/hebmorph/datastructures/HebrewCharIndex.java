@@ -0,0 +1,59 @@
+/**************************************************************************
+ *   Copyright (C) 2010 by                                                 *
+ *      Itamar Syn-Hershko <itamar at code972 dot com>                     *
+ *		Ofer Fort <oferiko at gmail dot com>							   *
+ *                                                                         *
+ *   Distributed under the GNU General Public License, Version 2.0.        *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation (v2).                                    *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   51 Franklin Steet, Fifth Floor, Boston, MA  02111-1307, USA.          *
+ **************************************************************************/
+package hebmorph.datastructures;
+
+/**
+ Maps the characters dictionary keys are made of - the 27 Hebrew letters (final forms included), geresh
+ and gershayim (both the Hebrew punctuation marks and the ASCII quotes hspell uses for them) - to a dense
+ index, so a node's children can be dispatched on through a direct-indexed table
+*/
+final class HebrewCharIndex
+{
+	public static final int SIZE = 31;
+
+	private HebrewCharIndex()
+	{
+	}
+
+	/**
+	 @return The index of c in a dispatch table, or -1 if c isn't a Hebrew letter, geresh or gershayim
+	*/
+	public static int of(char c)
+	{
+		if ((c >= 'א') && (c <= 'ת'))
+		{
+			return c - 'א';
+		}
+		switch (c)
+		{
+			case '\'':
+				return 27;
+			case '"':
+				return 28;
+			case '׳':
+				return 29;
+			case '״':
+				return 30;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,296 @@
+/**************************************************************************
+ *   Copyright (C) 2010 by                                                 *
+ *      Itamar Syn-Hershko <itamar at code972 dot com>                     *
+ *		Ofer Fort <oferiko at gmail dot com>							   *
+ *                                                                         *
+ *   Distributed under the GNU General Public License, Version 2.0.        *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation (v2).                                    *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   51 Franklin Steet, Fifth Floor, Boston, MA  02111-1307, USA.          *
+ **************************************************************************/
+package hebmorph.datastructures;
+
+import hebmorph.LookupTolerators;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ A read-only stack of dictionaries, looked up from the top layer down. The first layer having a word
+ decides its value, hiding the word in the layers below it; tolerant lookups and iteration return each
+ word once, from the layer which decides it. The layers themselves are left untouched, so a large
+ shared dictionary can sit at the bottom of several stacks of small ones.
+
+*/
+public class LayeredDictLookup<T> implements DictLookup<T>
+{
+	// From the top layer to the bottom one
+	private final DictLookup<T>[] m_layers;
+
+	/**
+	 @param layers From the top layer to the bottom one
+	*/
+	@SuppressWarnings("unchecked")
+	public LayeredDictLookup(List<? extends DictLookup<T>> layers)
+	{
+		m_layers = layers.toArray((DictLookup<T>[])Array.newInstance(DictLookup.class, layers.size()));
+	}
+
+	public int getLayersCount()
+	{
+		return m_layers.length;
+	}
+
+	public DictLookup<T> getLayer(int index)
+	{
+		return m_layers[index];
+	}
+
+	public T lookup(String key)
+	{
+		for (DictLookup<T> layer : m_layers)
+		{
+			T ret = layer.lookup(key);
+			if (ret != null)
+			{
+				return ret;
+			}
+		}
+		return null;
+	}
+
+	public T lookup(char[] key)
+	{
+		for (DictLookup<T> layer : m_layers)
+		{
+			T ret = layer.lookup(key);
+			if (ret != null)
+			{
+				return ret;
+			}
+		}
+		return null;
+	}
+
+	public T lookup(char[] key, int offset, int length)
+	{
+		for (DictLookup<T> layer : m_layers)
+		{
+			T ret = layer.lookup(key, offset, length);
+			if (ret != null)
+			{
+				return ret;
+			}
+		}
+		return null;
+	}
+
+	public T lookup(CharSequence key)
+	{
+		for (DictLookup<T> layer : m_layers)
+		{
+			T ret = layer.lookup(key);
+			if (ret != null)
+			{
+				return ret;
+			}
+		}
+		return null;
+	}
+
+	public List<LookupResult<T>> lookupTolerant(String key, LookupTolerators.Tolerator[] tolerators)
+	{
+		List<LookupResult<T>> ret = null;
+		for (int i = 0; i < m_layers.length; i++)
+		{
+			List<LookupResult<T>> results = m_layers[i].lookupTolerant(key, tolerators);
+			if (results == null)
+			{
+				continue;
+			}
+			for (LookupResult<T> result : results)
+			{
+				if (!isHidden(result.getWord(), i))
+				{
+					if (ret == null)
+					{
+						ret = new ArrayList<LookupResult<T>>();
+					}
+					ret.add(result);
+				}
+			}
+		}
+		return ret;
+	}
+
+	public List<LookupResult<T>> lookupTolerant(String key, LookupTolerators.ToleranceFunction[] tolFuncs)
+	{
+		return lookupTolerant(key, LookupTolerators.adapt(tolFuncs));
+	}
+
+	public TopResults<T> lookupTolerant(String key, LookupTolerators.Tolerator[] tolerators, float minScore, int maxResults)
+	{
+		TopResults<T> ret = new TopResults<T>(minScore, maxResults);
+		for (int i = 0; i < m_layers.length; i++)
+		{
+			// The best results of a layer may be hidden by upper ones; then look its next best up as well
+			List<LookupResult<T>> visible = new ArrayList<LookupResult<T>>();
+			for (int limit = maxResults; ; limit += maxResults - visible.size())
+			{
+				TopResults<T> results = m_layers[i].lookupTolerant(key, tolerators, minScore, limit);
+				ret.count(results);
+				visible.clear();
+				for (LookupResult<T> result : results.getResults())
+				{
+					if (!isHidden(result.getWord(), i))
+					{
+						visible.add(result);
+					}
+				}
+				if ((results.size() < limit) || (visible.size() >= maxResults))
+				{
+					break;
+				}
+			}
+			for (LookupResult<T> result : visible)
+			{
+				ret.offer(result);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 @return Whether a layer above layer has word
+	*/
+	private boolean isHidden(String word, int layer)
+	{
+		for (int i = 0; i < layer; i++)
+		{
+			if (m_layers[i].lookup(word) != null)
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 Counts each word once, in the top layer having it. Only the words of the layers above the bottom one
+	 are enumerated, as the bottom one is usually the large one.
+	*/
+	public int getCount()
+	{
+		if (m_layers.length == 0)
+		{
+			return 0;
+		}
+
+		DictLookup<T> bottom = m_layers[m_layers.length - 1];
+		int ret = bottom.getCount();
+		Set<String> words = new HashSet<String>();
+		for (int i = 0; i < m_layers.length - 1; i++)
+		{
+			KeyEnumerator<T> en = m_layers[i].iterator();
+			while (en.hasNext())
+			{
+				en.next();
+				String word = en.getCurrentKey();
+				if (words.add(word) && (bottom.lookup(word) == null))
+				{
+					ret++;
+				}
+			}
+		}
+		return ret;
+	}
+
+	public KeyEnumerator<T> iterator()
+	{
+		return new LayersEnumerator();
+	}
+
+	/**
+	 Enumerates the layers one after the other, skipping the words hidden by the layers above
+	*/
+	private class LayersEnumerator implements KeyEnumerator<T>
+	{
+		private int m_layer = -1;
+		private KeyEnumerator<T> m_current;
+		private T m_next;
+		private String m_nextKey;
+		private String m_currentKey;
+
+		LayersEnumerator()
+		{
+			advance();
+		}
+
+		private void advance()
+		{
+			m_next = null;
+			m_nextKey = null;
+			while (true)
+			{
+				while ((m_current == null) || !m_current.hasNext())
+				{
+					if (++m_layer >= m_layers.length)
+					{
+						return;
+					}
+					m_current = m_layers[m_layer].iterator();
+				}
+				T value = m_current.next();
+				String key = m_current.getCurrentKey();
+				if (!isHidden(key, m_layer))
+				{
+					m_next = value;
+					m_nextKey = key;
+					return;
+				}
+			}
+		}
+
+		public boolean hasNext()
+		{
+			return m_nextKey != null;
+		}
+
+		public T next()
+		{
+			if (m_nextKey == null)
+			{
+				throw new NoSuchElementException();
+			}
+			T ret = m_next;
+			m_currentKey = m_nextKey;
+			advance();
+			return ret;
+		}
+
+		public String getCurrentKey()
+		{
+			return m_currentKey;
+		}
+
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+}
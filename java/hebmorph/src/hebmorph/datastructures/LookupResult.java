@@ -0,0 +1,61 @@
+/**************************************************************************
+ *   Copyright (C) 2010 by                                                 *
+ *      Itamar Syn-Hershko <itamar at code972 dot com>                     *
+ *		Ofer Fort <oferiko at gmail dot com>							   *
+ *                                                                         *
+ *   Distributed under the GNU General Public License, Version 2.0.        *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation (v2).                                    *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   51 Franklin Steet, Fifth Floor, Boston, MA  02111-1307, USA.          *
+ **************************************************************************/
+package hebmorph.datastructures;
+
+public class LookupResult<T>
+{
+	public LookupResult(String _word, T _data, float _score)
+	{
+		setWord(_word);
+		setData(_data);
+		setScore(_score);
+	}
+
+	private String word;
+	private T data;
+	private float score;
+
+	public void setScore(float score)
+	{
+		this.score = score;
+	}
+	public float getScore()
+	{
+		return score;
+	}
+	public void setData(T data)
+	{
+		this.data = data;
+	}
+	public T getData()
+	{
+		return data;
+	}
+	public void setWord(String word)
+	{
+		this.word = word;
+	}
+	public String getWord()
+	{
+		return word;
+	}
+}
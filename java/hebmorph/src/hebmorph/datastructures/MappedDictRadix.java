@@ -0,0 +1,243 @@
+/**************************************************************************
+ *   Copyright (C) 2010 by                                                 *
+ *      Itamar Syn-Hershko <itamar at code972 dot com>                     *
+ *		Ofer Fort <oferiko at gmail dot com>							   *
+ *                                                                         *
+ *   Distributed under the GNU General Public License, Version 2.0.        *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation (v2).                                    *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   51 Franklin Steet, Fifth Floor, Boston, MA  02111-1307, USA.          *
+ **************************************************************************/
+package hebmorph.datastructures;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ A FrozenDictRadix written to a binary image file, and served straight off a read-only memory mapping of
+ that file. Nothing but a few buffer objects lives on the heap, and several processes mapping the same
+ image share its pages through the OS page cache. Values are stored in the image by a ValueCodec.
+
+*/
+public class MappedDictRadix<T> extends PackedDictRadix<T>
+{
+	/**
+	 Stores the radix values in an image, and reads them back off its mapping
+	*/
+	public interface ValueCodec<T>
+	{
+		/**
+		 Writes all values of a radix; the image keeps whatever is written here as an opaque section
+		*/
+		public void writeValues(Object[] values, DataOutputStream out) throws IOException;
+
+		/**
+		 @param section The mapped section written by writeValues
+		*/
+		public ValueReader<T> openValues(ByteBuffer section) throws IOException;
+	}
+
+	public interface ValueReader<T>
+	{
+		public T read(int valueIndex);
+	}
+
+	private static final int MAGIC = 0x484D4452; // "HMDR"
+	private static final int VERSION = 1;
+
+	private final IntBuffer m_keyStart;
+	private final CharBuffer m_keys;
+	private final IntBuffer m_childStart;
+	private final IntBuffer m_valueIndex;
+	private final IntBuffer m_dispatch;
+	private final ValueReader<T> m_values;
+	private final int m_nodesCount, m_dispatchNodes, m_nCount;
+
+	private MappedDictRadix(ByteBuffer image, ValueCodec<T> codec) throws IOException
+	{
+		if ((image.limit() < 24) || (image.getInt(0) != MAGIC))
+		{
+			throw new IOException("Not a dictionary image");
+		}
+		if (image.getInt(4) != VERSION)
+		{
+			throw new IOException("Unsupported dictionary image version " + image.getInt(4) + ", expected " + VERSION);
+		}
+
+		m_nodesCount = image.getInt(8);
+		int keysLength = image.getInt(12);
+		m_dispatchNodes = image.getInt(16);
+		m_nCount = image.getInt(20);
+
+		long pos = 24;
+		m_keyStart = slice(image, pos, (m_nodesCount + 1L) * 4).asIntBuffer();
+		pos += (m_nodesCount + 1L) * 4;
+		m_childStart = slice(image, pos, (m_nodesCount + 1L) * 4).asIntBuffer();
+		pos += (m_nodesCount + 1L) * 4;
+		m_valueIndex = slice(image, pos, m_nodesCount * 4L).asIntBuffer();
+		pos += m_nodesCount * 4L;
+		m_dispatch = slice(image, pos, m_dispatchNodes * (long)HebrewCharIndex.SIZE * 4).asIntBuffer();
+		pos += m_dispatchNodes * (long)HebrewCharIndex.SIZE * 4;
+		m_keys = slice(image, pos, keysLength * 2L).asCharBuffer();
+		pos += align(keysLength * 2);
+
+		ByteBuffer valuesLength = slice(image, pos, 4);
+		m_values = codec.openValues(slice(image, pos + 4, valuesLength.getInt(0)));
+	}
+
+	/**
+	 @throws IOException If the section isn't all within the image, as when the image is truncated
+	*/
+	private static ByteBuffer slice(ByteBuffer image, long offset, long length) throws IOException
+	{
+		if ((length < 0) || (offset + length > image.limit()))
+		{
+			throw new IOException("Corrupt dictionary image: a section of " + length + " bytes at " + offset
+					+ " runs past its end, at " + image.limit());
+		}
+		ByteBuffer dup = image.duplicate();
+		dup.position((int)offset);
+		dup.limit((int)(offset + length));
+		return dup.slice();
+	}
+
+	private static int align(int bytes)
+	{
+		return (bytes + 3) & ~3;
+	}
+
+	/**
+	 Maps an image file written by write()
+	*/
+	public static <T> MappedDictRadix<T> map(File file, ValueCodec<T> codec) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			FileChannel channel = raf.getChannel();
+			// The mapping stays valid after the channel is closed
+			return new MappedDictRadix<T>(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), codec);
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	public static <T> void write(FrozenDictRadix<T> radix, ValueCodec<T> codec, File file) throws IOException
+	{
+		ByteArrayOutputStream values = new ByteArrayOutputStream();
+		DataOutputStream valuesOut = new DataOutputStream(values);
+		codec.writeValues(radix.m_values, valuesOut);
+		valuesOut.flush();
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(radix.getNodesCount());
+			out.writeInt(radix.m_keys.length);
+			out.writeInt(radix.m_dispatchNodes);
+			out.writeInt(radix.m_nCount);
+			writeInts(out, radix.m_keyStart);
+			writeInts(out, radix.m_childStart);
+			writeInts(out, radix.m_valueIndex);
+			writeInts(out, radix.m_dispatch);
+			for (char c : radix.m_keys)
+			{
+				out.writeChar(c);
+			}
+			for (int i = radix.m_keys.length * 2; i < align(radix.m_keys.length * 2); i++)
+			{
+				out.writeByte(0);
+			}
+			out.writeInt(values.size());
+			values.writeTo(out);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	private static void writeInts(DataOutputStream out, int[] ints) throws IOException
+	{
+		for (int i : ints)
+		{
+			out.writeInt(i);
+		}
+	}
+
+	public int getCount()
+	{
+		return m_nCount;
+	}
+
+	public int getNodesCount()
+	{
+		return m_nodesCount;
+	}
+
+	@Override
+	protected int getKeyStart(int node)
+	{
+		return m_keyStart.get(node);
+	}
+
+	@Override
+	protected char getKeyChar(int pos)
+	{
+		return m_keys.get(pos);
+	}
+
+	@Override
+	protected int getChildStart(int node)
+	{
+		return m_childStart.get(node);
+	}
+
+	@Override
+	protected int getValueIndex(int node)
+	{
+		return m_valueIndex.get(node);
+	}
+
+	@Override
+	protected T getValueAt(int valueIndex)
+	{
+		return m_values.read(valueIndex);
+	}
+
+	@Override
+	protected int getDispatchNodes()
+	{
+		return m_dispatchNodes;
+	}
+
+	@Override
+	protected int getDispatch(int node, int slot)
+	{
+		return m_dispatch.get(node * HebrewCharIndex.SIZE + slot);
+	}
+}
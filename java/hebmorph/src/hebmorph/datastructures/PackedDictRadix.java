@@ -0,0 +1,366 @@
+/**************************************************************************
+ *   Copyright (C) 2010 by                                                 *
+ *      Itamar Syn-Hershko <itamar at code972 dot com>                     *
+ *		Ofer Fort <oferiko at gmail dot com>							   *
+ *                                                                         *
+ *   Distributed under the GNU General Public License, Version 2.0.        *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation (v2).                                    *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   51 Franklin Steet, Fifth Floor, Boston, MA  02111-1307, USA.          *
+ **************************************************************************/
+package hebmorph.datastructures;
+
+import hebmorph.LookupTolerators;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ Lookup logic of a read-only radix packed into flat tables instead of a DictNode object (plus its key
+ and children arrays) per node. Nodes are numbered breadth-first with the root as node 0, so the children
+ of each node occupy a contiguous range of node indices. Subclasses decide where the tables live.
+
+*/
+public abstract class PackedDictRadix<T> implements DictLookup<T>
+{
+	/**
+	 @return Where the key of node starts; the key of node n spans getKeyStart(n) .. getKeyStart(n + 1) - 1
+	*/
+	protected abstract int getKeyStart(int node);
+
+	protected abstract char getKeyChar(int pos);
+
+	/**
+	 @return The first child of node; the children of node n are getChildStart(n) .. getChildStart(n + 1) - 1
+	*/
+	protected abstract int getChildStart(int node);
+
+	/**
+	 @return The index of the value of node, or -1 if it has none
+	*/
+	protected abstract int getValueIndex(int node);
+
+	protected abstract T getValueAt(int valueIndex);
+
+	/**
+	 @return How many nodes, starting at the root, have a direct-indexed children table
+	*/
+	protected abstract int getDispatchNodes();
+
+	/**
+	 @return The child of node whose key starts with the char at slot HebrewCharIndex.of(c) of its direct-indexed
+	 table, or -1 if there is no such child
+	*/
+	protected abstract int getDispatch(int node, int slot);
+
+	public abstract int getNodesCount();
+
+	protected T getValue(int node)
+	{
+		int idx = getValueIndex(node);
+		return (idx < 0) ? null : getValueAt(idx);
+	}
+
+	public T lookup(String key)
+	{
+		return lookup((CharSequence)key);
+	}
+
+	public T lookup(char[] key)
+	{
+		int keyLength = 0;
+		while ((keyLength < key.length) && (key[keyLength] != '\0'))
+		{
+			keyLength++;
+		}
+
+		return lookup(key, 0, keyLength);
+	}
+
+	public T lookup(char[] key, int offset, int length)
+	{
+		int node = lookupImpl(key, offset, length);
+		return (node < 0) ? null : getValue(node);
+	}
+
+	public T lookup(CharSequence key)
+	{
+		int node = lookupImpl(key);
+		return (node < 0) ? null : getValue(node);
+	}
+
+	/**
+	 Exact lookup; returns the index of the node holding the key, or -1 if there is no such node
+	*/
+	protected int lookupImpl(char[] key, int offset, int length)
+	{
+		if (length == 0)
+		{
+			return -1;
+		}
+
+		int keyPos = offset, keyLength = offset + length, cur = 0;
+		while (true)
+		{
+			// Children keys never share a first character, so only one child can possibly match
+			int child = getChild(cur, key[keyPos]);
+			if (child < 0)
+			{
+				return -1;
+			}
+
+			int pos = getKeyStart(child), keyEnd = getKeyStart(child + 1);
+			while ((pos < keyEnd) && (keyPos < keyLength) && (getKeyChar(pos) == key[keyPos]))
+			{
+				pos++;
+				keyPos++;
+			}
+
+			if (pos < keyEnd) // Incomplete match to child's key (worths nothing)
+			{
+				return -1;
+			}
+			if (keyPos == keyLength)
+			{
+				return child;
+			}
+			cur = child;
+		}
+	}
+
+	protected int lookupImpl(CharSequence key)
+	{
+		int keyLength = key.length();
+		if (keyLength == 0)
+		{
+			return -1;
+		}
+
+		int keyPos = 0, cur = 0;
+		while (true)
+		{
+			int child = getChild(cur, key.charAt(keyPos));
+			if (child < 0)
+			{
+				return -1;
+			}
+
+			int pos = getKeyStart(child), keyEnd = getKeyStart(child + 1);
+			while ((pos < keyEnd) && (keyPos < keyLength) && (getKeyChar(pos) == key.charAt(keyPos)))
+			{
+				pos++;
+				keyPos++;
+			}
+
+			if (pos < keyEnd)
+			{
+				return -1;
+			}
+			if (keyPos == keyLength)
+			{
+				return child;
+			}
+			cur = child;
+		}
+	}
+
+	/**
+	 @return The child of node whose key starts with c, or -1 if there is none
+	*/
+	private int getChild(int node, char c)
+	{
+		if (node < getDispatchNodes())
+		{
+			int idx = HebrewCharIndex.of(c);
+			if (idx >= 0)
+			{
+				return getDispatch(node, idx);
+			}
+		}
+
+		// Children are sorted by the first char of their keys
+		int low = getChildStart(node), high = getChildStart(node + 1) - 1;
+		while (low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			char midChar = getKeyChar(getKeyStart(mid));
+			if (midChar < c)
+			{
+				low = mid + 1;
+			}
+			else if (midChar > c)
+			{
+				high = mid - 1;
+			}
+			else
+			{
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	private String getKeyString(int node, int from, int length)
+	{
+		char[] chars = new char[length];
+		int start = getKeyStart(node) + from;
+		for (int i = 0; i < length; i++)
+		{
+			chars[i] = getKeyChar(start + i);
+		}
+		return new String(chars);
+	}
+
+	public List<LookupResult<T>> lookupTolerant(String strKey, LookupTolerators.Tolerator[] tolerators)
+	{
+		return TolerantCrawler.lookupTolerant(new TolerantNodes(), null, 0, strKey, tolerators);
+	}
+
+	public List<LookupResult<T>> lookupTolerant(String strKey, LookupTolerators.ToleranceFunction[] tolFuncs)
+	{
+		return lookupTolerant(strKey, LookupTolerators.adapt(tolFuncs));
+	}
+
+	public TopResults<T> lookupTolerant(String strKey, LookupTolerators.Tolerator[] tolerators, float minScore, int maxResults)
+	{
+		return TolerantCrawler.lookupTolerant(new TolerantNodes(), null, 0, strKey, tolerators, minScore, maxResults);
+	}
+
+	/**
+	 The packed nodes as TolerantCrawler sees them: a position is the node in the high int and the position
+	 in its key in the low one, the end of a node is the node, and a child is the child node
+	*/
+	private class TolerantNodes implements TolerantCrawler.Nodes<T>
+	{
+		public char getChar(Object node, long at)
+		{
+			return getKeyChar(getKeyStart((int)(at >>> 32)) + (int)at);
+		}
+
+		public long next(Object node, long at)
+		{
+			int n = (int)(at >>> 32);
+			return (getKeyStart(n) + (int)at + 1 < getKeyStart(n + 1)) ? at + 1 : -1;
+		}
+
+		public long getEnd(Object node, long at)
+		{
+			return at >>> 32;
+		}
+
+		public T getValue(Object node, long end)
+		{
+			return PackedDictRadix.this.getValue((int)end);
+		}
+
+		public long getFirstChild(Object node, long end)
+		{
+			int n = (int)end;
+			int first = PackedDictRadix.this.getChildStart(n);
+			return (first < PackedDictRadix.this.getChildStart(n + 1)) ? first : -1;
+		}
+
+		public long getNextChild(Object node, long end, long child)
+		{
+			return (child + 1 < PackedDictRadix.this.getChildStart((int)end + 1)) ? child + 1 : -1;
+		}
+
+		public Object getChildNode(Object node, long child)
+		{
+			return null;
+		}
+
+		public long getChildStart(Object node, long end, long child)
+		{
+			return child << 32;
+		}
+	}
+
+	/**
+	 Enumerates values in the same (depth-first) order as DictRadix's RadixEnumerator
+	*/
+	public class PackedEnumerator implements DictLookup.KeyEnumerator<T>
+	{
+		// The path from the root to the current node, and the next child to visit at each level
+		private final LinkedList<int[]> path = new LinkedList<int[]>();
+		private int current = -1;
+
+		public PackedEnumerator()
+		{
+			path.addLast(new int[] { 0, getChildStart(0) });
+		}
+
+		public boolean hasNext()
+		{
+			if (current < 0)
+			{
+				current = advance();
+			}
+			return current > 0;
+		}
+
+		private int advance()
+		{
+			while (!path.isEmpty())
+			{
+				int[] top = path.getLast();
+				if (top[1] == getChildStart(top[0] + 1))
+				{
+					path.removeLast();
+					continue;
+				}
+
+				int child = top[1]++;
+				path.addLast(new int[] { child, getChildStart(child) });
+				if (getValueIndex(child) >= 0)
+				{
+					return child;
+				}
+			}
+			return 0;
+		}
+
+		public T next()
+		{
+			if (!hasNext())
+			{
+				throw new NoSuchElementException();
+			}
+			T ret = getValue(current);
+			current = -1;
+			return ret;
+		}
+
+		public String getCurrentKey()
+		{
+			StringBuilder sb = new StringBuilder();
+			for (int[] level : path)
+			{
+				sb.append(getKeyString(level[0], 0, getKeyStart(level[0] + 1) - getKeyStart(level[0])));
+			}
+			return sb.toString();
+		}
+
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	public DictLookup.KeyEnumerator<T> iterator()
+	{
+		return new PackedEnumerator();
+	}
+}
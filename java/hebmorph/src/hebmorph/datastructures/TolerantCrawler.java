@@ -0,0 +1,401 @@
+/**************************************************************************
+ *   Copyright (C) 2010 by                                                 *
+ *      Itamar Syn-Hershko <itamar at code972 dot com>                     *
+ *		Ofer Fort <oferiko at gmail dot com>							   *
+ *                                                                         *
+ *   Distributed under the GNU General Public License, Version 2.0.        *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation (v2).                                    *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   51 Franklin Steet, Fifth Floor, Boston, MA  02111-1307, USA.          *
+ **************************************************************************/
+package hebmorph.datastructures;
+
+import hebmorph.LookupTolerators;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ Crawls a dictionary for the words a key matches with tolerators, depth first. The candidates to try are
+ kept on a stack rather than in calls, so long keys can't overflow the call stack, and a state one
+ candidate got to is tried again by another only with a better score (see TolerantStates) - with no
+ better a score it would only find the same words again. The words are found in the order candidates
+ calling each other would find them, each where it's first found with its best score.
+
+ The dictionaries are all crawled as a radix tree, through Nodes, so they all find the same words in the
+ same order.
+*/
+final class TolerantCrawler<T>
+{
+	/**
+	 A dictionary as a radix tree. A char of a node key is a position, (node, at), and the end of a node key
+	 is (node, end), where the value of the node and its children are; node is null for the dictionaries
+	 whose positions and ends are told apart by at and end alone. Children are ordered by their first char,
+	 and a child is where the first char of its key is.
+	*/
+	interface Nodes<T>
+	{
+		char getChar(Object node, long at);
+
+		/**
+		 @return The position of the next char of the node key, or -1 if the char at ends it
+		*/
+		long next(Object node, long at);
+
+		/**
+		 @return The end of the node key the char at ends
+		*/
+		long getEnd(Object node, long at);
+
+		/**
+		 @return The value of the node, or null if it isn't a word
+		*/
+		T getValue(Object node, long end);
+
+		/**
+		 @return The first child of the node, or -1 if it has none
+		*/
+		long getFirstChild(Object node, long end);
+
+		/**
+		 @return The child after child, or -1 if child is the last
+		*/
+		long getNextChild(Object node, long end, long child);
+
+		Object getChildNode(Object node, long child);
+
+		/**
+		 @return The position of the first char of child's key
+		*/
+		long getChildStart(Object node, long end, long child);
+	}
+
+	/**
+	 @param root The root node and its end
+	 @return null if nothing matched
+	*/
+	static <T> List<LookupResult<T>> lookupTolerant(Nodes<T> nodes, Object root, long rootEnd, String key,
+			LookupTolerators.Tolerator[] tolerators)
+	{
+		List<LookupResult<T>> resultSet = new ArrayList<LookupResult<T>>();
+		new TolerantCrawler<T>(nodes, key.toCharArray(), tolerators, resultSet, null).crawl(root, rootEnd);
+		if (resultSet.isEmpty())
+		{
+			return null;
+		}
+		return resultSet;
+	}
+
+	static <T> TopResults<T> lookupTolerant(Nodes<T> nodes, Object root, long rootEnd, String key,
+			LookupTolerators.Tolerator[] tolerators, float minScore, int maxResults)
+	{
+		TopResults<T> top = new TopResults<T>(minScore, maxResults);
+		new TolerantCrawler<T>(nodes, key.toCharArray(), tolerators, null, top).crawl(root, rootEnd);
+		return top;
+	}
+
+	private final Nodes<T> nodes;
+	private final char[] key;
+	private final LookupTolerators.Tolerator[] tolerators;
+	// Reused for all tolerator calls, instead of allocating Reference objects for each
+	private final LookupTolerators.Toleration toleration = new LookupTolerators.Toleration();
+	private final List<LookupResult<T>> resultSet;
+	// Bounds the lookup and gets its results, instead of resultSet; null for an unbounded lookup
+	private final TopResults<T> top;
+	private final TolerantStates states = new TolerantStates();
+	// The candidate words, built as a stack: a candidate owns word[0 .. wordLength - 1], and those it
+	// pushes only write past that
+	private char[] word;
+
+	// The candidates to try, the next on top: each is a position with the key position, word length and
+	// score. Those with a child stand for the children of the node ending at stackAt from that one on, and
+	// a result found takes the place of the position, to add once the candidates under it were tried.
+	private Object[] stackNodes = new Object[16];
+	private long[] stackAt = new long[16], stackChild = new long[16];
+	private int[] stackKeyPos = new int[16], stackWordLength = new int[16];
+	private float[] stackScores = new float[16];
+	private Object[] stackResults = new Object[16];
+	private int stackSize = 0;
+
+	private TolerantCrawler(Nodes<T> nodes, char[] key, LookupTolerators.Tolerator[] tolerators,
+			List<LookupResult<T>> resultSet, TopResults<T> top)
+	{
+		this.nodes = nodes;
+		this.key = key;
+		this.tolerators = tolerators;
+		this.resultSet = resultSet;
+		this.top = top;
+		this.word = new char[key.length * 2 + 1];
+	}
+
+	@SuppressWarnings("unchecked")
+	private void crawl(Object root, long rootEnd)
+	{
+		pushChildren(root, rootEnd, 0, 0, 1.0f);
+		while (stackSize > 0)
+		{
+			int top = stackSize - 1;
+			Object node = stackNodes[top];
+			long child = stackChild[top];
+			if (child >= 0)
+			{
+				// The next child, leaving the rest where they are
+				long end = stackAt[top];
+				long next = nodes.getNextChild(node, end, child);
+				if (next < 0)
+				{
+					stackNodes[--stackSize] = null;
+				}
+				else
+				{
+					stackChild[top] = next;
+				}
+				doKeyMatching(nodes.getChildNode(node, child), nodes.getChildStart(node, end, child), stackKeyPos[top],
+						stackWordLength[top], stackScores[top]);
+				continue;
+			}
+
+			stackNodes[--stackSize] = null;
+			if (stackResults[top] != null)
+			{
+				LookupResult<T> result = (LookupResult<T>)stackResults[top];
+				stackResults[top] = null;
+				addResult(result);
+			}
+			else
+			{
+				doKeyMatching(node, stackAt[top], stackKeyPos[top], stackWordLength[top], stackScores[top]);
+			}
+		}
+	}
+
+	/**
+	 Matches key from keyPos against the node key from at, pushing the candidates this leads to so that
+	 they're tried in the order they're pushed in
+	*/
+	private void doKeyMatching(Object node, long at, int keyPos, int wordLength, float score)
+	{
+		if (top != null)
+		{
+			if (!top.admits(score))
+			{
+				top.skip();
+				return;
+			}
+			top.visit();
+		}
+
+		final int first = stackSize;
+		// The tolerators see the key position and candidate word as of each char of the node key, as they
+		// would walking a trie of single char nodes
+		int currentKeyPos = keyPos, matched = 0;
+		long end = -1;
+		while ((at >= 0) && (currentKeyPos < key.length))
+		{
+			final int tolerated = stackSize;
+			final char c = nodes.getChar(node, at);
+			// toleration
+			for (LookupTolerators.Tolerator tolerator : tolerators)
+			{
+				toleration.keyPos = currentKeyPos;
+				toleration.score = score;
+				int tret = tolerator.tolerate(key, toleration, word, wordLength + matched, c);
+				if (tret != LookupTolerators.NOT_TOLERATED)
+				{
+					pushTolerated(node, at, tret, toleration.keyPos, wordLength + matched, toleration.score);
+				}
+			}
+
+			// standard key matching
+			boolean matches = (c == key[currentKeyPos]);
+
+			// Only states which lead anywhere are recorded; the others take no longer to try again
+			if (((stackSize > tolerated) || matches) && !states.improve(node, at, currentKeyPos, score))
+			{
+				pop(tolerated);
+				reverse(first);
+				return;
+			}
+			if (!matches)
+			{
+				break;
+			}
+
+			pushChar(wordLength + matched, c);
+			currentKeyPos++;
+			matched++;
+			long next = nodes.next(node, at);
+			if (next < 0)
+			{
+				end = nodes.getEnd(node, at);
+			}
+			at = next;
+		}
+
+		if (end >= 0)
+		{
+			if (currentKeyPos == key.length)
+			{
+				T value = nodes.getValue(node, end);
+				if (value != null)
+				{
+					push(null, 0, -1, 0, 0, score, new LookupResult<T>(new String(word, 0, wordLength + matched), value, score));
+				}
+			}
+			else
+			{
+				pushChildren(node, end, currentKeyPos, wordLength + matched, score);
+			}
+		}
+		reverse(first);
+	}
+
+	/**
+	 Pushes the candidate a tolerator leads to after consuming count chars of the node key from at; none if
+	 they go past the end of the node key
+	*/
+	private void pushTolerated(Object node, long at, int count, int keyPos, int wordLength, float score)
+	{
+		for (int i = 0; i < count; i++)
+		{
+			if (at < 0)
+			{
+				return;
+			}
+			pushChar(wordLength + i, nodes.getChar(node, at));
+			long next = nodes.next(node, at);
+			if ((next < 0) && (i == count - 1))
+			{
+				pushChildren(node, nodes.getEnd(node, at), keyPos, wordLength + count, score);
+				return;
+			}
+			at = next;
+		}
+		push(node, at, -1, keyPos, wordLength + count, score, null);
+	}
+
+	private void addResult(LookupResult<T> result)
+	{
+		if (top != null)
+		{
+			if (states.getRetries() > 0)
+			{
+				top.offerAgain(result);
+			}
+			else
+			{
+				top.offer(result);
+			}
+			return;
+		}
+
+		if (states.getRetries() > 0)
+		{
+			for (int i = resultSet.size() - 1; i >= 0; i--)
+			{
+				if (resultSet.get(i).getWord().equals(result.getWord()))
+				{
+					resultSet.remove(i);
+					break;
+				}
+			}
+		}
+		resultSet.add(result);
+	}
+
+	private void pushChildren(Object node, long end, int keyPos, int wordLength, float score)
+	{
+		long child = nodes.getFirstChild(node, end);
+		if (child >= 0)
+		{
+			push(node, end, child, keyPos, wordLength, score, null);
+		}
+	}
+
+	private void push(Object node, long at, long child, int keyPos, int wordLength, float score, LookupResult<T> result)
+	{
+		if (stackSize == stackNodes.length)
+		{
+			int length = stackSize * 2;
+			stackNodes = Arrays.copyOf(stackNodes, length);
+			stackAt = Arrays.copyOf(stackAt, length);
+			stackChild = Arrays.copyOf(stackChild, length);
+			stackKeyPos = Arrays.copyOf(stackKeyPos, length);
+			stackWordLength = Arrays.copyOf(stackWordLength, length);
+			stackScores = Arrays.copyOf(stackScores, length);
+			stackResults = Arrays.copyOf(stackResults, length);
+		}
+		stackNodes[stackSize] = node;
+		stackAt[stackSize] = at;
+		stackChild[stackSize] = child;
+		stackKeyPos[stackSize] = keyPos;
+		stackWordLength[stackSize] = wordLength;
+		stackScores[stackSize] = score;
+		stackResults[stackSize] = result;
+		stackSize++;
+	}
+
+	/**
+	 Takes the candidates on the stack from first up off it
+	*/
+	private void pop(int first)
+	{
+		while (stackSize > first)
+		{
+			stackNodes[--stackSize] = null;
+			stackResults[stackSize] = null;
+		}
+	}
+
+	/**
+	 Reverses the candidates on the stack from first up, so that the first of them pushed is tried first
+	*/
+	private void reverse(int first)
+	{
+		for (int i = first, j = stackSize - 1; i < j; i++, j--)
+		{
+			Object node = stackNodes[i];
+			stackNodes[i] = stackNodes[j];
+			stackNodes[j] = node;
+			long at = stackAt[i];
+			stackAt[i] = stackAt[j];
+			stackAt[j] = at;
+			long child = stackChild[i];
+			stackChild[i] = stackChild[j];
+			stackChild[j] = child;
+			int keyPos = stackKeyPos[i];
+			stackKeyPos[i] = stackKeyPos[j];
+			stackKeyPos[j] = keyPos;
+			int wordLength = stackWordLength[i];
+			stackWordLength[i] = stackWordLength[j];
+			stackWordLength[j] = wordLength;
+			float score = stackScores[i];
+			stackScores[i] = stackScores[j];
+			stackScores[j] = score;
+			Object result = stackResults[i];
+			stackResults[i] = stackResults[j];
+			stackResults[j] = result;
+		}
+	}
+
+	private void pushChar(int wordLength, char c)
+	{
+		if (wordLength == word.length)
+		{
+			word = Arrays.copyOf(word, word.length * 2);
+		}
+		word[wordLength] = c;
+	}
+}
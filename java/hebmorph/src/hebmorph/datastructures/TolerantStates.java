@@ -0,0 +1,124 @@
+/**************************************************************************
+ *   Copyright (C) 2010 by                                                 *
+ *      Itamar Syn-Hershko <itamar at code972 dot com>                     *
+ *		Ofer Fort <oferiko at gmail dot com>							   *
+ *                                                                         *
+ *   Distributed under the GNU General Public License, Version 2.0.        *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation (v2).                                    *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   51 Franklin Steet, Fifth Floor, Boston, MA  02111-1307, USA.          *
+ **************************************************************************/
+package hebmorph.datastructures;
+
+/**
+ The best score each state of a tolerant lookup was tried with. A state is a char of the dictionary - a
+ node and a position in its key, or an automaton transition and the words before it - with a key position.
+ Everything a lookup finds from a state depends on nothing but the state and the score it gets there
+ with, so it tries a state again only with a better score, which finds the same words scored better.
+*/
+final class TolerantStates
+{
+	// Open addressing; a slot is free while its key position is 0, as the key positions are kept plus one.
+	// The table starts large enough for all but the longest lookups.
+	private Object[] m_nodes = new Object[128];
+	private long[] m_positions = new long[128];
+	private int[] m_keyPositions = new int[128];
+	private float[] m_scores = new float[128];
+	private int m_size = 0, m_retries = 0;
+
+	/**
+	 Records score for the state, unless it was tried with at least as good a score already
+
+	 @param node The node of the state, or null if position alone identifies it
+	 @return Whether the state should be tried with score
+	*/
+	boolean improve(Object node, long position, int keyPos, float score)
+	{
+		int mask = m_keyPositions.length - 1;
+		int slot = hash(node, position, keyPos) & mask;
+		while (m_keyPositions[slot] != 0)
+		{
+			if ((m_keyPositions[slot] == keyPos + 1) && (m_positions[slot] == position) && (m_nodes[slot] == node))
+			{
+				if (score <= m_scores[slot])
+				{
+					return false;
+				}
+				m_scores[slot] = score;
+				m_retries++;
+				return true;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		m_nodes[slot] = node;
+		m_positions[slot] = position;
+		m_keyPositions[slot] = keyPos + 1;
+		m_scores[slot] = score;
+		if (++m_size * 2 > m_keyPositions.length)
+		{
+			grow();
+		}
+		return true;
+	}
+
+	/**
+	 @return How many times a state was tried again with a better score; the words found before it was
+	 may be found again, and only then
+	*/
+	int getRetries()
+	{
+		return m_retries;
+	}
+
+	private void grow()
+	{
+		Object[] nodes = m_nodes;
+		long[] positions = m_positions;
+		int[] keyPositions = m_keyPositions;
+		float[] scores = m_scores;
+
+		m_nodes = new Object[nodes.length * 2];
+		m_positions = new long[nodes.length * 2];
+		m_keyPositions = new int[nodes.length * 2];
+		m_scores = new float[nodes.length * 2];
+		int mask = m_keyPositions.length - 1;
+		for (int i = 0; i < nodes.length; i++)
+		{
+			if (keyPositions[i] != 0)
+			{
+				int slot = hash(nodes[i], positions[i], keyPositions[i] - 1) & mask;
+				while (m_keyPositions[slot] != 0)
+				{
+					slot = (slot + 1) & mask;
+				}
+				m_nodes[slot] = nodes[i];
+				m_positions[slot] = positions[i];
+				m_keyPositions[slot] = keyPositions[i];
+				m_scores[slot] = scores[i];
+			}
+		}
+	}
+
+	private static int hash(Object node, long position, int keyPos)
+	{
+		long h = (position * 0x9E3779B97F4A7C15L) ^ (keyPos * 0xC2B2AE3D27D4EB4FL);
+		if (node != null)
+		{
+			h ^= System.identityHashCode(node) * 0x165667B19E3779F9L;
+		}
+		h ^= h >>> 29;
+		return (int)(h ^ (h >>> 32));
+	}
+}
@@ -0,0 +1,198 @@
+/**************************************************************************
+ *   Copyright (C) 2010 by                                                 *
+ *      Itamar Syn-Hershko <itamar at code972 dot com>                     *
+ *		Ofer Fort <oferiko at gmail dot com>							   *
+ *                                                                         *
+ *   Distributed under the GNU General Public License, Version 2.0.        *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation (v2).                                    *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   51 Franklin Steet, Fifth Floor, Boston, MA  02111-1307, USA.          *
+ **************************************************************************/
+package hebmorph.datastructures;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ The results of a score-bounded tolerant lookup: those scored at least minScore, and of those the maxResults
+ best, ties going to the results found first. They are listed in the order the lookup found them, so they
+ are the results of the unbounded lookupTolerant() with the rest taken out.
+
+ Tolerators only ever lower the score of a candidate, so a lookup skips a node as soon as the score it
+ reaches it with couldn't get a result in - below minScore, or once maxResults were found, no better than
+ the worst of them.
+*/
+public class TopResults<T>
+{
+	private final float m_minScore;
+	private final int m_maxResults;
+	// The results in the order they were found; those pushed out by better ones are null
+	private final ArrayList<LookupResult<T>> m_found = new ArrayList<LookupResult<T>>();
+	// The positions in m_found of the results kept, the worst first: the lowest scored, and of those the last found
+	private final PriorityQueue<Integer> m_kept;
+	// The score of the worst result kept, once maxResults were found
+	private float m_worst = Float.NEGATIVE_INFINITY;
+	private int m_visitedNodes, m_skippedNodes;
+
+	/**
+	 @param maxResults Integer.MAX_VALUE for no limit
+	*/
+	public TopResults(float minScore, int maxResults)
+	{
+		if (maxResults < 1)
+		{
+			throw new IllegalArgumentException("maxResults must be positive, was " + maxResults);
+		}
+		m_minScore = minScore;
+		m_maxResults = maxResults;
+		m_kept = new PriorityQueue<Integer>(Math.min(maxResults, 16), new Comparator<Integer>()
+		{
+			public int compare(Integer a, Integer b)
+			{
+				int cmp = Float.compare(m_found.get(a).getScore(), m_found.get(b).getScore());
+				return (cmp != 0) ? cmp : b.compareTo(a);
+			}
+		});
+	}
+
+	public float getMinScore()
+	{
+		return m_minScore;
+	}
+
+	public int getMaxResults()
+	{
+		return m_maxResults;
+	}
+
+	/**
+	 @return Whether a candidate with score could still make it into the results
+	*/
+	boolean admits(float score)
+	{
+		return (score >= m_minScore) && ((m_kept.size() < m_maxResults) || (score > m_worst));
+	}
+
+	/**
+	 Adds result, pushing out the worst one kept if there are maxResults already; ignored unless admits()
+	 its score
+	*/
+	void offer(LookupResult<T> result)
+	{
+		if (!admits(result.getScore()))
+		{
+			return;
+		}
+		m_found.add(result);
+		m_kept.add(m_found.size() - 1);
+		if (m_kept.size() > m_maxResults)
+		{
+			m_found.set(m_kept.poll(), null);
+		}
+		if (m_kept.size() == m_maxResults)
+		{
+			m_worst = m_found.get(m_kept.peek()).getScore();
+		}
+	}
+
+	/**
+	 Same as offer(), for a result found again with a better score: the one found before, if it's still
+	 kept, is taken out first
+	*/
+	void offerAgain(LookupResult<T> result)
+	{
+		for (int i = m_found.size() - 1; i >= 0; i--)
+		{
+			LookupResult<T> found = m_found.get(i);
+			if ((found != null) && found.getWord().equals(result.getWord()))
+			{
+				m_kept.remove(i);
+				m_found.set(i, null);
+				break;
+			}
+		}
+		offer(result);
+	}
+
+	/**
+	 Called by a lookup for each node it goes into
+	*/
+	void visit()
+	{
+		m_visitedNodes++;
+	}
+
+	/**
+	 Called by a lookup for each node it doesn't go into, because admits() was false for its score there
+	*/
+	void skip()
+	{
+		m_skippedNodes++;
+	}
+
+	/**
+	 Adds the nodes other lookup visited and skipped to those of this one
+	*/
+	void count(TopResults<?> other)
+	{
+		m_visitedNodes += other.m_visitedNodes;
+		m_skippedNodes += other.m_skippedNodes;
+	}
+
+	/**
+	 @return The results, in the order they were found; empty if there are none
+	*/
+	public List<LookupResult<T>> getResults()
+	{
+		List<LookupResult<T>> ret = new ArrayList<LookupResult<T>>(m_kept.size());
+		for (LookupResult<T> result : m_found)
+		{
+			if (result != null)
+			{
+				ret.add(result);
+			}
+		}
+		return ret;
+	}
+
+	public int size()
+	{
+		return m_kept.size();
+	}
+
+	/**
+	 @return How many nodes the lookup went into; a node it went back into with another candidate counts again
+	*/
+	public int getVisitedNodes()
+	{
+		return m_visitedNodes;
+	}
+
+	/**
+	 @return How many nodes the lookup didn't go into, for candidates too low scored to get a result there;
+	 the nodes under them aren't counted
+	*/
+	public int getSkippedNodes()
+	{
+		return m_skippedNodes;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("{ results=%d visited nodes=%d skipped nodes=%d }", m_kept.size(), m_visitedNodes, m_skippedNodes);
+	}
+}
@@ -0,0 +1,229 @@
+/**************************************************************************
+ *   Copyright (C) 2010 by                                                 *
+ *      Itamar Syn-Hershko <itamar at code972 dot com>                     *
+ *		Ofer Fort <oferiko at gmail dot com>							   *
+ *                                                                         *
+ *   Distributed under the GNU General Public License, Version 2.0.        *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation (v2).                                    *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   51 Franklin Steet, Fifth Floor, Boston, MA  02111-1307, USA.          *
+ **************************************************************************/
+package hebmorph.hspell;
+
+import hebmorph.MorphData;
+import hebmorph.datastructures.BlockCompressedDictRadix;
+import hebmorph.datastructures.DictRadix;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ A read-only dictionary which keeps the lemmas and description masks of its words deflated in blocks, and
+ decodes a block only once a word in it needs them. The prefix mask of every word stays resident, so word
+ existence and prefix checks (all of Lemmatizer.haveLemmas(), and most of the prefixed lookups of
+ Lemmatizer.lemmatize()) never decode anything.
+
+ Lookups return a MorphData which reads its lemmas and masks from the block cache on first use. Like the other
+ read-only dictionaries, custom relations can't be added to it.
+*/
+public class CompressedMorphDictionary extends BlockCompressedDictRadix<MorphData>
+{
+	private static final Codec codec = new Codec();
+
+	public CompressedMorphDictionary(DictRadix<MorphData> radix)
+	{
+		super(radix, codec);
+	}
+
+	public CompressedMorphDictionary(DictRadix<MorphData> radix, int blockSize, int maxCachedBlocks)
+	{
+		super(radix, codec, blockSize, maxCachedBlocks);
+	}
+
+	@Override
+	protected MorphData getValueAt(int valueIndex)
+	{
+		return new LazyMorphData(valueIndex);
+	}
+
+	private class LazyMorphData extends MorphData
+	{
+		private final int valueIndex;
+		private boolean decoded = false;
+
+		LazyMorphData(int valueIndex)
+		{
+			this.valueIndex = valueIndex;
+			super.setPrefixes(getResidentByte(valueIndex));
+		}
+
+		private void decode()
+		{
+			if (!decoded)
+			{
+				MorphData md = decodeValue(valueIndex);
+				super.setLemmas(md.getLemmas());
+				super.setDescFlags(md.getDescFlags());
+				decoded = true;
+			}
+		}
+
+		@Override
+		public String[] getLemmas()
+		{
+			decode();
+			return super.getLemmas();
+		}
+
+		@Override
+		public int[] getDescFlags()
+		{
+			decode();
+			return super.getDescFlags();
+		}
+
+		@Override
+		public void setLemmas(String[] lemmas)
+		{
+			decode();
+			super.setLemmas(lemmas);
+		}
+
+		@Override
+		public void setDescFlags(int[] descFlags)
+		{
+			decode();
+			super.setDescFlags(descFlags);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			decode();
+			return super.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			decode();
+			if (obj instanceof LazyMorphData)
+			{
+				((LazyMorphData)obj).decode();
+			}
+			return super.equals(obj);
+		}
+
+		@Override
+		public String toString()
+		{
+			decode();
+			return super.toString();
+		}
+	}
+
+	// Each value is written as its masks count (-1 for null) and masks, then its lemmas count (-1 for null)
+	// and lemmas. A lemma is written as its index among the lemmas already written in the block, or -1 for
+	// null, or -2 followed by the lemma itself the first time it appears.
+	private static class Codec implements BlockCodec<MorphData>
+	{
+		public void writeBlock(Object[] values, int from, int to, DataOutputStream out) throws IOException
+		{
+			Map<String, Integer> lemmaIds = new HashMap<String, Integer>();
+			for (int i = from; i < to; i++)
+			{
+				MorphData md = (MorphData)values[i];
+				int[] flags = md.getDescFlags();
+				out.writeInt((flags == null) ? -1 : flags.length);
+				if (flags != null)
+				{
+					for (int flag : flags)
+					{
+						out.writeInt(flag);
+					}
+				}
+
+				String[] lemmas = md.getLemmas();
+				out.writeInt((lemmas == null) ? -1 : lemmas.length);
+				if (lemmas != null)
+				{
+					for (String lemma : lemmas)
+					{
+						Integer id = (lemma == null) ? Integer.valueOf(-1) : lemmaIds.get(lemma);
+						if (id == null)
+						{
+							lemmaIds.put(lemma, lemmaIds.size());
+							out.writeInt(-2);
+							out.writeUTF(lemma);
+						}
+						else
+						{
+							out.writeInt(id);
+						}
+					}
+				}
+			}
+		}
+
+		public void readBlock(DataInputStream in, Object[] values, int count) throws IOException
+		{
+			List<String> lemmaTable = new ArrayList<String>();
+			for (int i = 0; i < count; i++)
+			{
+				MorphData md = new MorphData();
+				int n = in.readInt();
+				if (n >= 0)
+				{
+					int[] flags = new int[n];
+					for (int j = 0; j < n; j++)
+					{
+						flags[j] = in.readInt();
+					}
+					md.setDescFlags(flags);
+				}
+
+				n = in.readInt();
+				if (n >= 0)
+				{
+					String[] lemmas = new String[n];
+					for (int j = 0; j < n; j++)
+					{
+						int id = in.readInt();
+						if (id == -2)
+						{
+							lemmas[j] = in.readUTF();
+							lemmaTable.add(lemmas[j]);
+						}
+						else if (id >= 0)
+						{
+							lemmas[j] = lemmaTable.get(id);
+						}
+					}
+					md.setLemmas(lemmas);
+				}
+				values[i] = md;
+			}
+		}
+
+		public byte getResidentByte(MorphData value)
+		{
+			return (byte)value.getPrefixes();
+		}
+	}
+}
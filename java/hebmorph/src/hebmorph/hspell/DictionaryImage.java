@@ -0,0 +1,279 @@
+/**************************************************************************
+ *   Copyright (C) 2010 by                                                 *
+ *      Itamar Syn-Hershko <itamar at code972 dot com>                     *
+ *		Ofer Fort <oferiko at gmail dot com>							   *
+ *                                                                         *
+ *   Distributed under the GNU General Public License, Version 2.0.        *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation (v2).                                    *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   51 Franklin Steet, Fifth Floor, Boston, MA  02111-1307, USA.          *
+ **************************************************************************/
+package hebmorph.hspell;
+
+import hebmorph.MorphData;
+import hebmorph.datastructures.FrozenDictRadix;
+import hebmorph.datastructures.MappedDictRadix;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ Compiles the hspell dictionary into a binary image once, so processes can memory-map it on startup
+ instead of decompressing and parsing the hspell files and building the radix on the heap every time.
+
+ The image is a MappedDictRadix; this class stores its MorphData values. Lemmas are written once into
+ a string pool and referenced by id, and the custom plural relations Loader adds are already resolved.
+ Usage: java hebmorph.hspell.DictionaryImage hspell-data-folder image-file
+*/
+public class DictionaryImage implements MappedDictRadix.ValueCodec<MorphData>
+{
+	private static final DictionaryImage codec = new DictionaryImage();
+
+	public static void compile(String hspellPath, boolean bLoadMorphData, File imageFile) throws IOException
+	{
+		write(Loader.loadFrozenDictionaryFromHSpellFolder(hspellPath, bLoadMorphData), imageFile);
+	}
+
+	public static void write(FrozenDictRadix<MorphData> dict, File imageFile) throws IOException
+	{
+		MappedDictRadix.write(dict, codec, imageFile);
+	}
+
+	public static MappedDictRadix<MorphData> map(File imageFile) throws IOException
+	{
+		return MappedDictRadix.map(imageFile, codec);
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length != 2)
+		{
+			System.err.println("Usage: DictionaryImage <hspell-data-folder> <image-file>");
+			System.exit(1);
+		}
+		long start = System.currentTimeMillis();
+		compile(args[0], true, new File(args[1]));
+		System.out.println("Wrote " + args[1] + " in " + (System.currentTimeMillis() - start) + "ms");
+	}
+
+	// Values section layout (all ints unless noted):
+	//   valuesCount, entriesLength, lemmasCount, lemmaCharsLength
+	//   valueStart[valuesCount + 1] - where the entry of each value starts in entries[]
+	//   entries[entriesLength]     - prefixes, flagsCount, flags..., lemmasCount, lemma ids...
+	//                                (a count of -1 stands for a null array, a lemma id of -1 for a null lemma)
+	//   lemmaStart[lemmasCount + 1], lemmaChars[lemmaCharsLength] (chars)
+	public void writeValues(Object[] values, DataOutputStream out) throws IOException
+	{
+		Map<String, Integer> lemmaIds = new HashMap<String, Integer>();
+		StringBuilder lemmaChars = new StringBuilder();
+		int[] lemmaStart = new int[16];
+
+		int[] valueStart = new int[values.length + 1];
+		int[] entries = new int[values.length * 4];
+		int pos = 0;
+		for (int i = 0; i < values.length; i++)
+		{
+			MorphData md = (MorphData)values[i];
+			int[] flags = md.getDescFlags();
+			String[] lemmas = md.getLemmas();
+			int needed = 3 + (flags == null ? 0 : flags.length) + (lemmas == null ? 0 : lemmas.length);
+			if (pos + needed > entries.length)
+			{
+				int[] grown = new int[Math.max(entries.length * 2, pos + needed)];
+				System.arraycopy(entries, 0, grown, 0, pos);
+				entries = grown;
+			}
+
+			valueStart[i] = pos;
+			entries[pos++] = md.getPrefixes();
+			if (flags == null)
+			{
+				entries[pos++] = -1;
+			}
+			else
+			{
+				entries[pos++] = flags.length;
+				for (int flag : flags)
+				{
+					entries[pos++] = flag;
+				}
+			}
+			if (lemmas == null)
+			{
+				entries[pos++] = -1;
+			}
+			else
+			{
+				entries[pos++] = lemmas.length;
+				for (String lemma : lemmas)
+				{
+					if (lemma == null)
+					{
+						entries[pos++] = -1;
+						continue;
+					}
+					Integer id = lemmaIds.get(lemma);
+					if (id == null)
+					{
+						id = lemmaIds.size();
+						lemmaIds.put(lemma, id);
+						if (id + 1 >= lemmaStart.length)
+						{
+							int[] grown = new int[lemmaStart.length * 2];
+							System.arraycopy(lemmaStart, 0, grown, 0, lemmaStart.length);
+							lemmaStart = grown;
+						}
+						lemmaStart[id] = lemmaChars.length();
+						lemmaChars.append(lemma);
+					}
+					entries[pos++] = id;
+				}
+			}
+		}
+		valueStart[values.length] = pos;
+		lemmaStart[lemmaIds.size()] = lemmaChars.length();
+
+		out.writeInt(values.length);
+		out.writeInt(pos);
+		out.writeInt(lemmaIds.size());
+		out.writeInt(lemmaChars.length());
+		for (int v : valueStart)
+		{
+			out.writeInt(v);
+		}
+		for (int i = 0; i < pos; i++)
+		{
+			out.writeInt(entries[i]);
+		}
+		for (int i = 0; i <= lemmaIds.size(); i++)
+		{
+			out.writeInt(lemmaStart[i]);
+		}
+		out.writeChars(lemmaChars.toString());
+	}
+
+	public MappedDictRadix.ValueReader<MorphData> openValues(ByteBuffer section) throws IOException
+	{
+		return new MorphDataReader(section);
+	}
+
+	/**
+	 Decodes a new MorphData, with new arrays, on every read: mapped lookups allocate for each word they
+	 find rather than keeping the decoded values on the heap, which is what mapping the image saves. Only
+	 the lemma strings are kept once decoded. Where the same words are looked up over and over, a
+	 LemmatizationCache in front of the lemmatizer saves decoding them again.
+	*/
+	private static class MorphDataReader implements MappedDictRadix.ValueReader<MorphData>
+	{
+		private final IntBuffer valueStart, entries, lemmaStart;
+		private final CharBuffer lemmaChars;
+		// Lemma strings are only built once each, on first use
+		private final String[] lemmas;
+
+		public MorphDataReader(ByteBuffer section) throws IOException
+		{
+			if (section.limit() < 16)
+			{
+				throw new IOException("Corrupt dictionary image: its values section has no header");
+			}
+			int valuesCount = section.getInt(0), entriesLength = section.getInt(4);
+			int lemmasCount = section.getInt(8), lemmaCharsLength = section.getInt(12);
+			if ((valuesCount < 0) || (lemmasCount < 0))
+			{
+				throw new IOException("Corrupt dictionary image: " + valuesCount + " values, " + lemmasCount + " lemmas");
+			}
+
+			long pos = 16;
+			valueStart = slice(section, pos, (valuesCount + 1L) * 4).asIntBuffer();
+			pos += (valuesCount + 1L) * 4;
+			entries = slice(section, pos, entriesLength * 4L).asIntBuffer();
+			pos += entriesLength * 4L;
+			lemmaStart = slice(section, pos, (lemmasCount + 1L) * 4).asIntBuffer();
+			pos += (lemmasCount + 1L) * 4;
+			lemmaChars = slice(section, pos, lemmaCharsLength * 2L).asCharBuffer();
+
+			lemmas = new String[lemmasCount];
+		}
+
+		/**
+		 @throws IOException If the part isn't all within the section
+		*/
+		private static ByteBuffer slice(ByteBuffer section, long offset, long length) throws IOException
+		{
+			if ((length < 0) || (offset + length > section.limit()))
+			{
+				throw new IOException("Corrupt dictionary image: a part of " + length + " bytes at " + offset
+						+ " of its values section runs past its end, at " + section.limit());
+			}
+			ByteBuffer dup = section.duplicate();
+			dup.position((int)offset);
+			dup.limit((int)(offset + length));
+			return dup.slice();
+		}
+
+		public MorphData read(int valueIndex)
+		{
+			int pos = valueStart.get(valueIndex);
+			MorphData md = new MorphData();
+			md.setPrefixes(entries.get(pos++));
+
+			int n = entries.get(pos++);
+			if (n >= 0)
+			{
+				int[] flags = new int[n];
+				for (int i = 0; i < n; i++)
+				{
+					flags[i] = entries.get(pos++);
+				}
+				md.setDescFlags(flags);
+			}
+
+			n = entries.get(pos++);
+			if (n >= 0)
+			{
+				String[] ret = new String[n];
+				for (int i = 0; i < n; i++)
+				{
+					int id = entries.get(pos++);
+					ret[i] = (id < 0) ? null : getLemma(id);
+				}
+				md.setLemmas(ret);
+			}
+			return md;
+		}
+
+		private String getLemma(int id)
+		{
+			String lemma = lemmas[id];
+			if (lemma == null)
+			{
+				int start = lemmaStart.get(id), end = lemmaStart.get(id + 1);
+				char[] chars = new char[end - start];
+				for (int i = 0; i < chars.length; i++)
+				{
+					chars[i] = lemmaChars.get(start + i);
+				}
+				lemma = new String(chars);
+				lemmas[id] = lemma;
+			}
+			return lemma;
+		}
+	}
+}
@@ -0,0 +1,683 @@
+/**************************************************************************
+ *   Copyright (C) 2010 by                                                 *
+ *      Itamar Syn-Hershko <itamar at code972 dot com>                     *
+ *		Ofer Fort <oferiko at gmail dot com>							   *
+ *                                                                         *
+ *   Distributed under the GNU General Public License, Version 2.0.        *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation (v2).                                    *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   51 Franklin Steet, Fifth Floor, Boston, MA  02111-1307, USA.          *
+ **************************************************************************/
+package hebmorph.hspell;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ Reads the entries of the hspell data files one at a time, in the order of the word list, without
+ building a dictionary: each word, its prefix hint, and, when the morphologic data is read, the
+ description mask and the lemma (as a word index) of each of its analyses. Each file is inflated on a
+ thread of a small pool all the readers share, a few fixed-size buffers ahead of the entries being
+ decoded, so the files are inflated side by side and reading takes the same memory however many entries
+ there are.
+
+ <pre>
+ HSpellReader reader = HSpellReader.open(path, true);
+ try
+ {
+ 	while (reader.next())
+ 	{
+ 		... reader.getWord(), reader.getDescFlag(0), reader.getStem(0) ...
+ 	}
+ }
+ finally
+ {
+ 	reader.close();
+ }
+ </pre>
+
+ The getters are about the current entry. getWordChars() returns the reader's own buffer, valid until
+ next() is called again; getDescFlags() and getStems() return copies, which can be kept.
+*/
+public final class HSpellReader implements Closeable
+{
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 Opens the data files of a folder, or of a package on the classpath
+	*/
+	static abstract class Source
+	{
+		abstract InputStream open(String fileName) throws IOException;
+	}
+
+	static Source folder(String path)
+	{
+		final String folder = (path.charAt(path.length() - 1) != File.separatorChar) ? path + File.separatorChar : path;
+		return new Source()
+		{
+			@Override
+			InputStream open(String fileName) throws IOException
+			{
+				return new FileInputStream(folder + fileName);
+			}
+		};
+	}
+
+	static Source classLoader(final ClassLoader classLoader, final String packagePath)
+	{
+		return new Source()
+		{
+			@Override
+			InputStream open(String fileName) throws IOException
+			{
+				InputStream ret = classLoader.getResourceAsStream(packagePath + fileName);
+				if (ret == null)
+				{
+					throw new FileNotFoundException(packagePath + fileName);
+				}
+				return ret;
+			}
+		};
+	}
+
+	// The threads the files of all the readers are inflated on, started as needed and ended once idle
+	private static final int INFLATERS = 4;
+	private static final ThreadPoolExecutor inflaters = newInflaters();
+
+	private static ThreadPoolExecutor newInflaters()
+	{
+		ThreadPoolExecutor ret = new ThreadPoolExecutor(INFLATERS, INFLATERS, 10, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+		{
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r)
+			{
+				Thread ret = new Thread(r, "hspell-inflater " + count.incrementAndGet());
+				ret.setDaemon(true);
+				return ret;
+			}
+		});
+		ret.allowCoreThreadTimeOut(true);
+		return ret;
+	}
+
+	/**
+	 Inflates a gzipped file on a thread of the shared pool, into CHUNKS buffers which are handed to the reader
+	 as they are filled and back to the thread once read. The entries are decoded from all the files in
+	 lockstep, so a reader left waiting for a file no pool thread has taken up inflates the file itself -
+	 the pool being shared, its threads could all be busy with files of other readers waiting for this one.
+	*/
+	private static final class ByteReader implements Runnable
+	{
+		private static final int CHUNKS = 4;
+		// How long the reader waits for a pool thread to take up the file before it inflates it itself
+		private static final long CLAIM_AFTER_MS = 10;
+
+		private static final class Chunk
+		{
+			final byte[] data;
+			int length;
+
+			Chunk(byte[] data)
+			{
+				this.data = data;
+			}
+		}
+
+		// Queued after the last chunk of the file, or after the thread failed
+		private static final Chunk END = new Chunk(new byte[0]);
+
+		private final InputStream in;
+		private final BlockingQueue<Chunk> filled = new ArrayBlockingQueue<Chunk>(CHUNKS + 1);
+		private final BlockingQueue<Chunk> free = new ArrayBlockingQueue<Chunk>(CHUNKS);
+		// Set by whichever inflates the file - the pool thread, or the reader (or close(), before either)
+		private final AtomicBoolean claimed = new AtomicBoolean();
+		private final CountDownLatch done = new CountDownLatch(1);
+		// The pool thread inflating the file, while it does
+		private Thread worker = null;
+		private boolean closing = false;
+		// What the thread failed with, once END is queued
+		private volatile Throwable failure;
+
+		// Whether the reader inflates the file itself, and whether it's reached the end of it then
+		private boolean inflatingHere = false;
+		private boolean ended = false;
+		private Chunk chunk = null;
+		private int pos = 0;
+
+		ByteReader(Source source, String fileName) throws IOException
+		{
+			in = new GZIPInputStream(source.open(fileName), BUFFER_SIZE);
+			for (int i = 0; i < CHUNKS; i++)
+			{
+				free.add(new Chunk(new byte[BUFFER_SIZE]));
+			}
+			inflaters.execute(this);
+		}
+
+		public void run()
+		{
+			if (!claimed.compareAndSet(false, true))
+			{
+				return;
+			}
+			synchronized (this)
+			{
+				worker = Thread.currentThread();
+			}
+			try
+			{
+				while (!isClosing())
+				{
+					Chunk next = free.take();
+					boolean more = fill(next);
+					if (next.length > 0)
+					{
+						filled.put(next);
+					}
+					if (!more)
+					{
+						break;
+					}
+				}
+			}
+			catch (InterruptedException e)
+			{
+				// close() was called
+			}
+			catch (Throwable t)
+			{
+				failure = t;
+			}
+			finally
+			{
+				synchronized (this)
+				{
+					worker = null;
+					// An interrupt from close() mustn't reach the next task of the thread
+					Thread.interrupted();
+				}
+				try
+				{
+					in.close();
+				}
+				catch (IOException e)
+				{
+					if (failure == null)
+					{
+						failure = e;
+					}
+				}
+				// There's always room for END, as there are only CHUNKS chunks
+				filled.add(END);
+				done.countDown();
+			}
+		}
+
+		private synchronized boolean isClosing()
+		{
+			return closing;
+		}
+
+		/**
+		 Reads into c until it's full or the file ends
+
+		 @return false if the file ended
+		*/
+		private boolean fill(Chunk c) throws IOException
+		{
+			int length = 0, read = 0;
+			while ((length < c.data.length) && ((read = in.read(c.data, length, c.data.length - length)) > -1))
+			{
+				length += read;
+			}
+			c.length = length;
+			return (read > -1);
+		}
+
+		/**
+		 @return The next byte, or -1 at the end of the file
+		*/
+		int read() throws IOException
+		{
+			if ((chunk == null) || (pos == chunk.length))
+			{
+				if (!nextChunk())
+				{
+					return -1;
+				}
+			}
+			return chunk.data[pos++] & 0xFF;
+		}
+
+		private boolean nextChunk() throws IOException
+		{
+			if (chunk == END)
+			{
+				return false;
+			}
+			if (inflatingHere)
+			{
+				return inflateHere();
+			}
+			if (chunk != null)
+			{
+				free.add(chunk);
+			}
+			try
+			{
+				while ((chunk = filled.poll(CLAIM_AFTER_MS, TimeUnit.MILLISECONDS)) == null)
+				{
+					if (claimed.compareAndSet(false, true))
+					{
+						// The pool threads are all busy
+						return inflateHere();
+					}
+				}
+			}
+			catch (InterruptedException e)
+			{
+				chunk = null;
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while reading the hspell files");
+			}
+			pos = 0;
+			if (chunk != END)
+			{
+				return true;
+			}
+
+			rethrowFailure();
+			return false;
+		}
+
+		/**
+		 Throws what the pool thread failed with, if it did
+		*/
+		private void rethrowFailure() throws IOException
+		{
+			Throwable t = failure;
+			if (t instanceof IOException)
+			{
+				throw (IOException)t;
+			}
+			if (t instanceof RuntimeException)
+			{
+				throw (RuntimeException)t;
+			}
+			if (t instanceof Error)
+			{
+				throw (Error)t;
+			}
+		}
+
+		private boolean inflateHere() throws IOException
+		{
+			if (!inflatingHere)
+			{
+				inflatingHere = true;
+				chunk = free.remove();
+			}
+			pos = 0;
+			if (!ended)
+			{
+				ended = !fill(chunk);
+				if (chunk.length > 0)
+				{
+					return true;
+				}
+			}
+			chunk = END;
+			in.close();
+			return false;
+		}
+
+		/**
+		 Stops the inflating, closing the file
+
+		 @throws IOException If reading or closing the file failed
+		*/
+		void close() throws IOException
+		{
+			synchronized (this)
+			{
+				closing = true;
+				if (worker != null)
+				{
+					worker.interrupt();
+				}
+			}
+			if (claimed.compareAndSet(false, true) || inflatingHere)
+			{
+				// No pool thread has the file, or will
+				in.close();
+				return;
+			}
+			try
+			{
+				done.await();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while closing the hspell files");
+			}
+			rethrowFailure();
+		}
+	}
+
+	private final ByteReader words, prefixes, descs, stems;
+
+	private int index = -1;
+	// The current word is word[0 .. wordLength - 1]
+	private char[] word = new char[Constants.MaxWordLength];
+	private int wordLength = 0;
+	// How many letters at the end of the current word the next one doesn't share
+	private int pendingDrop = 0;
+	// The first letter of the next word, already read while reading the current one, or -1 if there are no
+	// more words
+	private int nextChar;
+	private int prefixHint = -1;
+	private boolean prefixesEnded = false;
+	private int[] descFlags = new int[16], stemIndices = new int[16];
+	private int descsCount = 0, analysesCount = 0;
+	private byte[] line = new byte[64];
+
+	private HSpellReader(Source source, boolean bMorphData) throws IOException
+	{
+		ByteReader wordsReader = null, prefixesReader = null, descsReader = null, stemsReader = null;
+		boolean opened = false;
+		try
+		{
+			wordsReader = new ByteReader(source, Constants.DictionaryFile);
+			prefixesReader = new ByteReader(source, Constants.PrefixesFile);
+			if (bMorphData)
+			{
+				descsReader = new ByteReader(source, Constants.DescFile);
+				stemsReader = new ByteReader(source, Constants.StemsFile);
+			}
+			opened = true;
+		}
+		finally
+		{
+			if (!opened)
+			{
+				close(wordsReader, prefixesReader, descsReader, stemsReader);
+			}
+		}
+		words = wordsReader;
+		prefixes = prefixesReader;
+		descs = descsReader;
+		stems = stemsReader;
+		nextChar = words.read();
+	}
+
+	/**
+	 @param bMorphData Whether to read the analyses of the words, or just the words and their prefix hints
+	*/
+	public static HSpellReader open(String path, boolean bMorphData) throws IOException
+	{
+		return new HSpellReader(folder(path), bMorphData);
+	}
+
+	public static HSpellReader open(ClassLoader classLoader, String packagePath, boolean bMorphData) throws IOException
+	{
+		return new HSpellReader(classLoader(classLoader, packagePath), bMorphData);
+	}
+
+	static HSpellReader open(Source source, boolean bMorphData) throws IOException
+	{
+		return new HSpellReader(source, bMorphData);
+	}
+
+	/**
+	 Moves to the next entry
+
+	 @return false once there are no more entries
+	 @throws IOException If a file can't be read, or the description and stem files end before the word list
+	*/
+	public boolean next() throws IOException
+	{
+		if (!readWord())
+		{
+			return false;
+		}
+		index++;
+
+		int hint = prefixesEnded ? -1 : prefixes.read();
+		prefixesEnded = (hint < 0);
+		prefixHint = hint;
+
+		if (descs != null)
+		{
+			descsCount = readLine(descs, 2, true);
+			analysesCount = readLine(stems, 3, false);
+			if ((descsCount < 0) || (analysesCount < 0))
+			{
+				throw new IOException("The hspell description and stem files don't cover word " + index + ", " + getWord());
+			}
+		}
+		return true;
+	}
+
+	/**
+	 The word list is sorted, and each word is only stored as the letters it doesn't share with the previous
+	 one. A number ends each word, and tells how many letters to drop from its end to get to the start of the
+	 next one. A word with no number after it is not a word.
+	*/
+	private boolean readWord() throws IOException
+	{
+		int c = nextChar;
+		if (c < 0)
+		{
+			return false;
+		}
+
+		// The letters dropped after the last word are those it doesn't share with this one
+		int slen = wordLength - pendingDrop;
+		pendingDrop = 0;
+		while ((c >= 0) && ((c < '0') || (c > '9'))) // No conversion required for chars < 0xBE
+		{
+			if (slen == word.length)
+			{
+				word = Arrays.copyOf(word, word.length * 2);
+			}
+			word[slen++] = Loader.ISO8859_To_Unicode(c);
+			c = words.read();
+		}
+		if (c < 0)
+		{
+			nextChar = -1;
+			return false;
+		}
+		wordLength = slen;
+
+		// and read how much to go back
+		int n = 0;
+		do
+		{
+			// base 10...
+			n *= 10;
+			n += (c - '0');
+			c = words.read();
+		} while ((c >= '0') && (c <= '9'));
+		pendingDrop = n;
+		nextChar = c;
+		return true;
+	}
+
+	/**
+	 Reads a line (ending with '\n' or '\0') of fixed-width values into descFlags or stemIndices; a trailing
+	 part of a line too short to be a value is dropped
+
+	 @return The number of values, or -1 if the file ended before the line did
+	*/
+	private int readLine(ByteReader in, int width, boolean bDescs) throws IOException
+	{
+		int length = 0, c;
+		while (((c = in.read()) >= 0) && (c != '\n') && (c != 0))
+		{
+			if (length == line.length)
+			{
+				line = Arrays.copyOf(line, line.length * 2);
+			}
+			line[length++] = (byte)c;
+		}
+		if (c < 0)
+		{
+			return -1;
+		}
+
+		int count = length / width;
+		if (descFlags.length < count)
+		{
+			descFlags = Arrays.copyOf(descFlags, Math.max(descFlags.length * 2, count));
+			stemIndices = Arrays.copyOf(stemIndices, descFlags.length);
+		}
+		for (int i = 0; i < count; i++)
+		{
+			int pos = i * width;
+			if (bDescs)
+			{
+				descFlags[i] = Constants.dmasks[(line[pos] & 0xFF) - 'A' + ((line[pos + 1] & 0xFF) - 'A') * 26];
+			}
+			else
+			{
+				stemIndices[i] = (line[pos] & 0xFF) - 33 + ((line[pos + 1] & 0xFF) - 33) * 94 + ((line[pos + 2] & 0xFF) - 33) * 94 * 94;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 @return The index of the current entry in the word list, which stem indices refer to
+	*/
+	public int getIndex()
+	{
+		return index;
+	}
+
+	public String getWord()
+	{
+		return new String(word, 0, wordLength);
+	}
+
+	/**
+	 @return The letters of the current word, in getWordChars()[0 .. getWordLength() - 1]
+	*/
+	public char[] getWordChars()
+	{
+		return word;
+	}
+
+	public int getWordLength()
+	{
+		return wordLength;
+	}
+
+	/**
+	 @return The prefix hint of the word (a mask of Constants.PrefixType values), or -1 if it has none, as
+	 with the words past the end of the prefixes file
+	*/
+	public int getPrefixes()
+	{
+		return prefixHint;
+	}
+
+	/**
+	 @return The number of analyses of the word, or 0 when the morphologic data isn't read
+	*/
+	public int getAnalysesCount()
+	{
+		return analysesCount;
+	}
+
+	/**
+	 @return The description mask of an analysis (a combination of Constants.DMask values)
+	*/
+	public int getDescFlag(int analysis)
+	{
+		return descFlags[analysis];
+	}
+
+	/**
+	 @return The index of the word which is the lemma of an analysis
+	*/
+	public int getStem(int analysis)
+	{
+		return stemIndices[analysis];
+	}
+
+	/**
+	 @return A copy of the description masks of all analyses
+	*/
+	public int[] getDescFlags()
+	{
+		return Arrays.copyOf(descFlags, descsCount);
+	}
+
+	/**
+	 @return A copy of the lemma word indices of all analyses
+	*/
+	public int[] getStems()
+	{
+		return Arrays.copyOf(stemIndices, analysesCount);
+	}
+
+	public void close() throws IOException
+	{
+		close(words, prefixes, descs, stems);
+	}
+
+	private static void close(ByteReader... readers) throws IOException
+	{
+		IOException failure = null;
+		for (ByteReader reader : readers)
+		{
+			if (reader != null)
+			{
+				try
+				{
+					reader.close();
+				}
+				catch (IOException e)
+				{
+					failure = e;
+				}
+			}
+		}
+		if (failure != null)
+		{
+			throw failure;
+		}
+	}
+}
@@ -22,19 +22,26 @@
 package hebmorph.hspell;
 
 import hebmorph.MorphData;
+import hebmorph.MorphDataPool;
+import hebmorph.datastructures.DictDawg;
 import hebmorph.datastructures.DictRadix;
+import hebmorph.datastructures.DictRadixBuilder;
+import hebmorph.datastructures.FrozenDictRadix;
+import hebmorph.datastructures.FrozenMaskRadix;
 import hebmorph.hspell.Constants.DMask;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.zip.GZIPInputStream;
+import java.util.Map;
 
 import static hebmorph.hspell.Constants.*;
 
@@ -43,95 +50,39 @@ public class Loader
 
 	private static class CustomRelation {
 		String word,to;
-		Integer mask;
+		int mask;
 	}
-	
-	private static class MorphDataLoader// implements IDisposable
-	{
-		private GZIPInputStream fdesc, fstem;
-
-		private int bufPos = 0;
-		private int[] buf = new int[5];
-
-		public MorphDataLoader(String descPath, String stemPath) throws FileNotFoundException, IOException
-		{
-			fdesc = new GZIPInputStream(new FileInputStream(descPath));
-			fstem = new GZIPInputStream(new FileInputStream(stemPath));
-		}
 
-		public MorphDataLoader(InputStream descPath, InputStream stemPath) throws FileNotFoundException, IOException
-		{
-			fdesc = new GZIPInputStream(descPath);
-			fstem = new GZIPInputStream(stemPath);
-		}
-
-		public void dispose()
-		{
-			try
-			{
-				fdesc.close();
-			}
-			catch(IOException e)
-			{
-			}
-			try
-			{
-				fstem.close();
-			}
-			catch(IOException e)
-			{
-			}
-		}
-		private java.util.ArrayList<Integer> wordMasks = new java.util.ArrayList<Integer>();
-		public final Integer[] readDescFile() throws IOException
-		{
-			while ((buf[bufPos] = fdesc.read()) > -1)
-			{
-				// Break on EOL or EOF
-				if ((buf[bufPos] == '\n') || (buf[bufPos] == 0))
-				{
-					bufPos = 0;
-					Integer[] ret = wordMasks.toArray(new Integer[]{});
-					wordMasks.clear();
-					return ret;
-				}
-				bufPos++;
-				if (bufPos % 2 == 0)
-				{
-					int i = buf[0] - 'A' + (buf[1] - 'A') * 26;
-					wordMasks.add(Constants.dmasks[i]);
-					bufPos = 0;
-					continue;
-				}
-			}
-			return null;
-		}
+	/**
+	 Chooses the analyses to load by their DMask, such as for a dictionary of nouns alone
+	*/
+	public interface MaskFilter
+	{
+		public boolean accept(int dmask);
+	}
 
-		// Note: What HSpell call "stems", which we define as lemmas
-		private java.util.ArrayList<Integer> wordStems = new java.util.ArrayList<Integer>();
-		public final List<Integer> readStemFile() throws IOException
+	/**
+	 @return A filter accepting the analyses of the given types (DMask.D_NOUN, D_VERB or D_ADJ, or 0 for the
+	 words hspell gives no type, such as prepositions)
+	*/
+	public static MaskFilter acceptTypes(final int... types)
+	{
+		return new MaskFilter()
 		{
-			wordStems.clear();
-			while ((buf[bufPos] = fstem.read()) > -1)
+			public boolean accept(int dmask)
 			{
-				// Break on EOL or EOF
-				if ((buf[bufPos] == '\n') || (buf[bufPos] == 0))
+				for (int type : types)
 				{
-					bufPos = 0;
-					return wordStems;
-				}
-				bufPos++;
-				if (bufPos % 3 == 0)
-				{
-					wordStems.add(buf[0] - 33 + (buf[1] - 33) * 94 + (buf[2] - 33) * 94 * 94);
-					bufPos = 0;
-					continue;
+					if ((dmask & DMask.D_TYPEMASK) == type)
+					{
+						return true;
+					}
 				}
+				return false;
 			}
-			return null;
-		}
+		};
 	}
-
+	
 	public static int getWordCountInHSpellFolder(String path) throws IOException
 	{
 
@@ -156,358 +107,296 @@ public class Loader
 			path += File.separatorChar;
 		}
 
-		if (bLoadMorphData)
+		return loadDictionary(HSpellReader.folder(path), bLoadMorphData, true, null);
+	}
+
+	/**
+	 Loads only the analyses filter accepts; words left with none aren't in the dictionary at all. Custom
+	 relations are only made of accepted analyses.
+	*/
+	public static DictRadix<MorphData> loadDictionaryFromHSpellFolder(String path, MaskFilter filter) throws IOException
+	{
+		if (path.charAt(path.length() - 1) != File.separatorChar)
 		{
-			//sync with Git repository (comment old and add new method)
-			//			// Load the count of morphologic data slots required
-			//			String sizesFile = readFileToString(new File(path + Constants.SizesFile));
-			//			int lookupLen = sizesFile.indexOf(' ', sizesFile.indexOf('\n'));
-			//			lookupLen = Integer.parseInt(sizesFile.substring(lookupLen + 1).trim());
-			List<CustomRelation> customRelations = new LinkedList<Loader.CustomRelation>();
-
-			int lookupLen = getWordCountInHSpellFolder(path);
-			String[] lookup = new String[lookupLen + 1];
-
-			GZIPInputStream fdict = new GZIPInputStream(new FileInputStream(path + Constants.DictionaryFile));
-			try
-			{
-				char[] sbuf = new char[Constants.MaxWordLength];
-				int c = 0, n, slen = 0, i = 0;
-				while ((c = fdict.read()) > -1)
-				{
-					if ((c >= '0') && (c <= '9')) // No conversion required for chars < 0xBE
-					{
-						// new word - finalize and save old word
-						lookup[i++] = new String(sbuf, 0, slen);
-
-						// and read how much to go back
-						n = 0;
-						do
-						{
-							// base 10...
-							n *= 10;
-							n += (c - '0');
-						} while (((c = fdict.read()) > -1) && (c >= '0') && (c <= '9'));
-						slen -= n;
-					}
-					sbuf[slen++] = ISO8859_To_Unicode(c);
-				}
-			}
-			finally
+			path += File.separatorChar;
+		}
+
+		return loadDictionary(HSpellReader.folder(path), true, true, filter);
+	}
+
+	public static DictRadix<MorphData> loadDictionaryFromHSpellFolder(ClassLoader classLoader,String packagePath, boolean bLoadMorphData) throws IOException 
+	{
+		// Plural relations are only added to dictionaries loaded from a folder
+		return loadDictionary(HSpellReader.classLoader(classLoader, packagePath), bLoadMorphData, false, null);
+	}
+
+	public static DictRadix<MorphData> loadDictionaryFromHSpellFolder(ClassLoader classLoader,String packagePath, MaskFilter filter) throws IOException
+	{
+		return loadDictionary(HSpellReader.classLoader(classLoader, packagePath), true, false, filter);
+	}
+
+	/**
+	 @param filter The analyses to load, or null for all of them
+	*/
+	private static DictRadix<MorphData> loadDictionary(HSpellReader.Source source, boolean bLoadMorphData, boolean bAddPluralRelations,
+			MaskFilter filter) throws IOException
+	{
+		HSpellReader reader = HSpellReader.open(source, bLoadMorphData);
+		try
+		{
+			if (!bLoadMorphData)
 			{
-				fdict.close();
+				return buildPrefixMasks(reader, createPrefixMaskData());
 			}
+			return loadMorphData(reader, bAddPluralRelations, filter);
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	private static DictRadix<MorphData> loadMorphData(HSpellReader reader, boolean bAddPluralRelations, MaskFilter filter) throws IOException
+	{
+		List<CustomRelation> customRelations = new LinkedList<Loader.CustomRelation>();
 
-			MorphDataLoader dataLoader = new MorphDataLoader(path + Constants.DescFile, path + Constants.StemsFile);
-			try
+		// Lemmas refer to words by their index, including words further down the list, so they're only
+		// resolved once all the words are read
+		List<String> lookup = new ArrayList<String>();
+		List<String> words = new ArrayList<String>();
+		List<MorphData> values = new ArrayList<MorphData>();
+		List<int[]> stems = new ArrayList<int[]>();
+
+		while (reader.next())
+		{
+			String word = reader.getWord();
+			lookup.add(word);
+
+			MorphData data = new MorphData();
+			data.setPrefixes(reader.getPrefixes()); // Prefix hint byte
+			data.setDescFlags(reader.getDescFlags());
+			// Note: What HSpell call "stems", which we define as lemmas
+			int[] wordStems = reader.getStems();
+			if (filter != null)
 			{
-				GZIPInputStream fprefixes = new GZIPInputStream(new FileInputStream(path + Constants.PrefixesFile));
-				try
+				int accepted = 0;
+				for (int d = 0; d < wordStems.length; d++)
 				{
-					DictRadix<MorphData> ret = new DictRadix<MorphData>();
-
-					for (int i = 0; lookup[i] != null; i++)
+					if (filter.accept(data.getDescFlags()[d]))
 					{
-						MorphData data = new MorphData();
-						//data.Prefixes = Byte.parseByte(fprefixes.ReadByte()); // Read prefix hint byte
-						data.setPrefixes(fprefixes.read()); // Read prefix hint byte
-						data.setDescFlags(dataLoader.readDescFile());
-
-						List<Integer> stemReferences = dataLoader.readStemFile();
-						data.setLemmas(new String[stemReferences.size()]);
-						int stemPosition = 0;
-						for (int r : stemReferences)
-						{
-							// This is a bypass for the psuedo-stem "שונות", as defined by hspell
-							// TODO: Try looking into changing this in hspell itself
-							if (lookup[r].equals("שונות") && !lookup[r].equals(lookup[i]))
-							{
-								data.getLemmas()[stemPosition++] = null;
-							}
-							else
-							{
-								data.getLemmas()[stemPosition++] = lookup[r];
-
-								//Igal: add Plural (רבים) without Pronominal (כינוי)
-								if( (data.getDescFlags()[stemPosition-1]&(Constants.DMask.D_NUMMASK))>0 && 
-										(data.getDescFlags()[stemPosition-1]&(Constants.DMask.D_NOUN))>0 &&
-										(data.getDescFlags()[stemPosition-1]&(Constants.DMask.D_GENDERMASK))>0 &&
-										(data.getDescFlags()[stemPosition-1]&(Constants.DMask.D_OMASK))==0 )  {
-
-									CustomRelation relation = new CustomRelation();
-									relation.word = lookup[i];
-									relation.to = lookup[r];
-									relation.mask = data.getDescFlags()[stemPosition-1];
-									customRelations.add(relation);
-								}
-
-							}
-						}
-						ret.addNode(lookup[i], data);
-					}
-
-					for (CustomRelation relation : customRelations) {
-						MorphData subData = ret.lookup(relation.to);
-						if( subData!=null ) {
-							String[] subLemmas = new String[subData.getLemmas().length+1];
-							System.arraycopy(subData.getLemmas(), 0, subLemmas, 0, subData.getLemmas().length);
-							subLemmas[subData.getLemmas().length]=relation.word;
-							subData.setLemmas(subLemmas);
-
-							Integer[] subFlags = new Integer[subData.getDescFlags().length+1];
-							System.arraycopy(subData.getDescFlags(), 0, subFlags, 0, subData.getDescFlags().length);
-							subFlags[subData.getDescFlags().length]=relation.mask;
-							subData.setDescFlags(subFlags);
-						}
+						data.getDescFlags()[accepted] = data.getDescFlags()[d];
+						wordStems[accepted++] = wordStems[d];
 					}
-					return ret;
 				}
-				finally
+				if (accepted == 0)
 				{
-					fprefixes.close();
+					continue;
 				}
+				data.setDescFlags(Arrays.copyOf(data.getDescFlags(), accepted));
+				wordStems = Arrays.copyOf(wordStems, accepted);
 			}
-			finally
-			{
-				dataLoader.dispose();
-			}
+			words.add(word);
+			values.add(data);
+			stems.add(wordStems);
 		}
-		else // Use optimized version for loading HSpell's dictionary files
-		{
 
-			GZIPInputStream fdict = new GZIPInputStream(new FileInputStream(path + Constants.DictionaryFile));
-			try
+		for (int i = 0; i < values.size(); i++)
+		{
+			MorphData data = values.get(i);
+			int[] wordStems = stems.get(i);
+			stems.set(i, null);
+			data.setLemmas(new String[wordStems.length]);
+			int stemPosition = 0;
+			for (int r : wordStems)
 			{
-				GZIPInputStream fprefixes = new GZIPInputStream(new FileInputStream(path + Constants.PrefixesFile));
-				try
+				// This is a bypass for the psuedo-stem "שונות", as defined by hspell
+				// TODO: Try looking into changing this in hspell itself
+				if (lookup.get(r).equals("שונות") && !lookup.get(r).equals(words.get(i)))
 				{
-					DictRadix<MorphData> ret = new DictRadix<MorphData>();
-
-					char[] sbuf = new char[Constants.MaxWordLength];
-					int c = 0, n, slen = 0;
-					while ((c = fdict.read()) > -1)
-					{
-						if ((c >= '0') && (c <= '9')) // No conversion required for chars < 0xBE
-						{
-							// new word - finalize old word first (set value)
-							sbuf[slen] = '\0';
-
-							// TODO: Avoid creating new MorphData object, and enhance DictRadix to store
-							// the prefixes mask in the node itself
-							MorphData data = new MorphData();
-							data.setPrefixes(fprefixes.read()); // Read prefix hint byte
-							ret.addNode(sbuf, data);
-
-							// and read how much to go back
-							n = 0;
-							do
-							{
-								// base 10...
-								n *= 10;
-								n += (c - '0');
-							} while (((c = fdict.read()) > -1) && (c >= '0') && (c <= '9'));
-							slen -= n;
-						}
-						sbuf[slen++] = ISO8859_To_Unicode(c);
-					}
-
-					return ret;
+					data.getLemmas()[stemPosition++] = null;
 				}
-				finally
+				else
 				{
-					fprefixes.close();
+					data.getLemmas()[stemPosition++] = lookup.get(r);
+
+					//Igal: add Plural (רבים) without Pronominal (כינוי)
+					if( bAddPluralRelations &&
+							(data.getDescFlags()[stemPosition-1]&(Constants.DMask.D_NUMMASK))>0 && 
+							(data.getDescFlags()[stemPosition-1]&(Constants.DMask.D_NOUN))>0 &&
+							(data.getDescFlags()[stemPosition-1]&(Constants.DMask.D_GENDERMASK))>0 &&
+							(data.getDescFlags()[stemPosition-1]&(Constants.DMask.D_OMASK))==0 )  {
+
+						CustomRelation relation = new CustomRelation();
+						relation.word = words.get(i);
+						relation.to = lookup.get(r);
+						relation.mask = data.getDescFlags()[stemPosition-1];
+						customRelations.add(relation);
+					}
 				}
 			}
-			finally
-			{
-				fdict.close();
+		}
+		// hspell lists the words sorted, so this is a single pass with no node splits
+		DictRadix<MorphData> ret = DictRadixBuilder.build(words, values);
+
+		addCustomRelations(ret, customRelations);
+		new MorphDataPool().compact(ret);
+		return ret;
+	}
+
+	/**
+	 Adds the lemma and mask of every relation to the analyses of the word it relates to. The arrays of
+	 each such word are grown once for all of its relations.
+	*/
+	private static void addCustomRelations(DictRadix<MorphData> dict, List<CustomRelation> customRelations)
+	{
+		Map<String, List<CustomRelation>> relationsByWord = new HashMap<String, List<CustomRelation>>();
+		for (CustomRelation relation : customRelations) {
+			List<CustomRelation> relations = relationsByWord.get(relation.to);
+			if (relations == null) {
+				relations = new ArrayList<CustomRelation>(2);
+				relationsByWord.put(relation.to, relations);
+			}
+			relations.add(relation);
+		}
+
+		for (Map.Entry<String, List<CustomRelation>> entry : relationsByWord.entrySet()) {
+			MorphData subData = dict.lookup(entry.getKey());
+			if( subData!=null ) {
+				int lemmasLength = subData.getLemmas().length, flagsLength = subData.getDescFlags().length;
+				String[] subLemmas = Arrays.copyOf(subData.getLemmas(), lemmasLength + entry.getValue().size());
+				int[] subFlags = Arrays.copyOf(subData.getDescFlags(), flagsLength + entry.getValue().size());
+				for (CustomRelation relation : entry.getValue()) {
+					subLemmas[lemmasLength++] = relation.word;
+					subFlags[flagsLength++] = relation.mask;
+				}
+				subData.setLemmas(subLemmas);
+				subData.setDescFlags(subFlags);
 			}
 		}
 	}
 
-	public static DictRadix<MorphData> loadDictionaryFromHSpellFolder(ClassLoader classLoader,String packagePath, boolean bLoadMorphData) throws IOException 
+	/**
+	 Builds a dictionary of the words alone, sharing one value per prefix mask
+
+	 @param valuesByMask The value of words with each mask
+	*/
+	private static <T> DictRadix<T> buildPrefixMasks(HSpellReader reader, T[] valuesByMask) throws IOException
 	{
-		if (bLoadMorphData)
+		// The words in the dictionary file are sorted
+		DictRadixBuilder<T> builder = new DictRadixBuilder<T>();
+		while (reader.next())
 		{
-			//sync with Git repository (comment old and add new method)
-			//			// Load the count of morphologic data slots required
-			//			String sizesFile = readFileToString(new File(path + Constants.SizesFile));
-			//			int lookupLen = sizesFile.indexOf(' ', sizesFile.indexOf('\n'));
-			//			lookupLen = Integer.parseInt(sizesFile.substring(lookupLen + 1).trim());
+			// The hints may run out before the words do; words past their end take any prefix, as they do
+			// when loaded with their morphologic data (with a mask of -1)
+			int prefixes = reader.getPrefixes();
+			builder.add(reader.getWordChars(), 0, reader.getWordLength(),
+					valuesByMask[(prefixes < 0) ? Constants.PrefixType.PS_ALL : prefixes]);
+		}
+		return builder.build();
+	}
 
-			List<CustomRelation> customRelations = new LinkedList<Loader.CustomRelation>();
+	/**
+	 @return A MorphData with no lemmas for each prefix mask, shared by all the words having it
+	*/
+	private static MorphData[] createPrefixMaskData()
+	{
+		MorphData[] ret = new MorphData[256];
+		for (int mask = 0; mask < ret.length; mask++)
+		{
+			ret[mask] = new MorphData();
+			ret[mask].setPrefixes(mask);
+			ret[mask].setLemmas(new String[0]);
+			ret[mask].setDescFlags(new int[0]);
+		}
+		return ret;
+	}
 
-			int lookupLen = getWordCountInHSpellFolder(classLoader,packagePath);
-			String[] lookup = new String[lookupLen + 1];
+	private static Byte[] createPrefixMasks()
+	{
+		Byte[] ret = new Byte[256];
+		for (int mask = 0; mask < ret.length; mask++)
+		{
+			ret[mask] = (byte)mask;
+		}
+		return ret;
+	}
 
-			GZIPInputStream fdict = new GZIPInputStream(classLoader.getResourceAsStream(packagePath + Constants.DictionaryFile));
-			try
-			{
-				char[] sbuf = new char[Constants.MaxWordLength];
-				int c = 0, n, slen = 0, i = 0;
-				while ((c = fdict.read()) > -1)
-				{
-					if ((c >= '0') && (c <= '9')) // No conversion required for chars < 0xBE
-					{
-						// new word - finalize and save old word
-						lookup[i++] = new String(sbuf, 0, slen);
-
-						// and read how much to go back
-						n = 0;
-						do
-						{
-							// base 10...
-							n *= 10;
-							n += (c - '0');
-						} while (((c = fdict.read()) > -1) && (c >= '0') && (c <= '9'));
-						slen -= n;
-					}
-					sbuf[slen++] = ISO8859_To_Unicode(c);
-				}
-			}
-			finally
-			{
-				fdict.close();
-			}
+	/**
+	 Loads only the words and the prefixes each of them can take, for word existence and prefix legality
+	 checks (Lemmatizer.haveLemmas()). The prefix mask is kept in a byte per node, so no object is kept per
+	 word; lookups return a shared MorphData with no lemmas.
+	*/
+	public static FrozenMaskRadix<MorphData> loadPrefixMaskDictionaryFromHSpellFolder(String path) throws IOException
+	{
+		if (path.charAt(path.length() - 1) != File.separatorChar)
+		{
+			path += File.separatorChar;
+		}
 
-			MorphDataLoader dataLoader = new MorphDataLoader(
-					classLoader.getResourceAsStream(packagePath + Constants.DescFile),
-					classLoader.getResourceAsStream(packagePath + Constants.StemsFile));
-			try
-			{
-				GZIPInputStream fprefixes = new GZIPInputStream(classLoader.getResourceAsStream(packagePath + Constants.PrefixesFile));
-				try
-				{
-					DictRadix<MorphData> ret = new DictRadix<MorphData>();
+		return loadPrefixMasks(HSpellReader.folder(path));
+	}
 
-					for (int i = 0; lookup[i] != null; i++)
-					{
-						MorphData data = new MorphData();
-						//data.Prefixes = Byte.parseByte(fprefixes.ReadByte()); // Read prefix hint byte
-						data.setPrefixes(fprefixes.read()); // Read prefix hint byte
-						data.setDescFlags(dataLoader.readDescFile());
-
-						List<Integer> stemReferences = dataLoader.readStemFile();
-						data.setLemmas(new String[stemReferences.size()]);
-						int stemPosition = 0;
-						for (int r : stemReferences)
-						{
-							// This is a bypass for the psuedo-stem "שונות", as defined by hspell
-							// TODO: Try looking into changing this in hspell itself
-							if (lookup[r].equals("שונות") && !lookup[r].equals(lookup[i]))
-							{
-								data.getLemmas()[stemPosition++] = null;
-							}
-							else
-							{
-								data.getLemmas()[stemPosition++] = lookup[r];
-
-//								int mask = data.getDescFlags()[stemPosition-1];
-//								//Igal: add Plural (רבים) without Pronominal (כינוי)
-//								if( /*(data.getDescFlags()[stemPosition-1]&(Constants.DMask.D_NUMMASK))>0 && 
-//									(data.getDescFlags()[stemPosition-1]&(Constants.DMask.D_NOUN))>0 &&
-//									(data.getDescFlags()[stemPosition-1]&(Constants.DMask.D_GENDERMASK))>0 &&
-//									(data.getDescFlags()[stemPosition-1]&(Constants.DMask.D_OMASK))==0*/
-//									((mask&(DMask.D_NOUN+DMask.D_NUMMASK+DMask.D_ONUMMASK+DMask.D_GENDERMASK+DMask.D_OGENDERMASK))>0 ) ||
-//									((mask&DMask.D_VERB+DMask.D_IMPERATIVE+DMask.D_INFINITIVE+DMask.D_BINFINITIVE)>0) ||
-//									((mask&DMask.D_ADJ)>0 )
-//								)  {
-//
-//									CustomRelation relation = new CustomRelation();
-//									relation.word = lookup[i];
-//									relation.to = lookup[r];
-//									relation.mask = data.getDescFlags()[stemPosition-1];
-//									customRelations.add(relation);
-//								}
-
-							}
-						}
-						ret.addNode(lookup[i], data);
-					}
+	public static FrozenMaskRadix<MorphData> loadPrefixMaskDictionaryFromHSpellFolder(ClassLoader classLoader,String packagePath) throws IOException
+	{
+		return loadPrefixMasks(HSpellReader.classLoader(classLoader, packagePath));
+	}
 
-					for (CustomRelation relation : customRelations) {
-						MorphData subData = ret.lookup(relation.to);
-						if( subData!=null ) {
-							String[] subLemmas = new String[subData.getLemmas().length+1];
-							System.arraycopy(subData.getLemmas(), 0, subLemmas, 0, subData.getLemmas().length);
-							subLemmas[subData.getLemmas().length]=relation.word;
-							subData.setLemmas(subLemmas);
-
-							Integer[] subFlags = new Integer[subData.getDescFlags().length+1];
-							System.arraycopy(subData.getDescFlags(), 0, subFlags, 0, subData.getDescFlags().length);
-							subFlags[subData.getDescFlags().length]=relation.mask;
-							subData.setDescFlags(subFlags);
-						}
-					}
-					return ret;
-				}
-				finally
-				{
-					fprefixes.close();
-				}
-			}
-			finally
-			{
-				dataLoader.dispose();
-			}
+	private static FrozenMaskRadix<MorphData> loadPrefixMasks(HSpellReader.Source source) throws IOException
+	{
+		HSpellReader reader = HSpellReader.open(source, false);
+		try
+		{
+			return new FrozenMaskRadix<MorphData>(buildPrefixMasks(reader, createPrefixMasks()), createPrefixMaskData());
 		}
-		else // Use optimized version for loading HSpell's dictionary files
+		finally
 		{
+			reader.close();
+		}
+	}
 
-			GZIPInputStream fdict = new GZIPInputStream(classLoader.getResourceAsStream(packagePath + Constants.DictionaryFile));
-			try
-			{
-				GZIPInputStream fprefixes = new GZIPInputStream(classLoader.getResourceAsStream(packagePath + Constants.PrefixesFile));
-				try
-				{
-					DictRadix<MorphData> ret = new DictRadix<MorphData>();
+	/**
+	 Loads the dictionary and packs it into a read-only FrozenDictRadix
+	*/
+	public static FrozenDictRadix<MorphData> loadFrozenDictionaryFromHSpellFolder(String path, boolean bLoadMorphData) throws IOException
+	{
+		return new FrozenDictRadix<MorphData>(loadDictionaryFromHSpellFolder(path, bLoadMorphData));
+	}
 
-					char[] sbuf = new char[Constants.MaxWordLength];
-					int c = 0, n, slen = 0;
-					while ((c = fdict.read()) > -1)
-					{
-						if ((c >= '0') && (c <= '9')) // No conversion required for chars < 0xBE
-						{
-							// new word - finalize old word first (set value)
-							sbuf[slen] = '\0';
-
-							// TODO: Avoid creating new MorphData object, and enhance DictRadix to store
-							// the prefixes mask in the node itself
-							MorphData data = new MorphData();
-							data.setPrefixes(fprefixes.read()); // Read prefix hint byte
-							ret.addNode(sbuf, data);
-
-							// and read how much to go back
-							n = 0;
-							do
-							{
-								// base 10...
-								n *= 10;
-								n += (c - '0');
-							} while (((c = fdict.read()) > -1) && (c >= '0') && (c <= '9'));
-							slen -= n;
-						}
-						sbuf[slen++] = ISO8859_To_Unicode(c);
-					}
+	public static FrozenDictRadix<MorphData> loadFrozenDictionaryFromHSpellFolder(ClassLoader classLoader,String packagePath, boolean bLoadMorphData) throws IOException
+	{
+		return new FrozenDictRadix<MorphData>(loadDictionaryFromHSpellFolder(classLoader, packagePath, bLoadMorphData));
+	}
 
-					return ret;
-				}
-				finally
-				{
-					fprefixes.close();
-				}
-			}
-			finally
-			{
-				fdict.close();
-			}
-		}
+	/**
+	 Loads the dictionary, keeping the lemmas and masks of its words compressed until they are used
+	*/
+	public static CompressedMorphDictionary loadCompressedDictionaryFromHSpellFolder(String path) throws IOException
+	{
+		return new CompressedMorphDictionary(loadDictionaryFromHSpellFolder(path, true));
+	}
+
+	public static CompressedMorphDictionary loadCompressedDictionaryFromHSpellFolder(ClassLoader classLoader,String packagePath) throws IOException
+	{
+		return new CompressedMorphDictionary(loadDictionaryFromHSpellFolder(classLoader, packagePath, true));
+	}
+
+	/**
+	 Loads the dictionary into a minimal automaton, sharing word suffixes as well as prefixes
+	*/
+	public static DictDawg<MorphData> loadDawgFromHSpellFolder(String path, boolean bLoadMorphData) throws IOException
+	{
+		return new DictDawg<MorphData>(loadDictionaryFromHSpellFolder(path, bLoadMorphData));
+	}
+
+	public static DictDawg<MorphData> loadDawgFromHSpellFolder(ClassLoader classLoader,String packagePath, boolean bLoadMorphData) throws IOException
+	{
+		return new DictDawg<MorphData>(loadDictionaryFromHSpellFolder(classLoader, packagePath, bLoadMorphData));
 	}
 
 	// Mapping is based on
 	// http://www.unicode.org/Public/MAPPINGS/ISO8859/8859-8.TXT
 	// 0xDF, 0xFD, 0xFE aren't converted
-	private static char ISO8859_To_Unicode(int c)
+	static char ISO8859_To_Unicode(int c)
 	{
 		if ((c >= 0xE0) && (c <= 0xFA))
 		{
@@ -0,0 +1,826 @@
+/**************************************************************************
+ *   Copyright (C) 2010 by                                                 *
+ *      Itamar Syn-Hershko <itamar at code972 dot com>                     *
+ *		Ofer Fort <oferiko at gmail dot com>							   *
+ *                                                                         *
+ *   Distributed under the GNU General Public License, Version 2.0.        *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation (v2).                                    *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   51 Franklin Steet, Fifth Floor, Boston, MA  02111-1307, USA.          *
+ **************************************************************************/
+package hebmorph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import hebmorph.datastructures.DictDawg;
+import hebmorph.datastructures.DictLookup;
+import hebmorph.datastructures.DictRadix;
+import hebmorph.datastructures.DictRadixBuilder;
+import hebmorph.datastructures.FrozenDictRadix;
+import hebmorph.datastructures.LayeredDictLookup;
+import hebmorph.datastructures.LookupResult;
+import hebmorph.hspell.CompressedMorphDictionary;
+import hebmorph.hspell.Constants;
+import hebmorph.hspell.DictionaryImage;
+import hebmorph.hspell.Loader;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ Checks the lookups of the dictionary implementations against each other, over a sample of the hspell words
+*/
+public class DictLookupTest
+{
+	public static String hspellPath = "../../hspell-data-files";
+
+	private static DictRadix<MorphData> m_dict;
+	// Every 200th word of the dictionary
+	private static List<String> m_words;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception
+	{
+		DictRadix<MorphData> loaded = Loader.loadDictionaryFromHSpellFolder(hspellPath, true);
+		m_dict = new DictRadix<MorphData>();
+		m_words = new ArrayList<String>();
+		DictLookup.KeyEnumerator<MorphData> en = loaded.iterator();
+		for (int i = 0; en.hasNext(); i++)
+		{
+			MorphData md = en.next();
+			if (i % 200 == 0)
+			{
+				m_words.add(en.getCurrentKey());
+				m_dict.addNode(en.getCurrentKey(), md);
+			}
+		}
+	}
+
+	/**
+	 The words tolerant lookups are tried with: the sample words, and each of them with one of its vavs or
+	 yuds dropped, as a word spelled without em kriya would be
+	*/
+	private static List<String> tolerantKeys()
+	{
+		List<String> ret = new ArrayList<String>();
+		for (String word : m_words)
+		{
+			ret.add(word);
+			for (int i = 1; i < word.length(); i++)
+			{
+				if ((word.charAt(i) == 'ו') || (word.charAt(i) == 'י'))
+				{
+					ret.add(word.substring(0, i) + word.substring(i + 1));
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 @return The words found and their scores, leaving out those with ignored as their value
+	*/
+	private static Map<String, Float> scores(List<LookupResult<MorphData>> results, MorphData ignored)
+	{
+		Map<String, Float> ret = new TreeMap<String, Float>();
+		if (results != null)
+		{
+			for (LookupResult<MorphData> result : results)
+			{
+				if (result.getData() != ignored)
+				{
+					ret.put(result.getWord(), result.getScore());
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 @return m_dict and the read-only dictionaries built from it
+	*/
+	private static List<DictLookup<MorphData>> implementations()
+	{
+		List<DictLookup<MorphData>> ret = new ArrayList<DictLookup<MorphData>>();
+		ret.add(m_dict);
+		ret.add(new FrozenDictRadix<MorphData>(m_dict));
+		ret.add(new DictDawg<MorphData>(m_dict));
+		ret.add(new CompressedMorphDictionary(m_dict));
+		ret.add(new LayeredDictLookup<MorphData>(Arrays.<DictLookup<MorphData>>asList(
+				new DictRadix<MorphData>(), m_dict)));
+		return ret;
+	}
+
+	/**
+	 The words exact lookups are tried with: the sample words, and each of them with its last char dropped,
+	 which mostly isn't a word
+	*/
+	private static List<String> exactKeys()
+	{
+		List<String> ret = new ArrayList<String>();
+		for (String word : m_words)
+		{
+			ret.add(word);
+			ret.add(word.substring(0, word.length() - 1));
+		}
+		return ret;
+	}
+
+	/**
+	 MorphData.equals() leaves out the prefixes, which the lookups must return as well, and tells the
+	 MorphData of CompressedMorphDictionary, which decode their arrays on demand, from those it's built from
+	*/
+	private static void assertSameData(String message, MorphData expected, MorphData actual)
+	{
+		assertEquals(message, expected == null, actual == null);
+		if (expected != null)
+		{
+			assertEquals(message, expected.getPrefixes(), actual.getPrefixes());
+			assertEquals(message, Arrays.toString(expected.getDescFlags()), Arrays.toString(actual.getDescFlags()));
+			assertEquals(message, Arrays.toString(expected.getLemmas()), Arrays.toString(actual.getLemmas()));
+		}
+	}
+
+	/**
+	 Asserts that actual has the words of expected, in the same order, with the same scores and data
+	*/
+	private static void assertSameResults(String message, List<LookupResult<MorphData>> expected,
+			List<LookupResult<MorphData>> actual)
+	{
+		assertEquals(message, (expected == null) ? 0 : expected.size(), (actual == null) ? 0 : actual.size());
+		for (int i = 0; (expected != null) && (i < expected.size()); i++)
+		{
+			assertEquals(message, expected.get(i).getWord(), actual.get(i).getWord());
+			assertEquals(message, expected.get(i).getScore(), actual.get(i).getScore(), 0f);
+			assertSameData(message, expected.get(i).getData(), actual.get(i).getData());
+		}
+	}
+
+	/**
+	 Asserts that dict finds what m_dict does, exactly and with the em kriya tolerators
+	*/
+	private static void assertFindsWhatRadixDoes(DictLookup<MorphData> dict)
+	{
+		for (String key : exactKeys())
+		{
+			assertSameData(dict.getClass().getSimpleName() + " " + key, m_dict.lookup(key), dict.lookup(key));
+		}
+		for (String key : tolerantKeys())
+		{
+			assertSameResults(dict.getClass().getSimpleName() + " " + key,
+					m_dict.lookupTolerant(key, LookupTolerators.EmKryiaTolerators),
+					dict.lookupTolerant(key, LookupTolerators.EmKryiaTolerators));
+		}
+	}
+
+	/**
+	 The array-packed dictionaries find what the DictRadix they're built from does
+	*/
+	@Test
+	public void packedFindWhatRadixDoes()
+	{
+		assertFindsWhatRadixDoes(new FrozenDictRadix<MorphData>(m_dict));
+		assertFindsWhatRadixDoes(new CompressedMorphDictionary(m_dict));
+	}
+
+	/**
+	 The automaton finds what the DictRadix it's built from does
+	*/
+	@Test
+	public void dawgFindsWhatRadixDoes()
+	{
+		assertFindsWhatRadixDoes(new DictDawg<MorphData>(m_dict));
+	}
+
+	/**
+	 The loader shares the equal lemmas, lemma arrays and mask arrays of the dictionary, each as a single
+	 object
+	*/
+	@Test
+	public void loadedDataShared()
+	{
+		Map<String, String> lemmas = new HashMap<String, String>();
+		Map<List<String>, String[]> lemmaArrays = new HashMap<List<String>, String[]>();
+		Map<String, int[]> maskArrays = new HashMap<String, int[]>();
+		for (String word : m_words)
+		{
+			MorphData md = m_dict.lookup(word);
+			String[] lemmaArray = md.getLemmas();
+			String[] shared = lemmaArrays.get(Arrays.asList(lemmaArray));
+			if (shared == null)
+			{
+				lemmaArrays.put(Arrays.asList(lemmaArray), lemmaArray);
+				for (String lemma : lemmaArray)
+				{
+					if ((lemma != null) && !lemmas.containsKey(lemma))
+					{
+						lemmas.put(lemma, lemma);
+					}
+					assertTrue(lemma, (lemma == null) || (lemmas.get(lemma) == lemma));
+				}
+			}
+			else
+			{
+				assertTrue(word, shared == lemmaArray);
+			}
+
+			int[] masks = md.getDescFlags();
+			int[] sharedMasks = maskArrays.get(Arrays.toString(masks));
+			if (sharedMasks == null)
+			{
+				maskArrays.put(Arrays.toString(masks), masks);
+			}
+			else
+			{
+				assertTrue(word, sharedMasks == masks);
+			}
+		}
+	}
+
+	/**
+	 Asserts that the nodes under expected and actual have the same keys (the root's is null), values (the
+	 very same objects) and children, in the same order
+	*/
+	private static <T> void assertSameNodes(DictRadix<T>.DictNode expected, DictRadix<T>.DictNode actual)
+	{
+		String key = (expected.getKey() == null) ? "" : new String(expected.getKey());
+		assertEquals(key, (actual.getKey() == null) ? "" : new String(actual.getKey()));
+		assertTrue(key, expected.getValue() == actual.getValue());
+		int count = (expected.getChildren() == null) ? 0 : expected.getChildren().length;
+		assertEquals(key, count, (actual.getChildren() == null) ? 0 : actual.getChildren().length);
+		for (int i = 0; i < count; i++)
+		{
+			assertSameNodes(expected.getChildren()[i], actual.getChildren()[i]);
+		}
+	}
+
+	/**
+	 Whatever the order of the keys, DictRadixBuilder builds the radix addNode does, node for node
+	*/
+	@Test
+	public void builderBuildsWhatAddNodeDoes()
+	{
+		List<MorphData> values = new ArrayList<MorphData>();
+		for (String word : m_words)
+		{
+			values.add(m_dict.lookup(word));
+		}
+		List<Integer> order = new ArrayList<Integer>();
+		for (int i = 0; i < m_words.size(); i++)
+		{
+			order.add(i);
+		}
+		Collections.shuffle(order, new Random(0));
+		List<String> shuffled = new ArrayList<String>();
+		List<MorphData> shuffledValues = new ArrayList<MorphData>();
+		for (int i : order)
+		{
+			shuffled.add(m_words.get(i));
+			shuffledValues.add(values.get(i));
+		}
+
+		DictRadix<MorphData> addedShuffled = new DictRadix<MorphData>();
+		for (int i = 0; i < shuffled.size(); i++)
+		{
+			addedShuffled.addNode(shuffled.get(i), shuffledValues.get(i));
+		}
+		DictRadix<MorphData> built = DictRadixBuilder.build(m_words, values);
+		DictRadix<MorphData> builtShuffled = DictRadixBuilder.build(shuffled, shuffledValues);
+		assertSameNodes(m_dict.getRootNode(), addedShuffled.getRootNode());
+		assertSameNodes(m_dict.getRootNode(), built.getRootNode());
+		assertSameNodes(m_dict.getRootNode(), builtShuffled.getRootNode());
+		assertEquals(m_dict.getCount(), built.getCount());
+		assertEquals(m_dict.getCount(), builtShuffled.getCount());
+	}
+
+	/**
+	 Dispatching on Hebrew letters finds what a map of the words does - every word, and none of the keys
+	 which aren't, also when they have other chars
+	*/
+	@Test
+	public void lookupsMatchMap()
+	{
+		Map<String, MorphData> all = new HashMap<String, MorphData>();
+		for (String word : m_words)
+		{
+			all.put(word, m_dict.lookup(word));
+		}
+		List<DictLookup<MorphData>> dicts = new ArrayList<DictLookup<MorphData>>();
+		dicts.add(m_dict);
+		dicts.add(new FrozenDictRadix<MorphData>(m_dict));
+		for (DictLookup<MorphData> dict : dicts)
+		{
+			for (String key : exactKeys())
+			{
+				for (String checked : new String[] { key, key + "'", "a" + key, key.substring(0, 1) + "a" + key.substring(1) })
+				{
+					assertTrue(dict.getClass().getSimpleName() + " " + checked, dict.lookup(checked) == all.get(checked));
+				}
+			}
+		}
+	}
+
+	/**
+	 A word looked up in the middle of a buffer, with letters of the dictionary on both of its sides,
+	 is found the same as it is by itself
+	*/
+	@Test
+	public void lookupInBuffer()
+	{
+		for (DictLookup<MorphData> dict : implementations())
+		{
+			for (String key : exactKeys())
+			{
+				String buffer = "שלום" + key + "ה\0אב";
+				char[] chars = buffer.toCharArray();
+				assertSameData(dict.getClass().getSimpleName() + " " + key, dict.lookup(key),
+						dict.lookup(chars, 4, key.length()));
+			}
+		}
+	}
+
+	/**
+	 CharSequences other than String are looked up by their chars, whatever their class
+	*/
+	@Test
+	public void lookupCharSequence()
+	{
+		for (DictLookup<MorphData> dict : implementations())
+		{
+			for (String key : exactKeys())
+			{
+				String name = dict.getClass().getSimpleName() + " " + key;
+				MorphData expected = dict.lookup(key);
+				assertSameData(name, expected, dict.lookup(new StringBuilder(key)));
+				assertSameData(name, expected, dict.lookup(CharBuffer.wrap("שלום" + key + "ה", 4, 4 + key.length())));
+				assertSameData(name, expected, dict.lookup((CharSequence)key));
+			}
+		}
+	}
+
+	/**
+	 Adding every prefix of the words as a word of its own splits the keys of the nodes into single chars,
+	 which mustn't change what the tolerators find
+	*/
+	@Test
+	public void tolerantLookupIgnoresNodeSplits()
+	{
+		MorphData prefix = new MorphData();
+		DictRadix<MorphData> split = new DictRadix<MorphData>();
+		for (String word : m_words)
+		{
+			split.addNode(word, m_dict.lookup(word));
+		}
+		for (String word : m_words)
+		{
+			for (int i = 1; i < word.length(); i++)
+			{
+				if (split.lookup(word.substring(0, i)) == null)
+				{
+					split.addNode(word.substring(0, i), prefix);
+				}
+			}
+		}
+
+		List<DictLookup<MorphData>> dicts = new ArrayList<DictLookup<MorphData>>();
+		dicts.add(split);
+		dicts.add(new FrozenDictRadix<MorphData>(split));
+		dicts.add(new DictDawg<MorphData>(split));
+		for (String key : tolerantKeys())
+		{
+			Map<String, Float> expected = scores(m_dict.lookupTolerant(key, LookupTolerators.EmKryiaTolerators), null);
+			for (DictLookup<MorphData> dict : dicts)
+			{
+				assertEquals(dict.getClass().getSimpleName() + " " + key, expected,
+						scores(dict.lookupTolerant(key, LookupTolerators.EmKryiaTolerators), prefix));
+			}
+		}
+	}
+
+	/**
+	 @return The tolerant results of key in a dictionary of words, with each implementation that crawls
+	*/
+	private static List<Map<String, Float>> tolerantIn(String key, String... words)
+	{
+		DictRadix<MorphData> dict = new DictRadix<MorphData>();
+		for (String word : words)
+		{
+			dict.addNode(word, new MorphData());
+		}
+		List<Map<String, Float>> ret = new ArrayList<Map<String, Float>>();
+		ret.add(scores(dict.lookupTolerant(key, LookupTolerators.EmKryiaTolerators), null));
+		ret.add(scores(new FrozenDictRadix<MorphData>(dict).lookupTolerant(key, LookupTolerators.EmKryiaTolerators), null));
+		ret.add(scores(new DictDawg<MorphData>(dict).lookupTolerant(key, LookupTolerators.EmKryiaTolerators), null));
+		return ret;
+	}
+
+	private static void assertTolerant(Map<String, Float> expected, String key, String... words)
+	{
+		for (Map<String, Float> actual : tolerantIn(key, words))
+		{
+			assertEquals(key, expected, actual);
+		}
+	}
+
+	private static Map<String, Float> found(String word, float score)
+	{
+		Map<String, Float> ret = new TreeMap<String, Float>();
+		ret.put(word, score);
+		return ret;
+	}
+
+	/**
+	 Inside nodes of more than one char, the crawlers used to give the tolerators the key position and
+	 word of the start of the node. They then reported words which aren't in the dictionary, and missed
+	 real spellings whose Yud or Vav falls inside a node; these are results that changed when that was fixed
+	*/
+	@Test
+	public void tolerantLookupInsideNodes()
+	{
+		// Used to find הבטחוך as well, at 0.6
+		assertTolerant(found("הבטיחוך", 1.0f), "הבטיחוך", "הבטחה", "הבטיחוך");
+		// Used to find אלכמיות as well, at 0.6
+		assertTolerant(found("אלכימיות", 1.0f), "אלכימיות", "אלכימיות", "אלכמ");
+		// Used to find nothing
+		assertTolerant(found("אנכרוניסטית", 0.8f), "אנכרונסטית", "אנכרוניסטית");
+		assertTolerant(found("דוקטרינתו", 0.8f), "דוקטרנתו", "דוקטרינתו");
+		assertTolerant(found("ברווזותיהן", 0.8f), "ברווזותהן", "ברווזותיהן");
+	}
+
+	/**
+	 The skeleton index of each implementation finds what crawling it does, with the same scores and in
+	 the same order
+	*/
+	@Test
+	public void skeletonIndexMatchesCrawl()
+	{
+		for (DictLookup<MorphData> dict : implementations())
+		{
+			SkeletonIndex index = new SkeletonIndex(dict);
+			for (String key : tolerantKeys())
+			{
+				assertSameResults(dict.getClass().getSimpleName() + " " + key,
+						dict.lookupTolerant(key, LookupTolerators.EmKryiaTolerators), index.lookupTolerant(key));
+			}
+		}
+	}
+
+	/**
+	 The em kriya tolerators as they were written before the Tolerator interface, with the Reference
+	 parameters of ToleranceFunction
+	*/
+	private static final LookupTolerators.ToleranceFunction[] LegacyEmKryiaFunctions = {
+			new LegacyEmKryiaYud(), new LegacyEmKryiaVav(), new LegacyNonDoubledConsonantVav() };
+
+	private static class LegacyEmKryiaYud implements LookupTolerators.ToleranceFunction
+	{
+		public Integer tolerate(char[] key, Reference<Byte> keyPos, String word, Reference<Float> score, char curChar)
+		{
+			if ((keyPos.ref == 0) || (key[keyPos.ref] == HebrewCharacters.VAV))
+			{
+				return null;
+			}
+
+			if (curChar != HebrewCharacters.YOD)
+			{
+				if ((key[keyPos.ref] == HebrewCharacters.YOD) && (key[keyPos.ref - 1] == HebrewCharacters.YOD))
+				{
+					score.ref *= 0.9f;
+					keyPos.ref++;
+					return 0;
+				}
+				if (key[keyPos.ref] == HebrewCharacters.YOD)
+				{
+					score.ref *= 0.6f;
+					keyPos.ref++;
+					return 0;
+				}
+				return null;
+			}
+
+			if (key[keyPos.ref] == HebrewCharacters.YOD)
+			{
+				return null;
+			}
+
+			if (word.charAt(word.length() - 1) == HebrewCharacters.YOD)
+			{
+				if ((key[keyPos.ref - 1] != HebrewCharacters.YOD) || ((keyPos.ref + 1 == key.length) && (key.length <= 3)))
+				{
+					return null;
+				}
+				score.ref *= 0.8f;
+				return 1;
+			}
+			else if (word.charAt(word.length() - 1) != HebrewCharacters.VAV)
+			{
+				score.ref *= 0.8f;
+				return 1;
+			}
+			return null;
+		}
+	}
+
+	private static class LegacyEmKryiaVav implements LookupTolerators.ToleranceFunction
+	{
+		public Integer tolerate(char[] key, Reference<Byte> keyPos, String word, Reference<Float> score, char curChar)
+		{
+			if ((curChar != HebrewCharacters.VAV) || (keyPos.ref == 0) || (keyPos.ref + 1 == key.length)
+					|| (key[keyPos.ref] == HebrewCharacters.YOD) || (key[keyPos.ref] == HebrewCharacters.HE)
+					|| (key[keyPos.ref] == HebrewCharacters.VAV))
+			{
+				return null;
+			}
+
+			char prevChar = word.charAt(word.length() - 1);
+			if ((key[keyPos.ref + 1] != HebrewCharacters.VAV) && (prevChar != HebrewCharacters.VAV)
+					&& (prevChar != HebrewCharacters.YOD))
+			{
+				score.ref *= 0.8f;
+				return 1;
+			}
+			return null;
+		}
+	}
+
+	private static class LegacyNonDoubledConsonantVav implements LookupTolerators.ToleranceFunction
+	{
+		public Integer tolerate(char[] key, Reference<Byte> keyPos, String word, Reference<Float> score, char curChar)
+		{
+			if ((curChar == HebrewCharacters.VAV) || (keyPos.ref == 0) || (keyPos.ref + 1 == key.length))
+			{
+				return null;
+			}
+
+			if ((key[keyPos.ref] == HebrewCharacters.VAV) && (word.charAt(word.length() - 1) == HebrewCharacters.VAV))
+			{
+				keyPos.ref++;
+				score.ref *= 0.8f;
+				return 0;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 The ToleranceFunctions, adapted to Tolerators, find the words the native Tolerators do, with the
+	 same scores
+	*/
+	@Test
+	public void adaptedFunctionsScoreAsTolerators()
+	{
+		LookupTolerators.Tolerator[] adapted = LookupTolerators.adapt(LegacyEmKryiaFunctions);
+		for (DictLookup<MorphData> dict : implementations())
+		{
+			for (String key : tolerantKeys())
+			{
+				String name = dict.getClass().getSimpleName() + " " + key;
+				Map<String, Float> expected = scores(dict.lookupTolerant(key, LookupTolerators.EmKryiaTolerators), null);
+				assertEquals(name, expected, scores(dict.lookupTolerant(key, adapted), null));
+				assertEquals(name, expected, scores(dict.lookupTolerant(key, LegacyEmKryiaFunctions), null));
+				assertEquals(name, expected, scores(dict.lookupTolerant(key, LookupTolerators.TolerateEmKryiaAll), null));
+			}
+		}
+	}
+
+	/**
+	 Skips a char of the key, scaling the score by factor
+	*/
+	private static class SkipKeyChar implements LookupTolerators.ToleranceFunction
+	{
+		private final char skipped;
+		private final float factor;
+
+		public SkipKeyChar(char skipped, float factor)
+		{
+			this.skipped = skipped;
+			this.factor = factor;
+		}
+
+		public Integer tolerate(char[] key, Reference<Byte> keyPos, String word, Reference<Float> score, char curChar)
+		{
+			if (key[keyPos.ref] != skipped)
+			{
+				return null;
+			}
+			score.ref *= factor;
+			keyPos.ref++;
+			return 0;
+		}
+	}
+
+	/**
+	 ToleranceFunctions whose paths converge find a word once, with the best score, whichever path is
+	 tried first
+	*/
+	@Test
+	public void adaptedConvergingFunctionsKeepBestScore()
+	{
+		DictRadix<MorphData> radix = new DictRadix<MorphData>();
+		radix.addNode("בית", new MorphData());
+		radix.addNode("ביתן", new MorphData());
+		List<DictLookup<MorphData>> dicts = Arrays.<DictLookup<MorphData>>asList(radix,
+				new FrozenDictRadix<MorphData>(radix), new DictDawg<MorphData>(radix));
+
+		LookupTolerators.ToleranceFunction better = new SkipKeyChar('ז', 0.9f);
+		LookupTolerators.ToleranceFunction worse = new SkipKeyChar('ז', 0.5f);
+		for (LookupTolerators.ToleranceFunction[] functions : Arrays.asList(
+				new LookupTolerators.ToleranceFunction[] { better, worse },
+				new LookupTolerators.ToleranceFunction[] { worse, better }))
+		{
+			for (DictLookup<MorphData> dict : dicts)
+			{
+				List<LookupResult<MorphData>> found = dict.lookupTolerant("ביזת", functions);
+				assertEquals(dict.getClass().getSimpleName(), 1, found.size());
+				assertEquals("בית", found.get(0).getWord());
+				assertEquals(0.9f, found.get(0).getScore(), 0);
+			}
+		}
+	}
+
+	/**
+	 Loading the hspell files through a ClassLoader finds what loading them from a folder does, but for
+	 the plural relations only folder loads add, after the analyses of each noun
+	*/
+	@Test
+	public void folderAndClassLoaderLoadsAgree() throws IOException
+	{
+		File folder = new File(hspellPath).getCanonicalFile();
+		ClassLoader classLoader = new URLClassLoader(new URL[] { folder.getParentFile().toURI().toURL() }, null);
+		String packagePath = folder.getName() + "/";
+
+		DictRadix<MorphData> fromFolder = Loader.loadDictionaryFromHSpellFolder(hspellPath, false);
+		DictRadix<MorphData> fromClassLoader = Loader.loadDictionaryFromHSpellFolder(classLoader, packagePath, false);
+		assertEquals(fromFolder.getCount(), fromClassLoader.getCount());
+		for (String key : exactKeys())
+		{
+			assertSameData(key, fromFolder.lookup(key), fromClassLoader.lookup(key));
+		}
+
+		fromClassLoader = Loader.loadDictionaryFromHSpellFolder(classLoader, packagePath, true);
+		assertEquals(fromFolder.getCount(), fromClassLoader.getCount());
+		int relations = 0;
+		for (String key : m_words)
+		{
+			MorphData md = fromClassLoader.lookup(key), related = m_dict.lookup(key);
+			assertEquals(key, md.getPrefixes(), related.getPrefixes());
+			int analyses = md.getDescFlags().length;
+			assertEquals(key, Arrays.toString(md.getDescFlags()), Arrays.toString(Arrays.copyOf(related.getDescFlags(), analyses)));
+			assertEquals(key, Arrays.toString(md.getLemmas()), Arrays.toString(Arrays.copyOf(related.getLemmas(), analyses)));
+			for (int i = analyses; i < related.getDescFlags().length; i++)
+			{
+				assertTrue(key, (related.getDescFlags()[i] & Constants.DMask.D_NOUN) != 0);
+				relations++;
+			}
+		}
+		assertTrue(relations > 0);
+	}
+
+	/**
+	 An image maps to the words of the dictionary it was written from, in the same order, and finds what
+	 that dictionary does
+	*/
+	@Test
+	public void mappedFindsWhatRadixDoes() throws IOException
+	{
+		File image = File.createTempFile("hebmorph", ".img");
+		try
+		{
+			DictionaryImage.write(new FrozenDictRadix<MorphData>(m_dict), image);
+			DictLookup<MorphData> mapped = DictionaryImage.map(image);
+			List<String> words = new ArrayList<String>();
+			DictLookup.KeyEnumerator<MorphData> en = mapped.iterator();
+			while (en.hasNext())
+			{
+				en.next();
+				words.add(en.getCurrentKey());
+			}
+			assertEquals(m_words, words);
+			assertFindsWhatRadixDoes(mapped);
+		}
+		finally
+		{
+			image.delete();
+		}
+	}
+
+	/**
+	 An image cut short anywhere isn't mapped, whichever section it ends in
+	*/
+	@Test
+	public void truncatedImageRejected() throws IOException
+	{
+		File image = File.createTempFile("hebmorph", ".img");
+		try
+		{
+			DictionaryImage.write(new FrozenDictRadix<MorphData>(m_dict), image);
+			long length = image.length();
+			for (long truncated : new long[] { length - 2, length * 3 / 4, length / 2, length / 4, 40, 12 })
+			{
+				RandomAccessFile file = new RandomAccessFile(image, "rw");
+				try
+				{
+					file.setLength(truncated);
+				}
+				finally
+				{
+					file.close();
+				}
+
+				try
+				{
+					DictionaryImage.map(image);
+					fail("Mapped an image truncated to " + truncated + " bytes");
+				}
+				catch (IOException e)
+				{
+				}
+			}
+		}
+		finally
+		{
+			image.delete();
+		}
+	}
+
+	/**
+	 An image whose header doesn't start with the magic number, or is of another version, isn't mapped
+	*/
+	@Test
+	public void imageHeaderChecked() throws IOException
+	{
+		File image = File.createTempFile("hebmorph", ".img");
+		try
+		{
+			DictionaryImage.write(new FrozenDictRadix<MorphData>(m_dict), image);
+			assertEquals(m_dict.getCount(), DictionaryImage.map(image).getCount());
+
+			for (int offset = 0; offset <= 4; offset += 4)
+			{
+				RandomAccessFile file = new RandomAccessFile(image, "rw");
+				int header;
+				try
+				{
+					file.seek(offset);
+					header = file.readInt();
+					file.seek(offset);
+					file.writeInt(header + 1);
+				}
+				finally
+				{
+					file.close();
+				}
+
+				try
+				{
+					DictionaryImage.map(image);
+					fail("Mapped an image with a wrong header int at " + offset);
+				}
+				catch (IOException e)
+				{
+				}
+
+				file = new RandomAccessFile(image, "rw");
+				try
+				{
+					file.seek(offset);
+					file.writeInt(header);
+				}
+				finally
+				{
+					file.close();
+				}
+				assertEquals(m_dict.getCount(), DictionaryImage.map(image).getCount());
+			}
+		}
+		finally
+		{
+			image.delete();
+		}
+	}
+}
@@ -0,0 +1,1532 @@
+/**************************************************************************
+ *   Copyright (C) 2010 by                                                 *
+ *      Itamar Syn-Hershko <itamar at code972 dot com>                     *
+ *		Ofer Fort <oferiko at gmail dot com>							   *
+ *                                                                         *
+ *   Distributed under the GNU General Public License, Version 2.0.        *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation (v2).                                    *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   51 Franklin Steet, Fifth Floor, Boston, MA  02111-1307, USA.          *
+ **************************************************************************/
+package hebmorph;
+
+import hebmorph.datastructures.DictDawg;
+import hebmorph.datastructures.DictLookup;
+import hebmorph.datastructures.DictRadix;
+import hebmorph.datastructures.DictRadixBuilder;
+import hebmorph.datastructures.FrozenDictRadix;
+import hebmorph.datastructures.FrozenMaskRadix;
+import hebmorph.datastructures.LayeredDictLookup;
+import hebmorph.datastructures.LookupResult;
+import hebmorph.datastructures.MappedDictRadix;
+import hebmorph.datastructures.TopResults;
+import hebmorph.hspell.CompressedMorphDictionary;
+import hebmorph.hspell.Constants;
+import hebmorph.hspell.DictionaryImage;
+import hebmorph.hspell.HSpellReader;
+import hebmorph.hspell.Loader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ Times the dictionary implementations, the loaders and the lemmatizer features built on them, and
+ measures their heap. The benchmarks take minutes and gigabytes, so they run only when the
+ hebmorph.benchmark system property is true; they report through java.util.logging. DictLookupTest and
+ LemmatizerTest check what the dictionaries find.
+*/
+public class DictionaryBenchmark
+{
+	public static String hspellPath ="../../hspell-data-files";
+
+	private static final Logger log = Logger.getLogger(DictionaryBenchmark.class.getName());
+
+	private static final int ROUNDS = 5;
+
+	/**
+	 Set the hebmorph.corpus system property to a UTF-8 text file to benchmark on a real corpus instead
+	*/
+	private static final String DEFAULT_CORPUS = "רפאל ולדן הוא פרופסור לרפואה ישראלי, מלמד באוניברסיטת תל אביב, סגן מנהל בית החולים שיבא ופעיל חברתי. מתמחה בכירוגיה כללית ובכלי דם."+
+		"ולדן נולד בצרפת ועלה לישראל בגיל 9. הוא שימש בבית החולים שיבא כמנהל האגף לכירורגיה ומנהל היחידה לכלי דם."+
+		"ולדן פעיל וחבר בהנהלה בעמותת רופאים לזכויות אדם וכמו כן חבר בהנהלת ארגון לתת. ולדן זכה באות לגיון הכבוד הצרפתי (Légion d'Honneur) של ממשלת צרפת בזכות על פעילותו במסגרת רופאים לזכויות אדם לקידום שיתוף הפעולה בין פלסטינים לישראלים. האות הוענק לו על ידי שר החוץ של צרפת, ברנאר קושנר, בטקס בשגרירות צרפת בתל אביב."+
+		"נשוי לבלשנית צביה ולדן, בתו של שמעון פרס והוא משמש כרופאו האישי של פרס.";
+
+	@BeforeClass
+	public static void setUpBeforeClass()
+	{
+		Assume.assumeTrue(Boolean.getBoolean("hebmorph.benchmark"));
+	}
+
+	/**
+	 Compares the heap and lookup timings of the read-only dictionaries with those of the DictRadix
+	 they're built from
+	*/
+	@Test
+	public void dictionaryImplementations() throws Exception
+	{
+		DictRadix<MorphData> radix = Loader.loadDictionaryFromHSpellFolder(hspellPath, true);
+		List<String> words = collectKeys(radix);
+		long withRadix = usedMemory();
+
+		FrozenDictRadix<MorphData> frozen = new FrozenDictRadix<MorphData>(radix);
+		long withFrozen = usedMemory();
+
+		DictDawg<MorphData> dawg = new DictDawg<MorphData>(radix);
+		long withDawg = usedMemory();
+
+		long radixLookup = timeLookups(radix, words);
+		long frozenLookup = timeLookups(frozen, words);
+		long dawgLookup = timeLookups(dawg, words);
+		long radixTolerant = timeTolerantLookups(radix, words);
+		long frozenTolerant = timeTolerantLookups(frozen, words);
+		long dawgTolerant = timeTolerantLookups(dawg, words);
+
+		radix = null;
+		long withoutRadix = usedMemory();
+
+		log.info(String.format("%d words, %d frozen nodes, %d automaton states and %d transitions", words.size(),
+				frozen.getNodesCount(), dawg.getStatesCount(), dawg.getTransitionsCount()));
+		log.info(String.format("%-16s %14s %14s %14s", "", "heap (KB)", "lookup (ns)", "tolerant (ns)"));
+		log.info(String.format("%-16s %14d %14d %14d", "DictRadix", (withDawg - withoutRadix) / 1024, radixLookup, radixTolerant));
+		log.info(String.format("%-16s %14d %14d %14d", "FrozenDictRadix", (withFrozen - withRadix) / 1024, frozenLookup, frozenTolerant));
+		log.info(String.format("%-16s %14d %14d %14d", "DictDawg", (withDawg - withFrozen) / 1024, dawgLookup, dawgTolerant));
+	}
+
+	/**
+	 Heap taken by the whole loaded dictionary - the radix along with its MorphData - and how many distinct
+	 lemmas, lemma arrays and mask arrays it shares them in
+	*/
+	@Test
+	public void loadedDictionaryHeap() throws Exception
+	{
+		long before = usedMemory();
+		DictRadix<MorphData> radix = Loader.loadDictionaryFromHSpellFolder(hspellPath, true);
+		long loaded = usedMemory();
+
+		Set<String> lemmas = new HashSet<String>();
+		Set<List<String>> lemmaArrays = new HashSet<List<String>>();
+		Set<String> maskArrays = new HashSet<String>();
+		DictLookup.KeyEnumerator<MorphData> en = radix.iterator();
+		while (en.hasNext())
+		{
+			MorphData md = en.next();
+			lemmas.addAll(Arrays.asList(md.getLemmas()));
+			lemmaArrays.add(Arrays.asList(md.getLemmas()));
+			maskArrays.add(Arrays.toString(md.getDescFlags()));
+		}
+		lemmas.remove(null);
+
+		log.info(String.format("%d words, %d KB heap; %d distinct lemmas, %d lemma arrays, %d mask arrays",
+				radix.getCount(), (loaded - before) / 1024, lemmas.size(), lemmaArrays.size(), maskArrays.size()));
+	}
+
+	/**
+	 Startup time of loading the hspell files, from a folder and through a ClassLoader, with and without
+	 their morphologic data
+	*/
+	@Test
+	public void loadTime() throws Exception
+	{
+		File folder = new File(hspellPath).getCanonicalFile();
+		ClassLoader classLoader = new URLClassLoader(new URL[] { folder.getParentFile().toURI().toURL() }, null);
+		String packagePath = folder.getName() + "/";
+
+		long[] times = new long[4];
+		for (int round = 0; round <= ROUNDS; round++)
+		{
+			long[] start = new long[5];
+			start[0] = System.nanoTime();
+			Loader.loadDictionaryFromHSpellFolder(hspellPath, true);
+			start[1] = System.nanoTime();
+			Loader.loadDictionaryFromHSpellFolder(classLoader, packagePath, true);
+			start[2] = System.nanoTime();
+			Loader.loadDictionaryFromHSpellFolder(hspellPath, false);
+			start[3] = System.nanoTime();
+			Loader.loadDictionaryFromHSpellFolder(classLoader, packagePath, false);
+			start[4] = System.nanoTime();
+			if (round > 0) // the first round is a warm-up
+			{
+				for (int i = 0; i < times.length; i++)
+				{
+					times[i] += start[i + 1] - start[i];
+				}
+			}
+		}
+
+		log.info(String.format("morph data - folder: %d ms, ClassLoader: %d ms; no morph data - folder: %d ms, ClassLoader: %d ms",
+				times[0] / ROUNDS / 1000000, times[1] / ROUNDS / 1000000, times[2] / ROUNDS / 1000000, times[3] / ROUNDS / 1000000));
+	}
+
+	/**
+	 Compares initializing a lemmatizer from the hspell files and adding custom relations to it, against
+	 restoring a snapshot of it
+	*/
+	@Test
+	public void snapshotRestore() throws Exception
+	{
+		File snapshot = File.createTempFile("hebmorph", ".snapshot");
+		try
+		{
+			List<String> words = collectKeys(Loader.loadDictionaryFromHSpellFolder(hspellPath, true));
+			Random random = new Random(1);
+			List<String> existing = new ArrayList<String>();
+			for (int i = 0; i < 5000; i++)
+			{
+				existing.add(words.get(random.nextInt(words.size())));
+			}
+
+			long start = System.nanoTime();
+			Lemmatizer lemmatizer = new Lemmatizer(hspellPath, true, false);
+			int relations = 0;
+			for (String word : existing)
+			{
+				if (lemmatizer.addCustomRelation(word, word + "ז'", 0))
+				{
+					relations++;
+				}
+			}
+			long init = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			lemmatizer.saveSnapshot(snapshot);
+			long save = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			Lemmatizer restored = Lemmatizer.fromSnapshot(snapshot);
+			long restore = System.nanoTime() - start;
+
+			for (String word : existing)
+			{
+				assertEquals(String.valueOf(lemmatizer.lemmatize(word)), String.valueOf(restored.lemmatize(word)));
+				assertEquals(String.valueOf(lemmatizer.lemmatize(word + "ז'")), String.valueOf(restored.lemmatize(word + "ז'")));
+			}
+
+			log.info(String.format("init and %d custom relations: %d ms; snapshot: %d KB, saved in %d ms, restored in %d ms",
+					relations, init / 1000000, snapshot.length() / 1024, save / 1000000, restore / 1000000));
+		}
+		finally
+		{
+			snapshot.delete();
+		}
+	}
+
+	/**
+	 Heap and lemmatizing speed of a CompressedMorphDictionary, against a FrozenDictRadix, and the hit rate of
+	 its cache of decoded blocks over a corpus
+	*/
+	@Test
+	public void compressedDictionary() throws Exception
+	{
+		List<String> tokens = readCorpusTokens();
+
+		// Each is measured along with its values, once the DictRadix it was built from is gone
+		long before = usedMemory();
+		FrozenDictRadix<MorphData> frozen = new FrozenDictRadix<MorphData>(Loader.loadDictionaryFromHSpellFolder(hspellPath, true));
+		long withFrozen = usedMemory();
+		CompressedMorphDictionary compressed = Loader.loadCompressedDictionaryFromHSpellFolder(hspellPath);
+		long withCompressed = usedMemory();
+
+		Lemmatizer frozenLemmatizer = new Lemmatizer();
+		frozenLemmatizer.initFromDictionary(frozen, false);
+		Lemmatizer compressedLemmatizer = new Lemmatizer();
+		compressedLemmatizer.initFromDictionary(compressed, false);
+		for (String token : tokens)
+		{
+			assertEquals(String.valueOf(frozenLemmatizer.lemmatize(token)), String.valueOf(compressedLemmatizer.lemmatize(token)));
+		}
+
+		long frozenTime = timeLemmatize(frozenLemmatizer, tokens);
+		long compressedTime = timeLemmatize(compressedLemmatizer, tokens);
+
+		log.info(String.format("FrozenDictRadix: %d KB, %d ns per token; CompressedMorphDictionary: %d KB (%d KB of blocks), %d ns per token",
+				(withFrozen - before) / 1024, frozenTime, (withCompressed - withFrozen) / 1024, compressed.getCompressedSize() / 1024, compressedTime));
+		log.info(String.format("%d blocks, %d cached; %d hits, %d misses", compressed.getBlocksCount(),
+				compressed.getCachedBlocksCount(), compressed.getCacheHits(), compressed.getCacheMisses()));
+	}
+
+	/**
+	 Heap of several lemmatizers sharing a dictionary, all initialized at once, against that of one with a
+	 private dictionary
+	*/
+	@Test
+	public void sharedDictionary() throws Exception
+	{
+		long before = usedMemory();
+		Lemmatizer own = new Lemmatizer(hspellPath, true, false);
+		long withOwn = usedMemory();
+		own.close();
+		own = null;
+		before = Math.min(before, usedMemory());
+
+		final Lemmatizer[] lemmatizers = new Lemmatizer[4];
+		final Exception[] failures = new Exception[lemmatizers.length];
+		Thread[] threads = new Thread[lemmatizers.length];
+		long start = System.nanoTime();
+		for (int i = 0; i < threads.length; i++)
+		{
+			final int index = i;
+			threads[i] = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						lemmatizers[index] = new Lemmatizer();
+						lemmatizers[index].initFromSharedDictionary(hspellPath, true, false);
+					}
+					catch (Exception e)
+					{
+						failures[index] = e;
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (int i = 0; i < threads.length; i++)
+		{
+			threads[i].join();
+			if (failures[i] != null)
+			{
+				throw failures[i];
+			}
+		}
+		long load = System.nanoTime() - start;
+		long withShared = usedMemory();
+		assertEquals(1, DictionaryRegistry.getSharedCount());
+
+		String expected = String.valueOf(lemmatizers[0].lemmatize("בתים"));
+		for (int i = 0; i < lemmatizers.length; i++)
+		{
+			assertEquals(expected, String.valueOf(lemmatizers[i].lemmatize("בתים")));
+			lemmatizers[i].close();
+			assertEquals((i < lemmatizers.length - 1) ? 1 : 0, DictionaryRegistry.getSharedCount());
+		}
+
+		log.info(String.format("own dictionary: %d KB; %d lemmatizers sharing one: %d KB, loaded in %d ms",
+				(withOwn - before) / 1024, lemmatizers.length, (withShared - before) / 1024, load / 1000000));
+	}
+
+	/**
+	 Loads user dictionaries of tens of thousands of words and stacks them over a shared hspell dictionary,
+	 which stays as it is for the other lemmatizers sharing it
+	*/
+	@Test
+	public void userDictionaryOverlay() throws Exception
+	{
+		File userFile = File.createTempFile("hebmorph", ".dict");
+		Lemmatizer lemmatizer = new Lemmatizer(), other = new Lemmatizer();
+		try
+		{
+			lemmatizer.initFromSharedDictionary(hspellPath, true, false);
+			other.initFromSharedDictionary(hspellPath, true, false);
+			String houses = String.valueOf(lemmatizer.lemmatize("בתים"));
+
+			List<String> words = collectKeys(Loader.loadFrozenDictionaryFromHSpellFolder(hspellPath, true));
+			Random random = new Random(1);
+			Writer writer = new OutputStreamWriter(new FileOutputStream(userFile), "UTF-8");
+			writer.write("# Overrides a word of the hspell dictionary\nבתים\tבתים\tD_NOUN|D_MASCULINE|D_PLURAL\n");
+			List<String> added = new ArrayList<String>();
+			for (int i = 0; i < 30000; i++)
+			{
+				String word = words.get(random.nextInt(words.size()));
+				added.add(word + "ץץ");
+				writer.write(word + "ץץ\t" + word + "\t" + Constants.DMask.D_NOUN + "\n");
+			}
+			writer.close();
+
+			long start = System.nanoTime();
+			FrozenDictRadix<MorphData> overlay = UserDictionary.load(userFile);
+			long load = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			lemmatizer.addOverlay(overlay);
+			long add = System.nanoTime() - start;
+
+			for (String word : added)
+			{
+				assertTrue(lemmatizer.haveLemmas(word));
+				assertTrue(lemmatizer.haveLemmas("ו" + word));
+				assertEquals(null, other.lemmatize(word));
+			}
+			List<HebrewToken> tokens = lemmatizer.lemmatize("בתים");
+			assertEquals(1, tokens.size());
+			assertEquals("בתים", tokens.get(0).getLemma());
+			assertEquals(houses, String.valueOf(other.lemmatize("בתים")));
+
+			start = System.nanoTime();
+			FrozenDictRadix<MorphData> replacement = UserDictionary.load(userFile);
+			assertTrue(lemmatizer.replaceOverlay(overlay, replacement));
+			long replace = System.nanoTime() - start;
+
+			assertTrue(lemmatizer.removeOverlay(replacement));
+			assertEquals(houses, String.valueOf(lemmatizer.lemmatize("בתים")));
+			assertEquals(null, lemmatizer.lemmatize(added.get(0)));
+
+			log.info(String.format("user dictionary of %d words: loaded in %d ms, stacked in %d ms, reloaded and replaced in %d ms",
+					overlay.getCount(), load / 1000000, add / 1000000, replace / 1000000));
+		}
+		finally
+		{
+			lemmatizer.close();
+			other.close();
+			userFile.delete();
+		}
+	}
+
+	/**
+	 Reloads the dictionary of a lemmatizer while it's being used, checking that a stream started before the
+	 swap finishes with the dictionary it started with
+	*/
+	@Test
+	public void hotReload() throws Exception
+	{
+		StreamLemmatizer expected = new StreamLemmatizer(hspellPath, true, false);
+		final StreamLemmatizer lemmatizer = new StreamLemmatizer(hspellPath, true, false);
+		assertEquals(1, lemmatizer.getDictionaryVersion().getVersion());
+
+		// Lookups on the side, going to whichever version is current
+		final AtomicBoolean stop = new AtomicBoolean(false);
+		final int[] lookups = new int[1];
+		final Exception[] failure = new Exception[1];
+		Thread load = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					while (!stop.get())
+					{
+						lemmatizer.getDictionaryVersion().getDictionary().lookup("בתים");
+						lookups[0]++;
+					}
+				}
+				catch (Exception e)
+				{
+					failure[0] = e;
+				}
+			}
+		};
+		load.start();
+
+		expected.setStream(new StringReader(DEFAULT_CORPUS));
+		lemmatizer.setStream(new StringReader(DEFAULT_CORPUS));
+		List<Token> expectedTokens = new ArrayList<Token>(), tokens = new ArrayList<Token>();
+		Reference<String> word = new Reference<String>("");
+		for (int i = 0; i < 10; i++)
+		{
+			expected.getLemmatizeNextToken(word, expectedTokens);
+			lemmatizer.getLemmatizeNextToken(word, tokens);
+			assertEquals(expectedTokens.toString(), tokens.toString());
+		}
+
+		// The new dictionary has no lemmas, so only the stream started before the swap still gets them
+		DictionaryVersion reloaded = lemmatizer.reloadFromHSpellFolder(hspellPath, false, false).get();
+		assertEquals(2, reloaded.getVersion());
+		assertEquals(reloaded, lemmatizer.getDictionaryVersion());
+		int words = 10;
+		while (expected.getLemmatizeNextToken(word, expectedTokens) > 0)
+		{
+			lemmatizer.getLemmatizeNextToken(word, tokens);
+			assertEquals(expectedTokens.toString(), tokens.toString());
+			words++;
+		}
+		assertEquals(0, lemmatizer.getLemmatizeNextToken(word, tokens));
+		assertEquals(null, lemmatizer.lemmatize("בתים"));
+
+		stop.set(true);
+		load.join();
+		if (failure[0] != null)
+		{
+			throw failure[0];
+		}
+
+		log.info(String.format("%d words streamed across the swap to %s; %d lookups meanwhile",
+				words, reloaded, lookups[0]));
+	}
+
+	/**
+	 Words, analyses, heap and tolerant lookup fan-out of dictionaries loaded with only some parts of speech
+	*/
+	@Test
+	public void selectiveLoading() throws Exception
+	{
+		List<String> tokens = readCorpusTokens();
+		String[] names = {"all", "nouns", "nouns and adjectives"};
+		Loader.MaskFilter[] filters = {null, Loader.acceptTypes(Constants.DMask.D_NOUN),
+				Loader.acceptTypes(Constants.DMask.D_NOUN, Constants.DMask.D_ADJ)};
+		int allCount = 0;
+		for (int i = 0; i < filters.length; i++)
+		{
+			long before = usedMemory();
+			DictRadix<MorphData> radix = (filters[i] == null) ? Loader.loadDictionaryFromHSpellFolder(hspellPath, true) :
+				Loader.loadDictionaryFromHSpellFolder(hspellPath, filters[i]);
+			long withRadix = usedMemory();
+			FrozenDictRadix<MorphData> frozen = new FrozenDictRadix<MorphData>(radix);
+			radix = null;
+			long withFrozen = usedMemory();
+
+			int analyses = 0;
+			DictLookup.KeyEnumerator<MorphData> en = frozen.iterator();
+			while (en.hasNext())
+			{
+				MorphData md = en.next();
+				for (int mask : md.getDescFlags())
+				{
+					assertTrue((filters[i] == null) || filters[i].accept(mask));
+					analyses++;
+				}
+			}
+			if (i == 0)
+			{
+				allCount = frozen.getCount();
+			}
+			else
+			{
+				assertTrue(frozen.getCount() < allCount);
+			}
+
+			int tolerated = 0;
+			long start = System.nanoTime();
+			for (String token : tokens)
+			{
+				List<LookupResult<MorphData>> results = frozen.lookupTolerant(token, LookupTolerators.EmKryiaTolerators);
+				tolerated += (results == null) ? 0 : results.size();
+			}
+			long tolerant = System.nanoTime() - start;
+
+			log.info(String.format("%s: %d words, %d analyses; %d KB as DictRadix, %d KB frozen; %d tolerant results for %d tokens in %d ms",
+					names[i], frozen.getCount(), analyses, (withRadix - before) / 1024, (withFrozen - before) / 1024,
+					tolerated, tokens.size(), tolerant / 1000000));
+		}
+	}
+
+	/**
+	 Streams over the hspell entries without building a dictionary, checking them against the loaded one
+	 and that the readers share a bounded pool of threads
+	*/
+	@Test
+	public void streamingReader() throws Exception
+	{
+		DictRadix<MorphData> loaded = Loader.loadDictionaryFromHSpellFolder(hspellPath, true);
+		List<String> words = new ArrayList<String>();
+
+		long start = System.nanoTime();
+		int analyses = 0;
+		HSpellReader reader = HSpellReader.open(hspellPath, true);
+		while (reader.next())
+		{
+			analyses += reader.getAnalysesCount();
+		}
+		reader.close();
+		long stream = System.nanoTime() - start;
+
+		long before = usedMemory(), maxGrowth = 0;
+		reader = HSpellReader.open(hspellPath, true);
+		try
+		{
+			while (reader.next())
+			{
+				if (reader.getIndex() % 100000 == 0)
+				{
+					maxGrowth = Math.max(maxGrowth, usedMemory() - before);
+					words.add(reader.getWord());
+				}
+				assertTrue(loaded.lookup(reader.getWordChars(), 0, reader.getWordLength()) != null);
+			}
+			assertEquals(loaded.getCount(), reader.getIndex() + 1);
+		}
+		finally
+		{
+			reader.close();
+		}
+
+		for (String word : words)
+		{
+			int[] masks = loaded.lookup(word).getDescFlags();
+			reader = HSpellReader.open(hspellPath, true);
+			while (reader.next() && !reader.getWord().equals(word))
+			{
+			}
+			for (int i = 0; i < reader.getAnalysesCount(); i++)
+			{
+				assertEquals(masks[i], reader.getDescFlag(i));
+			}
+			reader.close();
+		}
+		// However many readers are opened, their files are inflated on the few threads of the shared pool
+		int inflaters = 0;
+		for (Thread thread : Thread.getAllStackTraces().keySet())
+		{
+			if (thread.getName().startsWith("hspell-inflater"))
+			{
+				inflaters++;
+			}
+		}
+		assertTrue(String.valueOf(inflaters), inflaters <= 4);
+
+		log.info(String.format("streamed %d entries, %d analyses in %d ms; heap grew by at most %d KB",
+				loaded.getCount(), analyses, stream / 1000000, maxGrowth / 1024));
+	}
+
+	/**
+	 Heap of the no-morphologic-data dictionary, as a DictRadix and as a FrozenMaskRadix
+	*/
+	@Test
+	public void prefixMaskHeap() throws Exception
+	{
+		long before = usedMemory();
+		DictRadix<MorphData> radix = Loader.loadDictionaryFromHSpellFolder(hspellPath, false);
+		long withRadix = usedMemory();
+		FrozenMaskRadix<MorphData> masks = Loader.loadPrefixMaskDictionaryFromHSpellFolder(hspellPath);
+		long withMasks = usedMemory();
+
+		DictLookup.KeyEnumerator<MorphData> en = radix.iterator();
+		while (en.hasNext())
+		{
+			int prefixes = en.next().getPrefixes();
+			assertEquals(prefixes, masks.getMask(en.getCurrentKey()));
+			assertEquals(prefixes, masks.lookup(en.getCurrentKey()).getPrefixes());
+		}
+
+		log.info(String.format("%d words; DictRadix: %d KB, FrozenMaskRadix: %d KB", masks.getCount(),
+				(withRadix - before) / 1024, (withMasks - withRadix) / 1024));
+	}
+
+	/**
+	 Compares the timings of building a radix with DictRadixBuilder and with addNode, from sorted and
+	 shuffled keys
+	*/
+	@Test
+	public void builderVsAddNode() throws Exception
+	{
+		DictRadix<MorphData> radix = Loader.loadDictionaryFromHSpellFolder(hspellPath, false);
+		List<String> words = collectKeys(radix);
+		List<MorphData> values = new ArrayList<MorphData>();
+		for (String word : words)
+		{
+			values.add(radix.lookup(word));
+		}
+		radix = null;
+		List<Integer> order = new ArrayList<Integer>();
+		for (int i = 0; i < words.size(); i++)
+		{
+			order.add(i);
+		}
+		Collections.shuffle(order, new Random(0));
+		List<String> shuffled = new ArrayList<String>();
+		List<MorphData> shuffledValues = new ArrayList<MorphData>();
+		for (int i : order)
+		{
+			shuffled.add(words.get(i));
+			shuffledValues.add(values.get(i));
+		}
+
+		long addNode = 0, addNodeShuffled = 0, builder = 0, builderShuffled = 0;
+		for (int round = 0; round <= ROUNDS; round++)
+		{
+			long start = System.nanoTime();
+			DictRadix<MorphData> added = new DictRadix<MorphData>();
+			for (int i = 0; i < words.size(); i++)
+			{
+				added.addNode(words.get(i), values.get(i));
+			}
+			long t1 = System.nanoTime();
+			DictRadix<MorphData> addedShuffled = new DictRadix<MorphData>();
+			for (int i = 0; i < shuffled.size(); i++)
+			{
+				addedShuffled.addNode(shuffled.get(i), shuffledValues.get(i));
+			}
+			long t2 = System.nanoTime();
+			DictRadixBuilder.build(words, values);
+			long t3 = System.nanoTime();
+			DictRadixBuilder.build(shuffled, shuffledValues);
+			long t4 = System.nanoTime();
+			if (round > 0) // the first round is a warm-up
+			{
+				addNode += t1 - start;
+				addNodeShuffled += t2 - t1;
+				builder += t3 - t2;
+				builderShuffled += t4 - t3;
+			}
+		}
+
+		log.info(String.format("%d words; addNode: %d ms sorted, %d ms shuffled; DictRadixBuilder: %d ms sorted, %d ms shuffled",
+				words.size(), addNode / ROUNDS / 1000000, addNodeShuffled / ROUNDS / 1000000, builder / ROUNDS / 1000000, builderShuffled / ROUNDS / 1000000));
+	}
+
+	/**
+	 Compares starting up off a compiled dictionary image with loading the hspell files
+	*/
+	@Test
+	public void imageStartup() throws Exception
+	{
+		File image = File.createTempFile("hebmorph", ".img");
+		try
+		{
+			long start = System.nanoTime();
+			DictionaryImage.compile(hspellPath, true, image);
+			long compile = System.nanoTime() - start;
+
+			long before = usedMemory();
+			start = System.nanoTime();
+			Lemmatizer lemmatizer = new Lemmatizer();
+			lemmatizer.initFromHSpellFolder(hspellPath, true, false);
+			long load = System.nanoTime() - start;
+			long loaded = usedMemory();
+			lemmatizer = null;
+
+			before = Math.min(before, usedMemory());
+			start = System.nanoTime();
+			MappedDictRadix<MorphData> mapped = DictionaryImage.map(image);
+			long map = System.nanoTime() - start;
+			long mappedHeap = usedMemory();
+
+			List<String> words = collectKeys(mapped);
+			long mappedLookup = timeLookups(mapped, words);
+
+			log.info(String.format("image: %d KB, compiled in %d ms", image.length() / 1024, compile / 1000000));
+			log.info(String.format("hspell load: %d ms, %d KB heap", load / 1000000, (loaded - before) / 1024));
+			log.info(String.format("image map: %d ms, %d KB heap, lookup %d ns", map / 1000000, (mappedHeap - before) / 1024, mappedLookup));
+		}
+		finally
+		{
+			image.delete();
+		}
+	}
+
+	/**
+	 Times the exact lookups lemmatizing a corpus performs - of every Hebrew token, and of what
+	 remains of it after each legal prefix
+	*/
+	@Test
+	public void corpusLookups() throws Exception
+	{
+		List<String> tokens = readCorpusTokens();
+		List<String> keys = new ArrayList<String>();
+		Lemmatizer lemmatizer = new Lemmatizer();
+		lemmatizer.initFromHSpellFolder(hspellPath, true, false);
+		for (String token : tokens)
+		{
+			keys.add(token);
+			for (int prefLen = 1; (token.length() - prefLen >= 2) && lemmatizer.isLegalPrefix(token.substring(0, prefLen)); prefLen++)
+			{
+				keys.add(token.substring(prefLen));
+			}
+		}
+
+		DictRadix<MorphData> radix = Loader.loadDictionaryFromHSpellFolder(hspellPath, true);
+		FrozenDictRadix<MorphData> frozen = new FrozenDictRadix<MorphData>(radix);
+
+		int rounds = Math.max(ROUNDS, 1000000 / keys.size());
+		long radixLookup = timeLookups(radix, keys, rounds);
+		long frozenLookup = timeLookups(frozen, keys, rounds);
+
+		long lemmatize = 0;
+		for (int round = 0; round <= ROUNDS * 20; round++)
+		{
+			long start = System.nanoTime();
+			for (String token : tokens)
+			{
+				lemmatizer.lemmatize(token);
+			}
+			if (round > 0) // the first round is a warm-up
+			{
+				lemmatize += System.nanoTime() - start;
+			}
+		}
+
+		log.info(String.format("%d tokens, %d lookups", tokens.size(), keys.size()));
+		log.info(String.format("DictRadix lookup: %d ns, FrozenDictRadix lookup: %d ns, lemmatize: %d ns per token",
+				radixLookup, frozenLookup, lemmatize / ((long)ROUNDS * 20 * tokens.size())));
+	}
+
+	/**
+	 Lemmatizes Zipfian text, as a stream does - tolerantly when there are no exact lemmas - with and without
+	 a result cache
+	*/
+	@Test
+	public void lemmatizationCache() throws Exception
+	{
+		Lemmatizer plain = new Lemmatizer(), cached = new Lemmatizer();
+		try
+		{
+			plain.initFromSharedDictionary(hspellPath, true, false);
+			cached.initFromSharedDictionary(hspellPath, true, false);
+			LemmatizationCache cache = new LemmatizationCache(20000);
+			cached.setCache(cache);
+
+			// Surface forms: dictionary words, some with prefixes, and some unknown ones
+			List<String> words = collectKeys(Loader.loadFrozenDictionaryFromHSpellFolder(hspellPath, true));
+			Random random = new Random(1);
+			String[] prefixes = { "", "", "", "ו", "ה", "ב", "ל", "וה", "שה", "מ" };
+			String[] forms = new String[100000];
+			for (int i = 0; i < forms.length; i++)
+			{
+				String word = words.get(random.nextInt(words.size()));
+				forms[i] = prefixes[random.nextInt(prefixes.length)] + ((i % 10 == 9) ? word + "ץץ" : word);
+			}
+			List<String> tokens = zipfTokens(forms, 300000, random);
+
+			for (String token : tokens.subList(0, 20000))
+			{
+				assertEquals(String.valueOf(lemmatizeLikeStream(plain, token)), String.valueOf(lemmatizeLikeStream(cached, token)));
+			}
+			long uncachedNanos = timeLemmatizeLikeStream(plain, tokens);
+			long cachedNanos = timeLemmatizeLikeStream(cached, tokens);
+
+			log.info(String.format("%d Zipfian tokens of %d forms: %d ns per token uncached, %d ns cached",
+					tokens.size(), forms.length, uncachedNanos, cachedNanos));
+			log.info("cache: " + cache);
+		}
+		finally
+		{
+			plain.close();
+			cached.close();
+		}
+	}
+
+	/**
+	 Looks up Zipfian text of out of vocabulary words - made up ones, like names and transliterations - and of
+	 words missing Yud or Vav letters, tolerantly, with and without an OOV filter
+	*/
+	@Test
+	public void oovFilter() throws Exception
+	{
+		Lemmatizer plain = new Lemmatizer(), filtered = new Lemmatizer();
+		try
+		{
+			plain.initFromSharedDictionary(hspellPath, true, false);
+			filtered.initFromSharedDictionary(hspellPath, true, false);
+			OovFilter filter = new OovFilter(10000);
+			filtered.setOovFilter(filter);
+
+			List<String> words = collectKeys(Loader.loadFrozenDictionaryFromHSpellFolder(hspellPath, true));
+			Random random = new Random(1);
+			String letters = "אבגדהוזחטיכלמנסעפצקרשת";
+			String[] forms = new String[20000];
+			for (int i = 0; i < forms.length; i++)
+			{
+				String word = words.get(random.nextInt(words.size()));
+				int emKriya = Math.max(word.indexOf('ו', 1), word.indexOf('י', 1));
+				if ((i % 3 == 0) && (emKriya > 0) && (emKriya < word.length() - 1))
+				{
+					forms[i] = word.substring(0, emKriya) + word.substring(emKriya + 1);
+				}
+				else
+				{
+					StringBuilder made = new StringBuilder();
+					for (int length = 4 + random.nextInt(5); made.length() < length; )
+					{
+						made.append(letters.charAt(random.nextInt(letters.length())));
+					}
+					forms[i] = made.toString();
+				}
+			}
+			List<String> tokens = zipfTokens(forms, 200000, random);
+
+			long start = System.nanoTime();
+			filtered.lemmatizeTolerant(forms[0]);
+			long build = System.nanoTime() - start;
+			for (String form : forms)
+			{
+				assertEquals(String.valueOf(plain.lemmatizeTolerant(form)), String.valueOf(filtered.lemmatizeTolerant(form)));
+			}
+			long plainNanos = timeLemmatizeTolerant(plain, tokens);
+			long filteredNanos = timeLemmatizeTolerant(filtered, tokens);
+
+			log.info(String.format("%d Zipfian tokens of %d forms: %d ns per tolerant lookup, %d ns filtered; skeletons built in %d ms, %d KB",
+					tokens.size(), forms.length, plainNanos, filteredNanos, build / 1000000,
+					filtered.getDictionaryVersion().getSkeletonFilter().getBytes() / 1024));
+			log.info("OOV filter: " + filter);
+		}
+		finally
+		{
+			plain.close();
+			filtered.close();
+		}
+	}
+
+	@Test
+	public void skeletonIndex() throws Exception
+	{
+		Lemmatizer crawling = new Lemmatizer(), indexed = new Lemmatizer();
+		try
+		{
+			crawling.initFromSharedDictionary(hspellPath, true, false);
+			indexed.initFromSharedDictionary(hspellPath, true, false);
+			indexed.setUseSkeletonIndex(true);
+			DictLookup<MorphData> dict = crawling.getDictionaryVersion().getDictionary();
+
+			long start = System.nanoTime();
+			SkeletonIndex index = new SkeletonIndex(dict);
+			long build = System.nanoTime() - start;
+
+			List<String> keys = tolerantKeys(collectKeys(dict), 20000, new Random(1));
+
+			int results = 0;
+			for (String key : keys)
+			{
+				List<LookupResult<MorphData>> expected = dict.lookupTolerant(key, LookupTolerators.EmKryiaTolerators);
+				List<LookupResult<MorphData>> actual = index.lookupTolerant(key);
+				assertEquals(key, describe(expected), describe(actual));
+				results += (expected == null) ? 0 : expected.size();
+				assertEquals(key, String.valueOf(crawling.lemmatizeTolerant(key)), String.valueOf(indexed.lemmatizeTolerant(key)));
+			}
+
+			long[] crawlNanos = new long[keys.size()], indexNanos = new long[keys.size()];
+			for (int round = 0; round <= ROUNDS; round++)
+			{
+				for (int i = 0; i < keys.size(); i++)
+				{
+					start = System.nanoTime();
+					dict.lookupTolerant(keys.get(i), LookupTolerators.EmKryiaTolerators);
+					long crawl = System.nanoTime() - start;
+					start = System.nanoTime();
+					index.lookupTolerant(keys.get(i));
+					long lookup = System.nanoTime() - start;
+					if (round > 0) // the first round is a warm-up
+					{
+						crawlNanos[i] += crawl;
+						indexNanos[i] += lookup;
+					}
+				}
+			}
+			Arrays.sort(crawlNanos);
+			Arrays.sort(indexNanos);
+
+			log.info(String.format("Skeleton index of %d words built in %d ms, %d KB; %d keys, %d results",
+					dict.getCount(), build / 1000000, index.getBytes() / 1024, keys.size(), results));
+			log.info(String.format("Crawl: %d ns mean, %d ns p99, %d ns max; index: %d ns mean, %d ns p99, %d ns max",
+					mean(crawlNanos), crawlNanos[crawlNanos.length * 99 / 100] / ROUNDS, crawlNanos[crawlNanos.length - 1] / ROUNDS,
+					mean(indexNanos), indexNanos[indexNanos.length * 99 / 100] / ROUNDS, indexNanos[indexNanos.length - 1] / ROUNDS));
+		}
+		finally
+		{
+			crawling.close();
+			indexed.close();
+		}
+	}
+
+	/**
+	 Checks score-bounded tolerant lookups against the unbounded ones, for all dictionary implementations and
+	 lemmatization, and compares their times and the nodes they go into
+	*/
+	@Test
+	public void scoreBoundedLookup() throws Exception
+	{
+		DictRadix<MorphData> radix = Loader.loadDictionaryFromHSpellFolder(hspellPath, true);
+		List<String> words = collectKeys(radix);
+		List<String> keys = tolerantKeys(words, 5000, new Random(1));
+
+		// An overlay hiding some of the words of the dictionary under it
+		DictRadix<MorphData> overlay = new DictRadix<MorphData>();
+		for (int i = 0; i < words.size(); i += 10)
+		{
+			overlay.addNode(words.get(i), radix.lookup(words.get(i)));
+		}
+		List<DictLookup<MorphData>> layers = new ArrayList<DictLookup<MorphData>>();
+		layers.add(overlay);
+		layers.add(radix);
+
+		List<DictLookup<MorphData>> dicts = Arrays.<DictLookup<MorphData>>asList(radix, new FrozenDictRadix<MorphData>(radix),
+				new DictDawg<MorphData>(radix), new LayeredDictLookup<MorphData>(layers));
+		float[] minScores = { Float.NEGATIVE_INFINITY, 0.7f, 0.85f, Float.NEGATIVE_INFINITY, 0.7f };
+		int[] maxResults = { Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, 1, 3 };
+		for (DictLookup<MorphData> dict : dicts)
+		{
+			for (String key : keys)
+			{
+				List<LookupResult<MorphData>> all = dict.lookupTolerant(key, LookupTolerators.EmKryiaTolerators);
+				for (int b = 0; b < minScores.length; b++)
+				{
+					TopResults<MorphData> top = dict.lookupTolerant(key, LookupTolerators.EmKryiaTolerators, minScores[b], maxResults[b]);
+					assertEquals(key, describe(top(all, minScores[b], maxResults[b])), describe(top.getResults()));
+				}
+			}
+		}
+
+		Lemmatizer lemmatizer = new Lemmatizer(), indexed = new Lemmatizer();
+		try
+		{
+			lemmatizer.initFromHSpellFolder(hspellPath, true, false);
+			indexed.initFromHSpellFolder(hspellPath, true, false);
+			indexed.setUseSkeletonIndex(true);
+			for (String key : keys)
+			{
+				for (String prefixed : new String[] { key, "ו" + key, "שב" + key })
+				{
+					List<HebrewToken> all = lemmatizer.lemmatizeTolerant(prefixed);
+					for (int b = 0; b < minScores.length; b++)
+					{
+						String expected = String.valueOf(topTokens(all, minScores[b], maxResults[b]));
+						assertEquals(prefixed, expected, String.valueOf(lemmatizer.lemmatizeTolerant(prefixed, minScores[b], maxResults[b])));
+						assertEquals(prefixed, expected, String.valueOf(indexed.lemmatizeTolerant(prefixed, minScores[b], maxResults[b])));
+					}
+				}
+			}
+		}
+		finally
+		{
+			lemmatizer.close();
+			indexed.close();
+		}
+
+		// BasicLemmaFilter's thresholds, and the best result alone
+		log.info(String.format("%d keys: %d ns per unbounded tolerant lookup", keys.size(), timeTolerantLookups(radix, keys, Float.NEGATIVE_INFINITY, Integer.MAX_VALUE)));
+		for (int b = 1; b < minScores.length; b++)
+		{
+			long nanos = timeTolerantLookups(radix, keys, minScores[b], maxResults[b]);
+			long visited = 0, skipped = 0, unbounded = 0;
+			for (String key : keys)
+			{
+				TopResults<MorphData> top = radix.lookupTolerant(key, LookupTolerators.EmKryiaTolerators, minScores[b], maxResults[b]);
+				visited += top.getVisitedNodes();
+				skipped += top.getSkippedNodes();
+				unbounded += radix.lookupTolerant(key, LookupTolerators.EmKryiaTolerators, Float.NEGATIVE_INFINITY, Integer.MAX_VALUE).getVisitedNodes();
+			}
+			log.info(String.format("min score %s, max results %s: %d ns; %d of %d nodes visited, %d skipped",
+					minScores[b], (maxResults[b] == Integer.MAX_VALUE) ? "-" : String.valueOf(maxResults[b]), nanos, visited, unbounded, skipped));
+		}
+	}
+
+	/**
+	 Edit distance as tolerators: dropping a key char, inserting a word char, or replacing one with another,
+	 while the score is at least 0.85 - up to two of them. Their paths meet all the time - a drop and an insert get to where a
+	 replacement does, in either order - so lookups rely on not trying a state twice to stay fast.
+	*/
+	private static final LookupTolerators.Tolerator[] EDITS = {
+		new LookupTolerators.Tolerator()
+		{
+			public int tolerate(char[] key, LookupTolerators.Toleration state, char[] word, int wordLength, char curChar)
+			{
+				if (state.score < 0.85f)
+				{
+					return LookupTolerators.NOT_TOLERATED;
+				}
+				state.keyPos++;
+				state.score *= 0.9f;
+				return 0;
+			}
+		},
+		new LookupTolerators.Tolerator()
+		{
+			public int tolerate(char[] key, LookupTolerators.Toleration state, char[] word, int wordLength, char curChar)
+			{
+				if (state.score < 0.85f)
+				{
+					return LookupTolerators.NOT_TOLERATED;
+				}
+				state.score *= 0.9f;
+				return 1;
+			}
+		},
+		new LookupTolerators.Tolerator()
+		{
+			public int tolerate(char[] key, LookupTolerators.Toleration state, char[] word, int wordLength, char curChar)
+			{
+				if ((state.score < 0.85f) || (key[state.keyPos] == curChar))
+				{
+					return LookupTolerators.NOT_TOLERATED;
+				}
+				state.keyPos++;
+				state.score *= 0.8f;
+				return 1;
+			}
+		}
+	};
+
+	/**
+	 Checks tolerant lookups with tolerators whose paths converge against the best score of each word, for
+	 all dictionary implementations
+	*/
+	@Test
+	public void convergingTolerators() throws Exception
+	{
+		DictRadix<MorphData> radix = Loader.loadDictionaryFromHSpellFolder(hspellPath, true);
+		List<String> all = collectKeys(radix);
+		List<String> words = new ArrayList<String>();
+		List<MorphData> values = new ArrayList<MorphData>();
+		for (int i = 0; i < all.size(); i += 20)
+		{
+			words.add(all.get(i));
+			values.add(radix.lookup(all.get(i)));
+		}
+		DictRadix<MorphData> small = DictRadixBuilder.build(words, values);
+
+		// Words with up to two random edits
+		Random random = new Random(1);
+		List<String> keys = new ArrayList<String>();
+		for (int i = 0; i < 200; i++)
+		{
+			StringBuilder key = new StringBuilder(words.get(random.nextInt(words.size())));
+			for (int edits = random.nextInt(3); (edits > 0) && (key.length() > 1); edits--)
+			{
+				int pos = random.nextInt(key.length());
+				char c = (char)('א' + random.nextInt(27));
+				switch (random.nextInt(3))
+				{
+					case 0: key.deleteCharAt(pos); break;
+					case 1: key.insert(pos, c); break;
+					default: key.setCharAt(pos, c); break;
+				}
+			}
+			keys.add(key.toString());
+		}
+
+		List<DictLookup<MorphData>> dicts = Arrays.<DictLookup<MorphData>>asList(small, new FrozenDictRadix<MorphData>(small),
+				new DictDawg<MorphData>(small));
+		int results = 0;
+		for (String key : keys)
+		{
+			Map<String, Float> expected = new TreeMap<String, Float>();
+			for (String word : words)
+			{
+				float score = editScore(word, key);
+				if (score > 0)
+				{
+					expected.put(word, score);
+				}
+			}
+			results += expected.size();
+
+			for (DictLookup<MorphData> dict : dicts)
+			{
+				List<LookupResult<MorphData>> found = dict.lookupTolerant(key, EDITS);
+				Map<String, Float> actual = new TreeMap<String, Float>();
+				for (int i = 0; (found != null) && (i < found.size()); i++)
+				{
+					assertTrue(key + " " + found.get(i).getWord(), actual.put(found.get(i).getWord(), found.get(i).getScore()) == null);
+					assertTrue(found.get(i).getData() == small.lookup(found.get(i).getWord()));
+				}
+				assertEquals(key, expected.keySet(), actual.keySet());
+				for (Map.Entry<String, Float> entry : expected.entrySet())
+				{
+					assertEquals(key + " " + entry.getKey(), entry.getValue(), actual.get(entry.getKey()), 1e-6f);
+				}
+
+				TopResults<MorphData> top = dict.lookupTolerant(key, EDITS, 0.85f, 3);
+				assertEquals(key, describe(top(found, 0.85f, 3)), describe(top.getResults()));
+			}
+		}
+
+		for (DictLookup<MorphData> dict : dicts)
+		{
+			long visited = 0;
+			for (String key : keys)
+			{
+				visited += dict.lookupTolerant(key, EDITS, Float.NEGATIVE_INFINITY, Integer.MAX_VALUE).getVisitedNodes();
+			}
+			long start = System.nanoTime();
+			for (int round = 0; round < ROUNDS; round++)
+			{
+				for (String key : keys)
+				{
+					dict.lookupTolerant(key, EDITS);
+				}
+			}
+			log.info(String.format("%s, %d words: %d keys, %d results; %d ns and %d nodes visited per lookup with edit tolerators",
+					dict.getClass().getSimpleName(), small.getCount(), keys.size(), results,
+					(System.nanoTime() - start) / ROUNDS / keys.size(), visited / keys.size()));
+		}
+	}
+
+	/**
+	 The best score EDITS get word with for key, or 0 if they don't. Like the lookups, tolerators only see
+	 a char of the word with a char of the key left, and the word has to end with a matching char.
+	*/
+	private static float editScore(String word, String key)
+	{
+		float[][] best = new float[word.length() + 1][key.length() + 1];
+		best[0][0] = 1.0f;
+		for (int i = 0; i < word.length(); i++)
+		{
+			for (int j = 0; j < key.length(); j++)
+			{
+				float score = best[i][j];
+				if (score == 0)
+				{
+					continue;
+				}
+				if (word.charAt(i) == key.charAt(j))
+				{
+					best[i + 1][j + 1] = Math.max(best[i + 1][j + 1], score);
+				}
+				if (score >= 0.85f)
+				{
+					best[i][j + 1] = Math.max(best[i][j + 1], score * 0.9f);
+					best[i + 1][j] = Math.max(best[i + 1][j], score * 0.9f);
+					if (word.charAt(i) != key.charAt(j))
+					{
+						best[i + 1][j + 1] = Math.max(best[i + 1][j + 1], score * 0.8f);
+					}
+				}
+			}
+		}
+		int w = word.length(), k = key.length();
+		return (word.charAt(w - 1) == key.charAt(k - 1)) ? best[w - 1][k - 1] : 0;
+	}
+
+	/**
+	 The results scored at least minScore, and of those the maxResults best, ties going to the first ones
+	*/
+	private static List<LookupResult<MorphData>> top(List<LookupResult<MorphData>> results, float minScore, int maxResults)
+	{
+		List<LookupResult<MorphData>> ret = new ArrayList<LookupResult<MorphData>>();
+		if (results == null)
+		{
+			return ret;
+		}
+		List<LookupResult<MorphData>> byScore = new ArrayList<LookupResult<MorphData>>(results);
+		Collections.sort(byScore, new Comparator<LookupResult<MorphData>>()
+		{
+			public int compare(LookupResult<MorphData> a, LookupResult<MorphData> b)
+			{
+				return Float.compare(b.getScore(), a.getScore());
+			}
+		});
+		for (LookupResult<MorphData> result : results)
+		{
+			if ((result.getScore() >= minScore) && (byScore.indexOf(result) < maxResults))
+			{
+				ret.add(result);
+			}
+		}
+		return ret;
+	}
+
+	private static List<HebrewToken> topTokens(List<HebrewToken> tokens, float minScore, int maxResults)
+	{
+		List<HebrewToken> ret = new ArrayList<HebrewToken>();
+		for (int i = 0; (tokens != null) && (i < tokens.size()) && (i < maxResults) && (tokens.get(i).getScore() >= minScore); i++)
+		{
+			ret.add(tokens.get(i));
+		}
+		return ret.isEmpty() ? null : ret;
+	}
+
+	private static long timeTolerantLookups(DictLookup<MorphData> dict, List<String> keys, float minScore, int maxResults)
+	{
+		long ret = 0;
+		for (int round = 0; round <= ROUNDS; round++)
+		{
+			long start = System.nanoTime();
+			for (String key : keys)
+			{
+				if ((maxResults == Integer.MAX_VALUE) && (minScore == Float.NEGATIVE_INFINITY))
+				{
+					dict.lookupTolerant(key, LookupTolerators.EmKryiaTolerators);
+				}
+				else
+				{
+					dict.lookupTolerant(key, LookupTolerators.EmKryiaTolerators, minScore, maxResults);
+				}
+			}
+			if (round > 0) // the first round is a warm-up
+			{
+				ret += System.nanoTime() - start;
+			}
+		}
+		return ret / ROUNDS / keys.size();
+	}
+
+	/**
+	 Words as they are, with Yud and Vav dropped, and with as many added as can be - the keys which send
+	 tolerant lookups down the most paths
+	*/
+	private static List<String> tolerantKeys(List<String> words, int count, Random random)
+	{
+		List<String> ret = new ArrayList<String>();
+		for (int i = 0; i < count; i++)
+		{
+			String word = words.get(random.nextInt(words.size()));
+			StringBuilder key = new StringBuilder();
+			for (int c = 0; c < word.length(); c++)
+			{
+				char ch = word.charAt(c);
+				if ((i % 3 == 1) && ((ch == 'ו') || (ch == 'י')) && random.nextBoolean())
+				{
+					continue;
+				}
+				key.append(ch);
+				if ((i % 3 == 2) && (c < word.length() - 1))
+				{
+					key.append(random.nextBoolean() ? 'ו' : 'י');
+				}
+			}
+			ret.add(key.toString());
+		}
+		return ret;
+	}
+
+	private static String describe(List<LookupResult<MorphData>> results)
+	{
+		if (results == null)
+		{
+			return "null";
+		}
+		StringBuilder ret = new StringBuilder();
+		for (LookupResult<MorphData> result : results)
+		{
+			ret.append(result.getWord()).append(' ').append(result.getScore()).append(' ').append(describe(result.getData())).append("; ");
+		}
+		return ret.toString();
+	}
+
+	/**
+	 @return The prefixes, masks and lemmas of md, which MorphData.equals() doesn't all compare
+	*/
+	static String describe(MorphData md)
+	{
+		if (md == null)
+		{
+			return "null";
+		}
+		return md.getPrefixes() + " " + Arrays.toString(md.getDescFlags()) + " " + Arrays.toString(md.getLemmas());
+	}
+
+	private static long mean(long[] nanos)
+	{
+		long sum = 0;
+		for (long n : nanos)
+		{
+			sum += n;
+		}
+		return sum / nanos.length / ROUNDS;
+	}
+
+	/**
+	 Draws count tokens of forms by Zipf's law: the form of rank r comes up in proportion to 1 / r
+	*/
+	private static List<String> zipfTokens(String[] forms, int count, Random random)
+	{
+		double[] cumulative = new double[forms.length];
+		double sum = 0;
+		for (int i = 0; i < forms.length; i++)
+		{
+			cumulative[i] = (sum += 1.0 / (i + 1));
+		}
+		List<String> ret = new ArrayList<String>();
+		for (int i = 0; i < count; i++)
+		{
+			int rank = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+			ret.add(forms[(rank < 0) ? -rank - 1 : rank]);
+		}
+		return ret;
+	}
+
+	private static long timeLemmatizeTolerant(Lemmatizer lemmatizer, List<String> tokens)
+	{
+		long ret = 0;
+		for (int round = 0; round <= ROUNDS; round++)
+		{
+			long start = System.nanoTime();
+			for (String token : tokens)
+			{
+				lemmatizer.lemmatizeTolerant(token);
+			}
+			if (round > 0) // the first round is a warm-up
+			{
+				ret += System.nanoTime() - start;
+			}
+		}
+		return ret / ((long)ROUNDS * tokens.size());
+	}
+
+	private static List<HebrewToken> lemmatizeLikeStream(Lemmatizer lemmatizer, String token)
+	{
+		List<HebrewToken> ret = lemmatizer.lemmatize(token);
+		return (ret != null) ? ret : lemmatizer.lemmatizeTolerant(token);
+	}
+
+	/**
+	 Average time to lemmatize a token with lemmatizeLikeStream(), in nanoseconds
+	*/
+	private static long timeLemmatizeLikeStream(Lemmatizer lemmatizer, List<String> tokens)
+	{
+		long ret = 0;
+		for (int round = 0; round <= ROUNDS; round++)
+		{
+			long start = System.nanoTime();
+			for (String token : tokens)
+			{
+				lemmatizeLikeStream(lemmatizer, token);
+			}
+			if (round > 0) // the first round is a warm-up
+			{
+				ret += System.nanoTime() - start;
+			}
+		}
+		return ret / ((long)ROUNDS * tokens.size());
+	}
+
+	/**
+	 Average time to lemmatize a token, in nanoseconds
+	*/
+	static long timeLemmatize(Lemmatizer lemmatizer, List<String> tokens)
+	{
+		long ret = 0;
+		for (int round = 0; round <= ROUNDS * 20; round++)
+		{
+			long start = System.nanoTime();
+			for (String token : tokens)
+			{
+				lemmatizer.lemmatize(token);
+			}
+			if (round > 0) // the first round is a warm-up
+			{
+				ret += System.nanoTime() - start;
+			}
+		}
+		return ret / ((long)ROUNDS * 20 * tokens.size());
+	}
+
+	static List<String> readCorpusTokens() throws IOException
+	{
+		String corpus = System.getProperty("hebmorph.corpus");
+		Reader reader = (corpus == null) ? new StringReader(DEFAULT_CORPUS) : new InputStreamReader(new FileInputStream(corpus), "UTF-8");
+		List<String> ret = new ArrayList<String>();
+		try
+		{
+			Tokenizer tokenizer = new Tokenizer(reader);
+			Reference<String> token = new Reference<String>("");
+			int tokenType;
+			while ((tokenType = tokenizer.nextToken(token)) > 0)
+			{
+				if ((tokenType & Tokenizer.TokenType.Hebrew) > 0)
+				{
+					ret.add(Lemmatizer.removeNiqqud(token.ref));
+				}
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		return ret;
+	}
+
+	static List<String> collectKeys(DictLookup<?> dict)
+	{
+		List<String> ret = new ArrayList<String>();
+		DictLookup.KeyEnumerator<?> en = dict.iterator();
+		while (en.hasNext())
+		{
+			en.next();
+			ret.add(en.getCurrentKey());
+		}
+		return ret;
+	}
+
+	/**
+	 Average time of an exact lookup, in nanoseconds
+	*/
+	static long timeLookups(DictLookup<?> dict, List<String> words)
+	{
+		return timeLookups(dict, words, ROUNDS);
+	}
+
+	static long timeLookups(DictLookup<?> dict, List<String> words, int rounds)
+	{
+		char[][] keys = new char[words.size()][];
+		for (int i = 0; i < keys.length; i++)
+		{
+			keys[i] = words.get(i).toCharArray();
+		}
+
+		int found = 0;
+		long start = 0;
+		for (int round = 0; round <= rounds; round++)
+		{
+			if (round == 1) // the first round is a warm-up
+			{
+				start = System.nanoTime();
+			}
+			for (char[] key : keys)
+			{
+				if (dict.lookup(key) != null)
+				{
+					found++;
+				}
+			}
+		}
+		if (found == 0)
+		{
+			throw new IllegalStateException();
+		}
+		return (System.nanoTime() - start) / ((long)rounds * keys.length);
+	}
+
+	/**
+	 Average time of a tolerant lookup of every 50th word, in nanoseconds
+	*/
+	static long timeTolerantLookups(DictLookup<?> dict, List<String> words)
+	{
+		int count = 0;
+		long start = 0;
+		for (int round = 0; round <= ROUNDS; round++)
+		{
+			if (round == 1) // the first round is a warm-up
+			{
+				start = System.nanoTime();
+				count = 0;
+			}
+			for (int i = 0; i < words.size(); i += 50, count++)
+			{
+				dict.lookupTolerant(words.get(i), LookupTolerators.EmKryiaTolerators);
+			}
+		}
+		return (System.nanoTime() - start) / count;
+	}
+
+	static long usedMemory() throws InterruptedException
+	{
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 4; i++)
+		{
+			System.gc();
+			Thread.sleep(100);
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+}
@@ -21,12 +21,23 @@
  **************************************************************************/
 package hebmorph;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import hebmorph.datastructures.DictLookup;
 import hebmorph.datastructures.DictRadix;
+import hebmorph.hspell.Loader;
+import hebmorph.hspell.LingInfo;
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -120,6 +131,286 @@ public class LemmatizerTest
 
 	}
 
+	@Test
+	public void testCloseWhileLoading() throws Exception
+	{
+		final CountDownLatch release = new CountDownLatch(1);
+		Lemmatizer lemmatizer = new Lemmatizer();
+		Future<DictionaryVersion> loading = lemmatizer.reload(new Callable<DictLookup<MorphData>>()
+		{
+			public DictLookup<MorphData> call() throws Exception
+			{
+				release.await();
+				DictRadix<MorphData> dict = new DictRadix<MorphData>();
+				MorphData data = new MorphData();
+				data.setLemmas(new String[] { "בית" });
+				data.setDescFlags(new int[] { 0 });
+				dict.addNode("בית", data);
+				return dict;
+			}
+		}, false);
+		lemmatizer.close();
+		release.countDown();
+
+		try
+		{
+			loading.get();
+			fail("The load should have been cancelled");
+		}
+		catch (CancellationException e)
+		{
+		}
+		assertTrue(loading.isCancelled());
+		assertTrue(lemmatizer.lemmatize("בית") == null);
+	}
+
+	@Test
+	public void testCacheSharedByLemmatizers()
+	{
+		Lemmatizer first = lemmatizerOf("בית", "בית"), second = lemmatizerOf("בית", "ביתה");
+		LemmatizationCache cache = new LemmatizationCache(100);
+		first.setCache(cache);
+		second.setCache(cache);
+
+		for (int i = 0; i < 2; i++)
+		{
+			assertEquals("בית", first.lemmatize("בית").get(0).getLemma());
+			assertEquals("ביתה", second.lemmatize("בית").get(0).getLemma());
+		}
+	}
+
+	@Test
+	public void testOovFilterSharedByLemmatizers()
+	{
+		Lemmatizer first = lemmatizerOf("בית", "בית"), second = lemmatizerOf("שלום", "שלום");
+		OovFilter filter = new OovFilter();
+		first.setOovFilter(filter);
+		second.setOovFilter(filter);
+
+		assertTrue(first.lemmatizeTolerant("שלום") == null);
+		assertEquals("שלום", second.lemmatizeTolerant("שלום").get(0).getLemma());
+		assertTrue(first.lemmatizeTolerant("שלום") == null);
+		assertEquals("שלום", second.lemmatizeTolerant("שלום").get(0).getLemma());
+	}
+
+	@Test
+	public void testCustomRelationLeavesVersionsIntact() throws Exception
+	{
+		Lemmatizer lemmatizer = lemmatizerOf("בית", "בית");
+		lemmatizer.freezeDictionary();
+		DictionaryVersion before = lemmatizer.getDictionaryVersion();
+
+		assertTrue(lemmatizer.addCustomRelation("בית", "ביתן", 0));
+		assertTrue(!lemmatizer.addCustomRelation("בית", "ביתן", 0));
+
+		// The version published before is left as it was
+		assertEquals(1, before.getDictionary().lookup("בית").getLemmas().length);
+		assertTrue(before.getDictionary().lookup("ביתן") == null);
+
+		DictLookup<MorphData> after = lemmatizer.getDictionaryVersion().getDictionary();
+		assertEquals("ביתן", after.lookup("בית").getLemmas()[1]);
+		assertEquals("בית", after.lookup("ביתן").getLemmas()[1]);
+		assertEquals(2, after.getCount());
+	}
+
+	@Test
+	public void testCustomRelationNeedsMorphData() throws Exception
+	{
+		Lemmatizer lemmatizer = new Lemmatizer();
+		lemmatizer.initFromDictionary(Loader.loadPrefixMaskDictionaryFromHSpellFolder(hspellPath), false);
+		DictionaryVersion before = lemmatizer.getDictionaryVersion();
+		// ביתן is already a word, ביתנון isn't
+		try
+		{
+			lemmatizer.addCustomRelation("בית", "ביתן", 0);
+			fail("A relation was added without morphologic data");
+		}
+		catch (IllegalStateException e)
+		{
+		}
+		try
+		{
+			lemmatizer.addCustomRelation("בית", "ביתנון", 0);
+			fail("A relation was added without morphologic data");
+		}
+		catch (IllegalStateException e)
+		{
+		}
+		assertTrue(before == lemmatizer.getDictionaryVersion());
+	}
+
+	/**
+	 A session looks words up in its engine, and refuses to load or change a dictionary of its own
+	*/
+	@Test
+	public void testSessionRejectsDictionaryChanges() throws Exception
+	{
+		StreamLemmatizer engine = new StreamLemmatizer();
+		engine.initFromDictionary(lemmatizerOf("בית", "בית").getDictionaryVersion().getDictionary(), false);
+		StreamLemmatizer session = engine.newSession();
+		assertEquals("בית", session.lemmatize("בית").get(0).getLemma());
+
+		try
+		{
+			session.addCustomRelation("בית", "ביתן", 0);
+			fail("A session changed its own dictionary");
+		}
+		catch (UnsupportedOperationException e)
+		{
+		}
+		try
+		{
+			session.addOverlay(new DictRadix<MorphData>());
+			fail("A session changed its own dictionary");
+		}
+		catch (UnsupportedOperationException e)
+		{
+		}
+		try
+		{
+			session.setCache(new LemmatizationCache(100));
+			fail("A session changed its own dictionary");
+		}
+		catch (UnsupportedOperationException e)
+		{
+		}
+		try
+		{
+			session.initFromDictionary(new DictRadix<MorphData>(), false);
+			fail("A session changed its own dictionary");
+		}
+		catch (UnsupportedOperationException e)
+		{
+		}
+		try
+		{
+			session.freezeDictionary();
+			fail("A session changed its own dictionary");
+		}
+		catch (UnsupportedOperationException e)
+		{
+		}
+		try
+		{
+			session.close();
+			fail("A session changed its own dictionary");
+		}
+		catch (UnsupportedOperationException e)
+		{
+		}
+
+		engine.addOverlay(lemmatizerOf("ביתן", "ביתן").getDictionaryVersion().getDictionary());
+		assertEquals(engine.getOverlays(), session.getOverlays());
+		assertEquals("ביתן", session.lemmatize("ביתן").get(0).getLemma());
+		engine.close();
+	}
+
+	/**
+	 Walking the prefix tree a letter at a time reaches every prefix in it, with the mask a lookup of the
+	 prefix returns
+	*/
+	@Test
+	public void testPrefixWalk()
+	{
+		for (boolean allowHeHasheela : new boolean[] { false, true })
+		{
+			DictRadix<Integer> prefixes = LingInfo.buildPrefixTree(allowHeHasheela);
+			DictLookup.KeyEnumerator<Integer> en = prefixes.iterator();
+			int count = 0;
+			while (en.hasNext())
+			{
+				Integer mask = en.next();
+				String prefix = en.getCurrentKey();
+				DictRadix<Integer>.DictNode node = prefixes.getRootNode();
+				for (int i = 0; i < prefix.length(); i++)
+				{
+					node = Lemmatizer.nextPrefixNode(node, prefix.charAt(i));
+					assertTrue(prefix.substring(0, i + 1), node != null);
+					assertEquals(prefix.substring(0, i + 1), prefixes.lookup(prefix.substring(0, i + 1)), node.getValue());
+				}
+				assertEquals(prefix, mask, node.getValue());
+				assertTrue(Lemmatizer.nextPrefixNode(node, 'א') == null);
+				count++;
+			}
+			assertEquals(prefixes.getCount(), count);
+		}
+	}
+
+	/**
+	 The prefixed words lemmatize() finds in one pass over a word are those found by looking up each of its
+	 prefixes and the rest of it as strings of their own
+	*/
+	@Test
+	public void testLemmatizePrefixSplits() throws IOException
+	{
+		Lemmatizer lemmatizer = new Lemmatizer(hspellPath, true, false);
+		DictionaryVersion version = lemmatizer.getDictionaryVersion();
+		String[] words = { "בית", "ספר", "שלום", "ילדים", "הלך", "אמר", "ש", "של" };
+
+		DictLookup.KeyEnumerator<Integer> en = version.getPrefixes().iterator();
+		while (en.hasNext())
+		{
+			en.next();
+			String prefix = en.getCurrentKey();
+			for (String stem : words)
+			{
+				String word = prefix + stem;
+				Set<String> expected = new TreeSet<String>();
+				for (int prefLen = 1; word.length() - prefLen >= 2; prefLen++)
+				{
+					Integer prefixMask = version.getPrefixes().lookup(word.substring(0, prefLen));
+					if ((prefixMask == null) || (prefixMask == 0))
+					{
+						break;
+					}
+					MorphData md = version.getDictionary().lookup(word.substring(prefLen));
+					if ((md == null) || ((md.getPrefixes() & prefixMask) == 0))
+					{
+						continue;
+					}
+					for (int result = 0; result < md.getLemmas().length; result++)
+					{
+						if ((LingInfo.DMask2ps(md.getDescFlags()[result]) & prefixMask) > 0)
+						{
+							// A null lemma is the word after the prefix, as in HebrewToken
+							String lemma = (md.getLemmas()[result] == null) ? word.substring(prefLen) : md.getLemmas()[result];
+							expected.add(prefLen + " " + lemma + " " + md.getDescFlags()[result]);
+						}
+					}
+				}
+
+				Set<String> actual = new TreeSet<String>();
+				List<HebrewToken> tokens = lemmatizer.lemmatize(word);
+				if (tokens != null)
+				{
+					for (HebrewToken token : tokens)
+					{
+						if (token.getPrefixLength() > 0)
+						{
+							actual.add(token.getPrefixLength() + " " + token.getLemma() + " " + token.getMask());
+						}
+					}
+				}
+				assertEquals(word, expected, actual);
+			}
+		}
+	}
+
+	/**
+	 A lemmatizer of a dictionary of one word
+	*/
+	private static Lemmatizer lemmatizerOf(String word, String lemma)
+	{
+		DictRadix<MorphData> dict = new DictRadix<MorphData>();
+		MorphData data = new MorphData();
+		data.setLemmas(new String[] { lemma });
+		data.setDescFlags(new int[] { 0 });
+		dict.addNode(word, data);
+		Lemmatizer ret = new Lemmatizer();
+		ret.initFromDictionary(dict, false);
+		return ret;
+	}
+
 	@Ignore
 	public void testLemmatizerStringBooleanBoolean()
 	{
@@ -20,6 +20,7 @@
  **************************************************************************/
 package org.apache.lucene.analysis.hebrew;
 
+import hebmorph.DictionaryVersion;
 import hebmorph.StopWords;
 import hebmorph.StreamLemmatizer;
 import hebmorph.lemmafilters.LemmaFilterBase;
@@ -28,6 +29,8 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.StopFilter;
@@ -64,8 +67,30 @@ public class MorphAnalyzer extends Analyzer
 	*/
 	public LemmaFilterBase lemmaFilter = null;
 
+	/**
+	 Told which way each token stream of an analyzer created with MorphAnalyzer(String, boolean) is analyzed
+	*/
+	public interface StreamListener
+	{
+		/**
+		 @param morphologic Whether the stream is lemmatized, or only tokenized as by SimpleAnalyzer since the
+		 dictionary isn't loaded yet
+		*/
+		public void streamCreated(String fieldName, boolean morphologic);
+	}
+
 	private boolean enableStopPositionIncrements = true;
+	// The engine all token streams look words up in; each stream lemmatizes through a session of its own
 	private StreamLemmatizer hebMorphLemmatizer;
+	// Whether the lemmatizer was created here, and should be closed along with the analyzer
+	private boolean ownsLemmatizer = false;
+	// The dictionary being loaded, when token streams are created before it's ready
+	private Future<DictionaryVersion> dictionaryReady = null;
+	private boolean serveWhileLoading = false;
+	private volatile StreamListener streamListener = null;
+	// Tokenizes the streams created while the dictionary is loading
+	private final SimpleAnalyzer simpleAnalyzer = new SimpleAnalyzer();
+	private final AtomicLong morphStreams = new AtomicLong(), simpleStreams = new AtomicLong();
 
 	public MorphAnalyzer()
 	{
@@ -80,13 +105,140 @@ public class MorphAnalyzer extends Analyzer
 		hebMorphLemmatizer = hml;
 	}
 	
+	/**
+	 Uses the dictionary shared by all analyzers and lemmatizers of the process loading the same files; see
+	 hebmorph.DictionaryRegistry. close() the analyzer to release it.
+	*/
 	public MorphAnalyzer(String HSpellDataFilesPath) throws IOException
 	{
 		super();
 		hebMorphLemmatizer = new StreamLemmatizer();
-		hebMorphLemmatizer.initFromHSpellFolder(HSpellDataFilesPath, true, false);
+		hebMorphLemmatizer.initFromSharedDictionary(HSpellDataFilesPath, true, false);
+		ownsLemmatizer = true;
 	}	
 
+	/**
+	 The lemmatizer of the analyzer, such as for reloading its dictionary. Token streams already started
+	 finish with the dictionary they started with. Token streams don't lemmatize with it directly, but with
+	 sessions of it (see StreamLemmatizer.newSession()), so any number of threads can use the analyzer.
+	*/
+	public StreamLemmatizer getLemmatizer()
+	{
+		return hebMorphLemmatizer;
+	}
+
+	/**
+	 Returns at once, loading the shared dictionary on a thread of its own. When serveWhileLoading is true,
+	 token streams created before it's loaded are tokenized as by SimpleAnalyzer, with prefixes stripped but
+	 no lemmas; when it's false, creating them waits for it.
+	*/
+	public MorphAnalyzer(String HSpellDataFilesPath, boolean serveWhileLoading)
+	{
+		super();
+		hebMorphLemmatizer = new StreamLemmatizer();
+		dictionaryReady = hebMorphLemmatizer.initFromSharedDictionaryAsync(HSpellDataFilesPath, true, false);
+		ownsLemmatizer = true;
+		this.serveWhileLoading = serveWhileLoading;
+	}
+
+	/**
+	 @return The dictionary being loaded in the background, for an analyzer created with
+	 MorphAnalyzer(String, boolean); null otherwise
+	*/
+	public Future<DictionaryVersion> getDictionaryReady()
+	{
+		return dictionaryReady;
+	}
+
+	/**
+	 The analyzer token streams are tokenized with until the dictionary is loaded, for an analyzer created
+	 with MorphAnalyzer(String, boolean); register suffixes on it as on any SimpleAnalyzer
+	*/
+	public SimpleAnalyzer getSimpleAnalyzer()
+	{
+		return simpleAnalyzer;
+	}
+
+	/**
+	 Whether token streams are lemmatized, rather than only tokenized until the dictionary is loaded. False
+	 also once the dictionary failed to load; creating token streams then throws.
+	*/
+	public boolean isMorphologic()
+	{
+		return (dictionaryReady == null) || (dictionaryReady.isDone() && !dictionaryReady.isCancelled() &&
+				hebMorphLemmatizer.getIsInitialized());
+	}
+
+	public void setStreamListener(StreamListener listener)
+	{
+		streamListener = listener;
+	}
+
+	/**
+	 @return How many token streams were lemmatized, for an analyzer created with MorphAnalyzer(String, boolean)
+	*/
+	public long getMorphStreamsCount()
+	{
+		return morphStreams.get();
+	}
+
+	/**
+	 @return How many token streams were only tokenized while the dictionary was loading
+	*/
+	public long getSimpleStreamsCount()
+	{
+		return simpleStreams.get();
+	}
+
+	private void awaitDictionary()
+	{
+		try
+		{
+			dictionaryReady.get();
+		}
+		catch (Exception e)
+		{
+			throw new IllegalStateException("The HebMorph dictionary failed to load", e);
+		}
+	}
+
+	/**
+	 Counts the stream the way it's analyzed, and tells the listener
+	*/
+	private boolean startStream(String fieldName)
+	{
+		if (dictionaryReady == null)
+		{
+			return true;
+		}
+
+		boolean morphologic = isMorphologic();
+		if (!morphologic && (!serveWhileLoading || dictionaryReady.isDone()))
+		{
+			// Waits for the dictionary, or throws if it failed to load
+			awaitDictionary();
+			morphologic = true;
+		}
+		(morphologic ? morphStreams : simpleStreams).incrementAndGet();
+		StreamListener listener = streamListener;
+		if (listener != null)
+		{
+			listener.streamCreated(fieldName, morphologic);
+		}
+		return morphologic;
+	}
+
+	@Override
+	public void close()
+	{
+		super.close();
+		simpleAnalyzer.close();
+		if (ownsLemmatizer)
+		{
+			hebMorphLemmatizer.close();
+		}
+	}
+
 	
 	private static class SavedStreams
 	{
@@ -97,12 +249,17 @@ public class MorphAnalyzer extends Analyzer
 	@Override
 	public TokenStream reusableTokenStream(String fieldName, Reader reader) throws java.io.IOException
 	{
+		if (!startStream(fieldName))
+		{
+			return simpleAnalyzer.reusableTokenStream(fieldName, reader);
+		}
+
 		Object tempVar = getPreviousTokenStream();
 		SavedStreams streams = (SavedStreams)((tempVar instanceof SavedStreams) ? tempVar : null);
 		if (streams == null)
 		{
 			streams = new SavedStreams();
-			streams.source = new StreamLemmasFilter(reader, hebMorphLemmatizer, lemmaFilter, alwaysSaveMarkedOriginal);
+			streams.source = new StreamLemmasFilter(reader, hebMorphLemmatizer.newSession(), lemmaFilter, alwaysSaveMarkedOriginal);
 
 			// This stop filter is here temporarily, until HebMorph is smart enough to clear stop words
 			// all by itself
@@ -120,7 +277,12 @@ public class MorphAnalyzer extends Analyzer
 	@Override
 	public TokenStream tokenStream(String fieldName, Reader reader)
 	{
-		TokenStream result = new StreamLemmasFilter(reader, hebMorphLemmatizer, lemmaFilter, alwaysSaveMarkedOriginal);
+		if (!startStream(fieldName))
+		{
+			return simpleAnalyzer.tokenStream(fieldName, reader);
+		}
+
+		TokenStream result = new StreamLemmasFilter(reader, hebMorphLemmatizer.newSession(), lemmaFilter, alwaysSaveMarkedOriginal);
 
 		// This stop filter is here temporarily, until HebMorph is smart enough to clear stop words
 		// all by itself
@@ -128,4 +290,4 @@ public class MorphAnalyzer extends Analyzer
 
 		return result;
 	}
-}
\ No newline at end of file
+}
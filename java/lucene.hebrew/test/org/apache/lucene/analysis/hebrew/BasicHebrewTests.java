@@ -22,7 +22,23 @@
 package org.apache.lucene.analysis.hebrew;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import hebmorph.DictionaryVersion;
+import hebmorph.LemmatizationCache;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.TermAttribute;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.index.IndexWriter;
@@ -116,6 +132,149 @@ public class BasicHebrewTests
 	}
 
 
+	@Test
+	public void serveWhileLoading() throws Exception
+	{
+		final List<Boolean> paths = new ArrayList<Boolean>();
+		MorphAnalyzer loading = new MorphAnalyzer(hspellPath, true);
+		loading.setStreamListener(new MorphAnalyzer.StreamListener()
+		{
+			public void streamCreated(String fieldName, boolean morphologic)
+			{
+				paths.add(morphologic);
+			}
+		});
+
+		// Tokenized either way, depending on whether the dictionary is loaded by now
+		long start = System.nanoTime();
+		boolean morphologic = loading.isMorphologic();
+		TokenStream stream = loading.tokenStream("content", new StringReader("לכלבי"));
+		assertTrue(stream.incrementToken());
+		long firstToken = System.nanoTime() - start;
+
+		DictionaryVersion ready = loading.getDictionaryReady().get();
+		assertTrue(loading.isMorphologic());
+		analyzer = loading;
+		assertFoundInText("שבתו", "בת");
+		assertFoundInText("כלבי", "לכלבי");
+
+		assertEquals(morphologic, paths.get(0));
+		assertEquals(Boolean.TRUE, paths.get(paths.size() - 1));
+		assertEquals(paths.size(), loading.getMorphStreamsCount() + loading.getSimpleStreamsCount());
+		System.out.println(String.format("first token after %d us (%s); dictionary ready after %d ms: %s",
+				firstToken / 1000, morphologic ? "lemmatized" : "tokenized only", ready.getBuildNanos() / 1000000, ready));
+		loading.close();
+	}
+
+	@Test
+	public void failedLoadReported() throws Exception
+	{
+		MorphAnalyzer loading = new MorphAnalyzer(hspellPath + "-missing", true);
+		try
+		{
+			loading.getDictionaryReady().get();
+			fail("Loaded a dictionary from a missing folder");
+		}
+		catch (ExecutionException e)
+		{
+		}
+		assertTrue(!loading.isMorphologic());
+
+		// Once the load failed, token streams aren't served tokenized only, as though it were still loading
+		try
+		{
+			loading.tokenStream("content", new StringReader("לכלבי"));
+			fail("Created a token stream after the dictionary failed to load");
+		}
+		catch (IllegalStateException e)
+		{
+		}
+		try
+		{
+			loading.reusableTokenStream("content", new StringReader("לכלבי"));
+			fail("Created a token stream after the dictionary failed to load");
+		}
+		catch (IllegalStateException e)
+		{
+		}
+		loading.close();
+	}
+
+	@Test
+	public void concurrentStreams() throws Exception
+	{
+		final String[] texts = {
+				"שבתו של הכלב בביתנו היתה ארוכה מאוד",
+				"ליונתן ולכלבי יש דמעות בעיניים, ולתפילתנו אין מענה",
+				"אנציקלופדיה אצטרולב test 1234 אחשוורוש לאחשוורוש",
+				"הַיְּלָדִים הָלְכוּ לְבֵית הַסֵּפֶר בַּבֹּקֶר",
+				"כשהמורים והתלמידים יצאו מהכיתה, התחיל לרדת גשם",
+		};
+		final List<List<String>> expected = new ArrayList<List<String>>();
+		for (String text : texts)
+		{
+			expected.add(analyze(analyzer.tokenStream("content", new StringReader(text))));
+		}
+
+		final int rounds = 200;
+		for (int run = 0; run < 4; run++)
+		{
+			int threads = ((run % 2) == 0) ? 1 : 8;
+			if (run == 2)
+			{
+				// The streams of all threads share one cache of lemmatization results
+				((MorphAnalyzer)analyzer).getLemmatizer().setCache(new LemmatizationCache(1000));
+			}
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
+			List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+			long start = System.nanoTime();
+			for (int t = 0; t < threads; t++)
+			{
+				final int first = t;
+				results.add(pool.submit(new Callable<Integer>()
+				{
+					public Integer call() throws Exception
+					{
+						for (int i = 0; i < rounds; i++)
+						{
+							int text = (first + i) % texts.length;
+							// Both the per-thread reused streams and new ones
+							TokenStream stream = ((i % 2) == 0) ?
+									analyzer.reusableTokenStream("content", new StringReader(texts[text])) :
+									analyzer.tokenStream("content", new StringReader(texts[text]));
+							assertEquals(expected.get(text), analyze(stream));
+						}
+						return rounds;
+					}
+				}));
+			}
+			int streams = 0;
+			for (Future<Integer> result : results)
+			{
+				streams += result.get();
+			}
+			long nanos = System.nanoTime() - start;
+			pool.shutdown();
+			System.out.println(String.format("%d threads%s: %d streams in %d ms, %.0f streams/s (%d processors)",
+					threads, (run < 2) ? "" : " with a cache", streams, nanos / 1000000, streams * 1e9 / nanos,
+					Runtime.getRuntime().availableProcessors()));
+		}
+		((MorphAnalyzer)analyzer).getLemmatizer().setCache(null);
+	}
+
+	private static List<String> analyze(TokenStream stream) throws Exception
+	{
+		TermAttribute term = (TermAttribute)stream.addAttribute(TermAttribute.class);
+		OffsetAttribute offset = (OffsetAttribute)stream.addAttribute(OffsetAttribute.class);
+		PositionIncrementAttribute posIncr = (PositionIncrementAttribute)stream.addAttribute(PositionIncrementAttribute.class);
+		List<String> ret = new ArrayList<String>();
+		while (stream.incrementToken())
+		{
+			ret.add(term.term() + "/" + offset.startOffset() + "-" + offset.endOffset() + "/" + posIncr.getPositionIncrement());
+		}
+		return ret;
+	}
+
 	protected void assertFoundInText(String whatToIndex, String whatToSearch) throws Exception
 	{
 		assertEquals(findInText(whatToIndex, whatToSearch),1);